@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.Arrays;
+
+import org.pentaho.dm.commons.ArffMeta;
+
+/**
+ * Column oriented storage for the rows held in the reservoir. Numeric and
+ * date fields are held in a double[] per field; string fields are held as
+ * an int[] of dictionary codes per field. Missing numeric values are stored
+ * as NaN and missing nominal values as a negative code. Fields that can't be
+ * converted (i.e. have a null ArffMeta) get no storage at all.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class ColumnarSample {
+
+  /** Code used to indicate a missing nominal value */
+  public static final int MISSING_CODE = -1;
+
+  /** Number of rows allocated for up front - the columns grow from there */
+  protected static final int DEFAULT_CAPACITY = 1024;
+
+  /** Numeric/date columns (null for nominal or unhandled fields) */
+  protected double[][] m_numeric;
+
+  /** Nominal code columns (null for numeric or unhandled fields) */
+  protected int[][] m_codes;
+
+  /** Number of rows that can be stored without growing the columns */
+  protected int m_capacity;
+
+  /**
+   * The columns never grow past this many rows (Integer.MAX_VALUE when the
+   * sample size is unbounded)
+   */
+  protected int m_maxCapacity = Integer.MAX_VALUE;
+
+  /** Number of rows currently held (i.e. highest written slot + 1) */
+  protected int m_size;
+
+  /**
+   * Constructor. Only a small number of rows is allocated for up front, so a
+   * large sample size costs nothing for a short stream; the columns double in
+   * size as rows arrive, up to the sample size.
+   *
+   * @param fields   the ArffMeta for each incoming field (entries may be null)
+   * @param capacity the maximum number of rows that will be held. Values less
+   *                 than 1 indicate an unbounded sample that will grow as needed
+   */
+  public ColumnarSample( ArffMeta[] fields, int capacity ) {
+    if ( capacity > 0 ) {
+      m_maxCapacity = capacity;
+    }
+    m_capacity = Math.min( DEFAULT_CAPACITY, m_maxCapacity );
+    m_numeric = new double[fields.length][];
+    m_codes = new int[fields.length][];
+
+    for ( int i = 0; i < fields.length; i++ ) {
+      if ( fields[i] == null ) {
+        continue;
+      }
+      if ( fields[i].getArffType() == ArffMeta.NOMINAL ) {
+        m_codes[i] = new int[m_capacity];
+      } else {
+        m_numeric[i] = new double[m_capacity];
+      }
+    }
+  }
+
+  protected ColumnarSample() {
+  }
+
+  /**
+   * Get a copy of the sample, with columns trimmed to the number of rows held
+   *
+   * @return the copy
+   */
+  public ColumnarSample copy() {
+    ColumnarSample copy = new ColumnarSample();
+    copy.m_capacity = Math.max( 1, m_size );
+    copy.m_numeric = new double[m_numeric.length][];
+    copy.m_codes = new int[m_codes.length][];
+    for ( int i = 0; i < m_numeric.length; i++ ) {
+      if ( m_numeric[i] != null ) {
+        copy.m_numeric[i] = Arrays.copyOf( m_numeric[i], copy.m_capacity );
+      }
+      if ( m_codes[i] != null ) {
+        copy.m_codes[i] = Arrays.copyOf( m_codes[i], copy.m_capacity );
+      }
+    }
+    copy.m_size = m_size;
+
+    return copy;
+  }
+
+  /**
+   * Get a copy of at most maxRows rows of the sample. If the sample holds
+   * more rows than that, every (size / maxRows)th row is copied, so the copy
+   * spans the whole sample rather than just its start.
+   *
+   * @param maxRows the maximum number of rows to copy
+   * @return the copy
+   */
+  public ColumnarSample copy( int maxRows ) {
+    if ( m_size <= maxRows ) {
+      return copy();
+    }
+
+    ColumnarSample copy = new ColumnarSample();
+    copy.m_capacity = Math.max( 1, maxRows );
+    copy.m_numeric = new double[m_numeric.length][];
+    copy.m_codes = new int[m_codes.length][];
+    double stride = (double) m_size / copy.m_capacity;
+    for ( int i = 0; i < m_numeric.length; i++ ) {
+      if ( m_numeric[i] != null ) {
+        double[] column = new double[copy.m_capacity];
+        for ( int j = 0; j < column.length; j++ ) {
+          column[j] = m_numeric[i][(int) ( j * stride )];
+        }
+        copy.m_numeric[i] = column;
+      }
+      if ( m_codes[i] != null ) {
+        int[] column = new int[copy.m_capacity];
+        for ( int j = 0; j < column.length; j++ ) {
+          column[j] = m_codes[i][(int) ( j * stride )];
+        }
+        copy.m_codes[i] = column;
+      }
+    }
+    copy.m_size = copy.m_capacity;
+
+    return copy;
+  }
+
+  /**
+   * Get the number of rows held
+   *
+   * @return the number of rows held
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * Get the number of fields (columns)
+   *
+   * @return the number of fields
+   */
+  public int numFields() {
+    return m_numeric.length;
+  }
+
+  /**
+   * Make sure that the supplied slot can be written to, growing the columns if
+   * necessary (doubling them, but not past the maximum number of rows).
+   *
+   * @param slot the slot (row index) that is about to be written
+   */
+  public void ensureSlot( int slot ) {
+    if ( slot >= m_capacity ) {
+      int newCapacity = Math.max( slot + 1, (int) Math.min( m_capacity * 2L, m_maxCapacity ) );
+      for ( int i = 0; i < m_numeric.length; i++ ) {
+        if ( m_numeric[i] != null ) {
+          m_numeric[i] = Arrays.copyOf( m_numeric[i], newCapacity );
+        }
+        if ( m_codes[i] != null ) {
+          m_codes[i] = Arrays.copyOf( m_codes[i], newCapacity );
+        }
+      }
+      m_capacity = newCapacity;
+    }
+    if ( slot >= m_size ) {
+      m_size = slot + 1;
+    }
+  }
+
+  /**
+   * Set a numeric (or date) value. The caller must have called ensureSlot()
+   * first.
+   *
+   * @param field the index of the field
+   * @param slot  the row index
+   * @param value the value (NaN for missing)
+   */
+  public void setNumeric( int field, int slot, double value ) {
+    m_numeric[field][slot] = value;
+  }
+
+  /**
+   * Set a nominal dictionary code. The caller must have called ensureSlot()
+   * first.
+   *
+   * @param field the index of the field
+   * @param slot  the row index
+   * @param code  the dictionary code (MISSING_CODE for missing)
+   */
+  public void setCode( int field, int slot, int code ) {
+    m_codes[field][slot] = code;
+  }
+
+  /**
+   * Get the numeric column for a field
+   *
+   * @param field the index of the field
+   * @return the column (may be longer than size()), or null if the field is
+   * not numeric
+   */
+  public double[] getNumericColumn( int field ) {
+    return m_numeric[field];
+  }
+
+  /**
+   * Get the code column for a field
+   *
+   * @param field the index of the field
+   * @return the column (may be longer than size()), or null if the field is
+   * not nominal
+   */
+  public int[] getCodeColumn( int field ) {
+    return m_codes[field];
+  }
+}
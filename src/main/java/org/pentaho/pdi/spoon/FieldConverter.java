@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import weka.core.Utils;
+
+/**
+ * Converts the values of one incoming kettle field. One converter is created
+ * per field (when the row meta data is first seen) so that the type dispatch
+ * happens once rather than for every value. Converters check for null natively
+ * and, for fields that use normal storage, read the java object directly
+ * without going through the value meta (or any string formatting). Fields
+ * using binary string or indexed storage fall back to the value meta.
+ * <p>
+ * Numeric (including boolean and date) fields get a NumericConverter and
+ * string fields a NominalConverter, so that a field can only be converted in
+ * the way that suits its type.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public abstract class FieldConverter {
+
+  /** The meta data of the field */
+  protected final ValueMetaInterface m_meta;
+
+  /** True if values are stored as plain java objects */
+  protected final boolean m_normalStorage;
+
+  protected FieldConverter( ValueMetaInterface meta ) {
+    m_meta = meta;
+    m_normalStorage = meta.isStorageNormal();
+  }
+
+  /**
+   * Create a converter for a field
+   *
+   * @param meta the meta data of the field
+   * @return a converter, or null if the type of the field is not supported
+   */
+  public static FieldConverter create( ValueMetaInterface meta ) {
+    FieldConverter numeric = createNumeric( meta );
+
+    return numeric != null ? numeric : createNominal( meta );
+  }
+
+  /**
+   * Create a converter for a numeric, boolean or date field
+   *
+   * @param meta the meta data of the field
+   * @return a converter, or null if the field is not numeric
+   */
+  public static NumericConverter createNumeric( ValueMetaInterface meta ) {
+    switch ( meta.getType() ) {
+      case ValueMetaInterface.TYPE_NUMBER:
+        return new NumberConverter( meta );
+      case ValueMetaInterface.TYPE_INTEGER:
+        return new IntegerConverter( meta );
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return new BigNumberConverter( meta );
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return new BooleanConverter( meta );
+      case ValueMetaInterface.TYPE_DATE:
+        return new DateConverter( meta );
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Create a converter for a string field
+   *
+   * @param meta the meta data of the field
+   * @return a converter, or null if the field is not a string field
+   */
+  public static NominalConverter createNominal( ValueMetaInterface meta ) {
+    return meta.getType() == ValueMetaInterface.TYPE_STRING ? new StringConverter( meta ) : null;
+  }
+
+  /**
+   * Converts the values of a field that ends up in a numeric column
+   */
+  public abstract static class NumericConverter extends FieldConverter {
+    protected NumericConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    /**
+     * Convert a value and write it into a numeric column
+     *
+     * @param value  the kettle value
+     * @param target the column to write to
+     * @param index  the index in the column to write to
+     * @throws KettleValueException if the value can't be converted
+     */
+    public abstract void convert( Object value, double[] target, int index ) throws KettleValueException;
+  }
+
+  /**
+   * Converts the values of a field that ends up in a nominal column
+   */
+  public abstract static class NominalConverter extends FieldConverter {
+    protected NominalConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    /**
+     * Convert a value to a dictionary key for a nominal column
+     *
+     * @param value the kettle value
+     * @return the key, or null if the value is missing
+     * @throws KettleValueException if the value can't be converted
+     */
+    public abstract String toKey( Object value ) throws KettleValueException;
+  }
+
+  protected static class NumberConverter extends NumericConverter {
+    protected NumberConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    @Override public void convert( Object value, double[] target, int index ) throws KettleValueException {
+      if ( value == null ) {
+        target[index] = Utils.missingValue();
+      } else if ( m_normalStorage ) {
+        target[index] = ( (Double) value ).doubleValue();
+      } else {
+        Double n = m_meta.getNumber( value );
+        target[index] = n == null ? Utils.missingValue() : n.doubleValue();
+      }
+    }
+  }
+
+  protected static class IntegerConverter extends NumericConverter {
+    protected IntegerConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    @Override public void convert( Object value, double[] target, int index ) throws KettleValueException {
+      if ( value == null ) {
+        target[index] = Utils.missingValue();
+      } else if ( m_normalStorage ) {
+        target[index] = ( (Long) value ).longValue();
+      } else {
+        Long n = m_meta.getInteger( value );
+        target[index] = n == null ? Utils.missingValue() : n.longValue();
+      }
+    }
+  }
+
+  protected static class BigNumberConverter extends NumericConverter {
+    protected BigNumberConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    @Override public void convert( Object value, double[] target, int index ) throws KettleValueException {
+      if ( value == null ) {
+        target[index] = Utils.missingValue();
+      } else if ( m_normalStorage ) {
+        target[index] = ( (BigDecimal) value ).doubleValue();
+      } else {
+        BigDecimal n = m_meta.getBigNumber( value );
+        target[index] = n == null ? Utils.missingValue() : n.doubleValue();
+      }
+    }
+  }
+
+  protected static class BooleanConverter extends NumericConverter {
+    protected BooleanConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    @Override public void convert( Object value, double[] target, int index ) throws KettleValueException {
+      if ( value == null ) {
+        target[index] = Utils.missingValue();
+      } else if ( m_normalStorage ) {
+        target[index] = ( (Boolean) value ).booleanValue() ? 1.0 : 0.0;
+      } else {
+        Boolean b = m_meta.getBoolean( value );
+        target[index] = b == null ? Utils.missingValue() : ( b.booleanValue() ? 1.0 : 0.0 );
+      }
+    }
+  }
+
+  protected static class DateConverter extends NumericConverter {
+    protected DateConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    @Override public void convert( Object value, double[] target, int index ) throws KettleValueException {
+      if ( value == null ) {
+        target[index] = Utils.missingValue();
+      } else if ( m_normalStorage ) {
+        target[index] = ( (Date) value ).getTime();
+      } else {
+        Date d = m_meta.getDate( value );
+        target[index] = d == null ? Utils.missingValue() : d.getTime();
+      }
+    }
+  }
+
+  protected static class StringConverter extends NominalConverter {
+    protected StringConverter( ValueMetaInterface meta ) {
+      super( meta );
+    }
+
+    @Override public String toKey( Object value ) throws KettleValueException {
+      if ( value == null ) {
+        return null;
+      }
+      String s = m_normalStorage ? (String) value : m_meta.getString( value );
+
+      return s == null || s.length() == 0 ? null : s;
+    }
+  }
+}
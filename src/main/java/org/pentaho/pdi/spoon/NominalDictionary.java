@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of the string values that are currently held in a reservoir
+ * column. Codes are reference counted: when a row is replaced in the reservoir
+ * its code is released, and once no rows refer to a value any more its code is
+ * recycled. The dictionary therefore never holds more entries than there are
+ * rows in the reservoir, regardless of how many distinct values flow past.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class NominalDictionary {
+
+  /** Value to code */
+  protected final Map<Object, Integer> m_codes = new HashMap<Object, Integer>();
+
+  /** Code to value (null for free codes) */
+  protected Object[] m_values = new Object[16];
+
+  /** Number of reservoir rows referring to each code */
+  protected int[] m_refCounts = new int[16];
+
+  /** Stack of recycled codes */
+  protected int[] m_free = new int[16];
+  protected int m_numFree;
+
+  /** Next never-used code */
+  protected int m_nextCode;
+
+  /**
+   * Get the code for a value and increment its reference count
+   *
+   * @param value the value
+   * @return the code for the value
+   */
+  public int acquire( Object value ) {
+    Integer code = m_codes.get( value );
+    if ( code == null ) {
+      int c = m_numFree > 0 ? m_free[--m_numFree] : m_nextCode++;
+      if ( c >= m_values.length ) {
+        m_values = Arrays.copyOf( m_values, m_values.length * 2 );
+        m_refCounts = Arrays.copyOf( m_refCounts, m_refCounts.length * 2 );
+      }
+      m_values[c] = value;
+      m_codes.put( value, c );
+      code = c;
+    }
+    m_refCounts[code]++;
+
+    return code;
+  }
+
+  /**
+   * Decrement the reference count for a code, recycling it if no longer used
+   *
+   * @param code the code to release
+   */
+  public void release( int code ) {
+    if ( --m_refCounts[code] == 0 ) {
+      m_codes.remove( m_values[code] );
+      m_values[code] = null;
+      if ( m_numFree == m_free.length ) {
+        m_free = Arrays.copyOf( m_free, m_free.length * 2 );
+      }
+      m_free[m_numFree++] = code;
+    }
+  }
+
+  /**
+   * Get a copy of the dictionary
+   *
+   * @return the copy
+   */
+  public NominalDictionary copy() {
+    NominalDictionary copy = new NominalDictionary();
+    copy.m_codes.putAll( m_codes );
+    copy.m_values = m_values.clone();
+    copy.m_refCounts = m_refCounts.clone();
+    copy.m_free = m_free.clone();
+    copy.m_numFree = m_numFree;
+    copy.m_nextCode = m_nextCode;
+
+    return copy;
+  }
+
+  /**
+   * Get the value for a code
+   *
+   * @param code the code
+   * @return the value, or null if the code is not in use
+   */
+  public Object getValue( int code ) {
+    return code < m_nextCode ? m_values[code] : null;
+  }
+
+  /**
+   * Get one more than the largest code handed out so far
+   *
+   * @return the code range
+   */
+  public int codeRange() {
+    return m_nextCode;
+  }
+}
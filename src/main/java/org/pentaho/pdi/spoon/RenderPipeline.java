@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Builds views on a single background thread, one at a time. Each request
+ * supersedes the ones before it: a request that is still waiting is dropped,
+ * and one that is being built is interrupted. Only the result of the latest
+ * request is ever committed, so rapid requests can't pile up concurrent
+ * builds, or have an older build replace the view after a newer one. Built
+ * views are committed on the Swing event dispatch thread. Queue depth and
+ * timings are tracked and reported to a listener.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class RenderPipeline {
+
+  /**
+   * A view to build
+   *
+   * @param <T> the type of the built view
+   */
+  public static interface RenderTask<T> {
+
+    /**
+     * Build the view. Called on the render thread. Should give up (e.g. by
+     * throwing CancellationException) if the thread is interrupted.
+     *
+     * @return the view
+     * @throws Exception if a problem occurs
+     */
+    T build() throws Exception;
+
+    /**
+     * Install the view. Called on the Swing event dispatch thread, only if no
+     * newer request has been made.
+     *
+     * @param result the view
+     */
+    void commit( T result );
+  }
+
+  /**
+   * Gets told when the queue depth or timings change
+   */
+  public static interface StatusListener {
+    void statusChanged( RenderPipeline pipeline );
+  }
+
+  protected final ExecutorService m_executor;
+
+  /** Number of the latest request */
+  protected final AtomicLong m_generation = new AtomicLong();
+
+  /** The latest request */
+  protected FutureTask<Void> m_current;
+
+  /** Requests made but not yet finished (or dropped) */
+  protected final AtomicInteger m_queueDepth = new AtomicInteger();
+
+  protected final AtomicLong m_committed = new AtomicLong();
+  protected final AtomicLong m_superseded = new AtomicLong();
+
+  /** Milliseconds the last committed request waited, and took to build */
+  protected volatile long m_lastWaitTime;
+  protected volatile long m_lastBuildTime;
+
+  protected volatile StatusListener m_listener;
+
+  /**
+   * Constructor
+   *
+   * @param threadName the name of the render thread
+   */
+  public RenderPipeline( final String threadName ) {
+    m_executor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+      @Override public Thread newThread( Runnable r ) {
+        Thread t = new Thread( r, threadName );
+        t.setDaemon( true );
+        t.setPriority( Thread.MIN_PRIORITY );
+        return t;
+      }
+    } );
+  }
+
+  /**
+   * Set a listener to be told about changes in queue depth and timings. The
+   * listener may be called on any thread.
+   *
+   * @param listener the listener
+   */
+  public void setStatusListener( StatusListener listener ) {
+    m_listener = listener;
+  }
+
+  /**
+   * Request a view to be built, superseding any earlier requests
+   *
+   * @param task the view to build
+   * @param <T>  the type of the built view
+   */
+  public synchronized <T> void submit( final RenderTask<T> task ) {
+    final long generation = m_generation.incrementAndGet();
+    final long submitted = System.currentTimeMillis();
+    if ( m_current != null ) {
+      m_current.cancel( true );
+    }
+
+    m_queueDepth.incrementAndGet();
+    final AtomicBoolean handedOff = new AtomicBoolean();
+    m_current = new FutureTask<Void>( new Runnable() {
+      @Override public void run() {
+        long start = System.currentTimeMillis();
+        T result;
+        try {
+          result = task.build();
+        } catch ( CancellationException e ) {
+          return;
+        } catch ( Exception e ) {
+          if ( generation == m_generation.get() ) {
+            e.printStackTrace();
+          }
+          return;
+        }
+        if ( isCurrent( generation ) ) {
+          // superseded or not, the outcome is now counted by commit()
+          handedOff.set( true );
+          commit( generation, task, result, start - submitted, System.currentTimeMillis() - start );
+        }
+      }
+    }, null ) {
+      @Override protected void done() {
+        m_queueDepth.decrementAndGet();
+        if ( !handedOff.get() && ( isCancelled() || generation != m_generation.get() ) ) {
+          m_superseded.incrementAndGet();
+        }
+        fireStatusChanged();
+      }
+    };
+    m_executor.execute( m_current );
+    fireStatusChanged();
+  }
+
+  protected synchronized boolean isCurrent( long generation ) {
+    return generation == m_generation.get();
+  }
+
+  /**
+   * Commit a built view on the event dispatch thread, unless a newer request
+   * has been made by the time it gets there
+   */
+  protected <T> void commit( final long generation, final RenderTask<T> task, final T result, final long waitTime,
+      final long buildTime ) {
+    SwingUtilities.invokeLater( new Runnable() {
+      @Override public void run() {
+        if ( isCurrent( generation ) ) {
+          task.commit( result );
+          m_lastWaitTime = waitTime;
+          m_lastBuildTime = buildTime;
+          m_committed.incrementAndGet();
+        } else {
+          m_superseded.incrementAndGet();
+        }
+        fireStatusChanged();
+      }
+    } );
+  }
+
+  protected void fireStatusChanged() {
+    StatusListener listener = m_listener;
+    if ( listener != null ) {
+      listener.statusChanged( this );
+    }
+  }
+
+  /**
+   * @return true if a request is waiting or being built
+   */
+  public boolean isBusy() {
+    return m_queueDepth.get() > 0;
+  }
+
+  /**
+   * @return the number of requests waiting or being built (including ones that
+   * have been superseded but not yet noticed it)
+   */
+  public int getQueueDepth() {
+    return m_queueDepth.get();
+  }
+
+  /**
+   * @return milliseconds taken to build the last committed view
+   */
+  public long getLastBuildTime() {
+    return m_lastBuildTime;
+  }
+
+  /**
+   * @return milliseconds that the last committed view waited before its build
+   * started
+   */
+  public long getLastWaitTime() {
+    return m_lastWaitTime;
+  }
+
+  /**
+   * @return the number of views committed
+   */
+  public long getCommitted() {
+    return m_committed.get();
+  }
+
+  /**
+   * @return the number of requests dropped because newer ones were made
+   */
+  public long getSuperseded() {
+    return m_superseded.get();
+  }
+
+  /**
+   * @return a one line summary of the queue depth and timings
+   */
+  public String getStatus() {
+    return String.format( "Render queue: %d, last build %,d ms (waited %,d ms), %d drawn, %d superseded",
+        getQueueDepth(), getLastBuildTime(), getLastWaitTime(), getCommitted(), getSuperseded() );
+  }
+
+  /**
+   * Stop the render thread, dropping any outstanding requests
+   */
+  public synchronized void shutdown() {
+    m_generation.incrementAndGet();
+    m_executor.shutdownNow();
+  }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.Random;
+
+/**
+ * Decides which reservoir slot (if any) each row of a stream should be stored
+ * in. Uses Li's "Algorithm L", which computes the number of rows to skip before
+ * the next replacement rather than drawing a random number for every row. Rows
+ * that fall in a gap only cost a counter decrement. The resulting sample has the
+ * same distribution as the classic "Algorithm R", and is reproducible for a
+ * given random number generator seed.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class ReservoirSampler {
+
+  /** Size of the reservoir */
+  protected final int m_k;
+
+  /** Source of randomness */
+  protected final Random m_random;
+
+  /** Number of rows offered so far */
+  protected long m_rowsSeen;
+
+  /** Number of rows still to skip before the next replacement */
+  protected long m_skip;
+
+  /** Current value of W in Algorithm L */
+  protected double m_w;
+
+  /**
+   * Constructor
+   *
+   * @param k      the size of the reservoir (must be greater than zero)
+   * @param random the random number generator to use
+   */
+  public ReservoirSampler( int k, Random random ) {
+    if ( k < 1 ) {
+      throw new IllegalArgumentException( "Reservoir size must be greater than zero" );
+    }
+    m_k = k;
+    m_random = random;
+  }
+
+  /**
+   * Offer the next row of the stream to the sampler.
+   *
+   * @return the slot in the reservoir that the row should be written to, or -1
+   * if the row should not be kept
+   */
+  public int offer() {
+    if ( m_rowsSeen < m_k ) {
+      int slot = (int) m_rowsSeen++;
+      if ( m_rowsSeen == m_k ) {
+        // reservoir is full - start skipping
+        m_w = Math.exp( Math.log( nextOpenUnit() ) / m_k );
+        computeSkip();
+      }
+      return slot;
+    }
+
+    m_rowsSeen++;
+    if ( m_skip > 0 ) {
+      m_skip--;
+      return -1;
+    }
+
+    int slot = m_random.nextInt( m_k );
+    m_w *= Math.exp( Math.log( nextOpenUnit() ) / m_k );
+    computeSkip();
+
+    return slot;
+  }
+
+  /**
+   * Get the number of rows offered to the sampler so far
+   *
+   * @return the number of rows seen
+   */
+  public long getRowsSeen() {
+    return m_rowsSeen;
+  }
+
+  /**
+   * Get the size of the reservoir
+   *
+   * @return the size of the reservoir
+   */
+  public int getK() {
+    return m_k;
+  }
+
+  protected void computeSkip() {
+    // floor(log(u) / log(1 - W)). log1p keeps precision when W is small; the
+    // double to long cast saturates if the skip is astronomically large
+    m_skip = (long) Math.floor( Math.log( nextOpenUnit() ) / Math.log1p( -m_w ) );
+  }
+
+  /**
+   * Returns a uniformly distributed value in the open interval (0, 1)
+   */
+  protected double nextOpenUnit() {
+    double u;
+    do {
+      u = m_random.nextDouble();
+    } while ( u == 0.0 );
+
+    return u;
+  }
+}
@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.pentaho.di.core.Const;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.gui.visualize.StreamingStats;
+
+/**
+ * Persistent cache of samples on disk, so that reopening a recent
+ * visualization doesn't have to run the transformation (or query) again.
+ * Entries are keyed by a hash of everything that determines the sample - the
+ * transformation up to the step (or the query and connection), the step name
+ * and the sampling parameters. Each entry is a single file holding a small
+ * header (attribute definitions and the streaming statistics), followed by
+ * the values of each attribute as a contiguous column of doubles, read back a
+ * column at a time. Files are not memory mapped, as a live mapping stops the
+ * file from being deleted or replaced on Windows. The least recently used
+ * entries are
+ * evicted once the files exceed a disk budget, which can be set (in MB) with
+ * the system property pmi.visualization.cache.mb.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SampleCache {
+
+  /** System property for the disk budget, in MB */
+  public static final String BUDGET_PROPERTY = "pmi.visualization.cache.mb";
+
+  protected static final long DEFAULT_BUDGET_MB = 256;
+
+  protected static final int MAGIC = 0x504d4956; // "PMIV"
+  protected static final int VERSION = 2;
+  protected static final String EXTENSION = ".sample";
+
+  protected static final byte TYPE_NUMERIC = 0;
+  protected static final byte TYPE_NOMINAL = 1;
+  protected static final byte TYPE_DATE = 2;
+
+  /** A sample read back from the cache */
+  public static class Entry {
+    protected final Instances m_data;
+    protected final StreamingStats[] m_streamStats;
+    protected final long m_created;
+
+    protected Entry( Instances data, StreamingStats[] streamStats, long created ) {
+      m_data = data;
+      m_streamStats = streamStats;
+      m_created = created;
+    }
+
+    /**
+     * @return the sampled rows
+     */
+    public Instances getData() {
+      return m_data;
+    }
+
+    /**
+     * @return the statistics of each attribute over all rows (null entries
+     * for nominal attributes)
+     */
+    public StreamingStats[] getStreamStats() {
+      return m_streamStats;
+    }
+
+    /**
+     * @return when the sample was taken
+     */
+    public long getCreated() {
+      return m_created;
+    }
+  }
+
+  protected final File m_dir;
+  protected final long m_budget;
+
+  /**
+   * Constructor for the default cache, which lives in the Kettle directory
+   */
+  public SampleCache() {
+    this( new File( Const.getKettleDirectory(), "pmi-visualization-cache" ),
+        Long.getLong( BUDGET_PROPERTY, DEFAULT_BUDGET_MB ) * 1024L * 1024L );
+  }
+
+  /**
+   * Constructor
+   *
+   * @param dir    the directory to hold the cache files
+   * @param budget the maximum total size of the cache files, in bytes
+   */
+  public SampleCache( File dir, long budget ) {
+    m_dir = dir;
+    m_budget = budget;
+  }
+
+  /**
+   * Compute a cache key from the things that determine a sample
+   *
+   * @param parts the parts of the key
+   * @return the key (a hex encoded SHA-256 hash of the parts)
+   */
+  public static String key( String... parts ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      for ( String part : parts ) {
+        byte[] bytes = ( part == null ? "" : part ).getBytes( StandardCharsets.UTF_8 );
+        // length prefixed, so that the boundaries between parts matter
+        digest.update( ByteBuffer.allocate( 4 ).putInt( part == null ? -1 : bytes.length ).array() );
+        digest.update( bytes );
+      }
+      StringBuilder b = new StringBuilder();
+      for ( byte h : digest.digest() ) {
+        b.append( String.format( "%02x", h ) );
+      }
+      return b.toString();
+    } catch ( NoSuchAlgorithmException e ) {
+      // every JVM has to provide SHA-256
+      throw new IllegalStateException( e );
+    }
+  }
+
+  protected File fileFor( String key ) {
+    return new File( m_dir, key + EXTENSION );
+  }
+
+  /**
+   * Check whether a sample is cached, without reading it
+   *
+   * @param key the key of the sample
+   * @return true if there is an entry for the key
+   */
+  public boolean contains( String key ) {
+    return fileFor( key ).isFile();
+  }
+
+  /**
+   * Get a cached sample
+   *
+   * @param key the key of the sample
+   * @return the sample, or null if it isn't cached (or can't be read)
+   */
+  public Entry get( String key ) {
+    File file = fileFor( key );
+    if ( !file.isFile() ) {
+      return null;
+    }
+    try {
+      Entry entry = read( file );
+      // most recently used
+      file.setLastModified( System.currentTimeMillis() );
+      return entry;
+    } catch ( IOException e ) {
+      System.err.println( "Discarding unreadable cached sample " + file + ": " + e.getMessage() );
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Add a sample to the cache, evicting the least recently used samples if
+   * the cache is over budget
+   *
+   * @param key         the key of the sample
+   * @param data        the sampled rows
+   * @param streamStats the statistics of each attribute over all rows (may be
+   *                    null)
+   * @throws IOException if the sample can't be written
+   */
+  public void put( String key, Instances data, StreamingStats[] streamStats ) throws IOException {
+    if ( !m_dir.isDirectory() && !m_dir.mkdirs() ) {
+      throw new IOException( "Unable to create cache directory " + m_dir );
+    }
+
+    // write to a temporary file, then move it into place so that a reader
+    // never sees a partially written entry
+    File tmp = File.createTempFile( "sample-", ".tmp", m_dir );
+    try {
+      write( tmp, data, streamStats );
+      try {
+        Files.move( tmp.toPath(), fileFor( key ).toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+      } catch ( AtomicMoveNotSupportedException e ) {
+        Files.move( tmp.toPath(), fileFor( key ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+    } finally {
+      tmp.delete();
+    }
+
+    evict();
+  }
+
+  /**
+   * Delete the least recently used entries until the cache is within budget
+   */
+  protected void evict() {
+    File[] files = m_dir.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    List<File> entries = new ArrayList<File>();
+    long total = 0;
+    for ( File f : files ) {
+      if ( f.getName().endsWith( EXTENSION ) ) {
+        entries.add( f );
+        total += f.length();
+      }
+    }
+    entries.sort( new Comparator<File>() {
+      @Override public int compare( File a, File b ) {
+        return Long.compare( a.lastModified(), b.lastModified() );
+      }
+    } );
+    for ( File f : entries ) {
+      if ( total <= m_budget ) {
+        break;
+      }
+      long length = f.length();
+      if ( f.delete() ) {
+        total -= length;
+      }
+    }
+  }
+
+  protected static void write( File file, Instances data, StreamingStats[] streamStats ) throws IOException {
+    int numAtts = data.numAttributes();
+    int numRows = data.numInstances();
+
+    // header
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream( headerBytes );
+    header.writeLong( System.currentTimeMillis() );
+    writeString( header, data.relationName() );
+    header.writeInt( numAtts );
+    header.writeInt( numRows );
+    for ( int a = 0; a < numAtts; a++ ) {
+      Attribute att = data.attribute( a );
+      writeString( header, att.name() );
+      if ( att.isDate() ) {
+        header.writeByte( TYPE_DATE );
+        writeString( header, att.getDateFormat() );
+      } else if ( att.isNominal() ) {
+        header.writeByte( TYPE_NOMINAL );
+        header.writeInt( att.numValues() );
+        for ( int v = 0; v < att.numValues(); v++ ) {
+          writeString( header, att.value( v ) );
+        }
+      } else {
+        header.writeByte( TYPE_NUMERIC );
+      }
+      StreamingStats stats = streamStats != null && a < streamStats.length ? streamStats[a] : null;
+      header.writeBoolean( stats != null );
+      if ( stats != null ) {
+        stats.write( header );
+      }
+    }
+    header.flush();
+
+    // columns start on an 8 byte boundary
+    int columnsStart = align( 12 + headerBytes.size() );
+    ByteBuffer prefix = ByteBuffer.allocate( columnsStart );
+    prefix.putInt( MAGIC ).putInt( VERSION ).putInt( headerBytes.size() ).put( headerBytes.toByteArray() );
+
+    ByteBuffer column = ByteBuffer.allocate( numRows * 8 );
+    try ( FileOutputStream out = new FileOutputStream( file ); FileChannel channel = out.getChannel() ) {
+      prefix.rewind();
+      channel.write( prefix );
+      for ( int a = 0; a < numAtts; a++ ) {
+        column.clear();
+        for ( int i = 0; i < numRows; i++ ) {
+          column.putDouble( data.instance( i ).value( a ) );
+        }
+        column.flip();
+        channel.write( column );
+      }
+    }
+  }
+
+  /**
+   * Write a string as its length followed by its UTF-8 bytes. Unlike
+   * writeUTF(), this copes with strings of any length.
+   */
+  protected static void writeString( DataOutputStream out, String s ) throws IOException {
+    byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  protected static String readString( DataInputStream in ) throws IOException {
+    int length = in.readInt();
+    if ( length < 0 || length > in.available() ) {
+      throw new IOException( "corrupt string length " + length );
+    }
+    byte[] bytes = new byte[length];
+    in.readFully( bytes );
+
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  protected static int align( int offset ) {
+    return ( offset + 7 ) & ~7;
+  }
+
+  /**
+   * Fill a buffer from a channel
+   *
+   * @throws IOException if the end of the file is reached first
+   */
+  protected static void readFully( FileChannel channel, ByteBuffer buffer ) throws IOException {
+    while ( buffer.hasRemaining() ) {
+      if ( channel.read( buffer ) < 0 ) {
+        throw new IOException( "truncated" );
+      }
+    }
+    buffer.flip();
+  }
+
+  protected static Entry read( File file ) throws IOException {
+    try ( FileInputStream in = new FileInputStream( file ); FileChannel channel = in.getChannel() ) {
+      ByteBuffer prefix = ByteBuffer.allocate( 12 );
+      readFully( channel, prefix );
+      if ( prefix.getInt() != MAGIC || prefix.getInt() != VERSION ) {
+        throw new IOException( "not a cached sample, or written by a different version" );
+      }
+      ByteBuffer headerBuffer = ByteBuffer.allocate( prefix.getInt() );
+      readFully( channel, headerBuffer );
+      byte[] headerBytes = headerBuffer.array();
+      DataInputStream header = new DataInputStream( new ByteArrayInputStream( headerBytes ) );
+      long created = header.readLong();
+      String relationName = readString( header );
+      int numAtts = header.readInt();
+      int numRows = header.readInt();
+
+      ArrayList<Attribute> atts = new ArrayList<Attribute>();
+      StreamingStats[] streamStats = new StreamingStats[numAtts];
+      for ( int a = 0; a < numAtts; a++ ) {
+        String name = readString( header );
+        byte type = header.readByte();
+        if ( type == TYPE_DATE ) {
+          atts.add( new Attribute( name, readString( header ) ) );
+        } else if ( type == TYPE_NOMINAL ) {
+          List<String> values = new ArrayList<String>();
+          int numValues = header.readInt();
+          for ( int v = 0; v < numValues; v++ ) {
+            values.add( readString( header ) );
+          }
+          atts.add( new Attribute( name, values ) );
+        } else {
+          atts.add( new Attribute( name ) );
+        }
+        if ( header.readBoolean() ) {
+          streamStats[a] = StreamingStats.read( header );
+        }
+      }
+
+      long columnsStart = align( 12 + headerBytes.length );
+      if ( channel.size() - columnsStart != (long) numAtts * numRows * 8 ) {
+        throw new IOException( "truncated" );
+      }
+      channel.position( columnsStart );
+      ByteBuffer columnBuffer = ByteBuffer.allocate( numRows * 8 );
+      double[][] rows = new double[numRows][numAtts];
+      double[] column = new double[numRows];
+      for ( int a = 0; a < numAtts; a++ ) {
+        columnBuffer.clear();
+        readFully( channel, columnBuffer );
+        columnBuffer.asDoubleBuffer().get( column );
+        for ( int i = 0; i < numRows; i++ ) {
+          rows[i][a] = column[i];
+        }
+      }
+
+      Instances data = new Instances( relationName, atts, numRows );
+      for ( double[] row : rows ) {
+        data.add( new DenseInstance( 1.0, row ) );
+      }
+
+      return new Entry( data, streamStats, created );
+    }
+  }
+}
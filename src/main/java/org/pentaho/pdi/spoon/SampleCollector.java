@@ -0,0 +1,763 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.step.RowListener;
+import org.pentaho.dm.commons.ArffMeta;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.gui.visualize.StreamingStats;
+
+/**
+ * Maintains a reservoir sample of the rows output by one copy of a step (or
+ * of the rows pulled from a database query). Each copy of a step gets its own
+ * collector, so no locking is needed on the step threads. Once all rows have
+ * been seen, the reservoirs of all collectors are combined with a weighted
+ * merge (see mergeToInstances()) that yields a uniform sample of the union of
+ * the streams.
+ * <p>
+ * Memory used for string fields is bounded: a Space-Saving sketch tracks the
+ * most frequent values over the whole stream, and the reservoir only holds
+ * codes for the values present in the sampled rows. When the final header is
+ * built, the top maxCategories values become the nominal values of the
+ * attribute and everything else is collapsed into a single "other" value.
+ * <p>
+ * Numeric (and date) fields of every row, sampled or not, also update a set of
+ * streaming statistics (min/max, mean/variance and a quantile sketch), so that
+ * the extremes and tails of the full stream are known even though only the
+ * sample is plotted.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SampleCollector implements RowListener {
+
+  /** Reservoir size/max number of rows to keep */
+  protected int m_k;
+
+  /** Seed for this collector's random number generator */
+  protected long m_seed;
+
+  /** True if just the first k rows are to be kept */
+  protected boolean m_stopAfterFirstKRows;
+
+  /** Maximum number of distinct values to keep for a string field */
+  protected int m_maxCategories;
+
+  /** Label for the value that infrequent values are collapsed into */
+  public static final String OTHER_LABEL = "(other)";
+
+  /** Number of counters kept by the heavy hitters sketch per category */
+  protected static final int SKETCH_CAPACITY_FACTOR = 8;
+
+  /** Number of rows between publishing the row count for progress reporting */
+  protected static final int PUBLISH_INTERVAL = 4096;
+
+  protected ArffMeta[] m_incomingFields;
+  protected boolean m_hasNominalAtts = false;
+
+  /** Type specialized converter for each numeric/date field (null for other fields) */
+  protected FieldConverter.NumericConverter[] m_numericConverters;
+
+  /** Converter for each string field (null for other fields) */
+  protected FieldConverter.NominalConverter[] m_nominalConverters;
+
+  /** Dictionary of the values held in the reservoir for each string field */
+  protected NominalDictionary[] m_dictionaries;
+
+  /** Most frequent values over the whole stream for each string field */
+  protected SpaceSavingSketch[] m_heavyHitters;
+
+  /** Statistics over the whole stream for each numeric/date field */
+  protected StreamingStats[] m_streamStats;
+
+  /** Numeric values of the current row, converted once per row */
+  protected double[] m_rowValues;
+
+  /** Names of the fields to keep (null to keep all fields) */
+  protected Set<String> m_selectedFields;
+
+  /**
+   * First k rows mode: number of rows still wanted, shared by the collectors
+   * of all copies of the step (null if not shared)
+   */
+  protected AtomicLong m_firstRowsRemaining;
+
+  /** Called (once, by one collector) when the first k rows have been collected */
+  protected Runnable m_firstRowsCollected;
+
+  protected RowMetaInterface m_rowMeta;
+  protected ColumnarSample m_sample;
+  protected long m_rowsSeen;
+
+  /** Row count as last published, readable from other threads */
+  protected volatile long m_publishedRowsSeen;
+
+  protected Random m_random;
+  protected ReservoirSampler m_sampler;
+
+  /**
+   * Maximum number of reservoir rows copied into a snapshot. Snapshots are
+   * only used for previews while rows are still arriving, and are taken on the
+   * thread delivering rows, so copying a large reservoir in full would stall
+   * the step. Can be overridden with the system property
+   * "pmi.visualization.snapshot.maxrows".
+   */
+  protected static final int MAX_SNAPSHOT_ROWS = Integer.getInteger( "pmi.visualization.snapshot.maxrows", 20000 );
+
+  /** Set by other threads to ask for a snapshot of the sample */
+  protected volatile boolean m_snapshotRequested;
+
+  /** Most recent snapshot, taken on the thread delivering rows */
+  protected volatile SampleCollector m_snapshot;
+
+  /**
+   * Constructor
+   *
+   * @param k                   the reservoir size
+   * @param seed                the seed for the random number generator
+   * @param stopAfterFirstKRows true if just the first k rows are to be kept
+   * @param maxCategories       the maximum number of distinct values to keep for
+   *                            a string field
+   */
+  public SampleCollector( int k, long seed, boolean stopAfterFirstKRows, int maxCategories ) {
+    m_k = k;
+    m_seed = seed;
+    m_stopAfterFirstKRows = stopAfterFirstKRows;
+    m_maxCategories = maxCategories;
+  }
+
+  /**
+   * Get the number of rows seen by this collector
+   *
+   * @return the number of rows seen
+   */
+  public long getRowsSeen() {
+    return m_rowsSeen;
+  }
+
+  /**
+   * Get the number of rows seen so far while rows are still arriving. Safe to
+   * call from threads other than the one delivering rows, but only updated
+   * every PUBLISH_INTERVAL rows.
+   *
+   * @return the (approximate) number of rows seen
+   */
+  public long getRowsSeenSoFar() {
+    return m_publishedRowsSeen;
+  }
+
+  /**
+   * Ask for a snapshot of the sample to be taken. The snapshot is taken by the
+   * thread delivering rows, when the next row arrives, and can then be
+   * retrieved with getSnapshot(). Safe to call from any thread.
+   */
+  public void requestSnapshot() {
+    m_snapshotRequested = true;
+  }
+
+  /**
+   * Get the most recent snapshot of the sample. Snapshots are detached copies
+   * of the collector that can be merged (on any thread) while rows are still
+   * arriving.
+   *
+   * @return the most recent snapshot, or null if none has been taken yet
+   */
+  public SampleCollector getSnapshot() {
+    return m_snapshot;
+  }
+
+  /**
+   * Take a detached copy of the state needed to merge the sample. At most
+   * MAX_SNAPSHOT_ROWS rows of the reservoir are copied (evenly spaced over the
+   * reservoir); the copy's row count is that of the full stream, so snapshots
+   * still get their proper weight in a merge.
+   *
+   * @return the copy
+   */
+  protected SampleCollector snapshot() {
+    SampleCollector copy = new SampleCollector( m_k, m_seed, m_stopAfterFirstKRows, m_maxCategories );
+    copy.m_rowMeta = m_rowMeta;
+    copy.m_incomingFields = m_incomingFields;
+    copy.m_hasNominalAtts = m_hasNominalAtts;
+    copy.m_numericConverters = m_numericConverters;
+    copy.m_nominalConverters = m_nominalConverters;
+    copy.m_sample = m_sample.copy( MAX_SNAPSHOT_ROWS );
+    copy.m_dictionaries = new NominalDictionary[m_dictionaries.length];
+    copy.m_heavyHitters = new SpaceSavingSketch[m_heavyHitters.length];
+    copy.m_streamStats = new StreamingStats[m_streamStats.length];
+    for ( int i = 0; i < m_incomingFields.length; i++ ) {
+      if ( m_dictionaries[i] != null ) {
+        copy.m_dictionaries[i] = m_dictionaries[i].copy();
+        copy.m_heavyHitters[i] = m_heavyHitters[i].copy();
+      }
+      if ( m_streamStats[i] != null ) {
+        copy.m_streamStats[i] = m_streamStats[i].copy();
+      }
+    }
+    copy.m_rowsSeen = m_rowsSeen;
+    copy.m_publishedRowsSeen = m_rowsSeen;
+
+    return copy;
+  }
+
+  /**
+   * Set the fields to keep. Other fields are ignored - they are neither
+   * converted nor stored.
+   *
+   * @param fieldNames the names of the fields to keep, or null to keep all fields
+   */
+  public void setSelectedFields( Collection<String> fieldNames ) {
+    m_selectedFields = fieldNames == null ? null : new HashSet<String>( fieldNames );
+  }
+
+  /**
+   * For the first k rows mode, share a count of the rows still wanted between
+   * the collectors of all copies of a step. Once it reaches zero, further rows
+   * are ignored and the supplied action is run, which can stop the
+   * transformation producing the rows.
+   *
+   * @param remaining the number of rows still wanted (shared)
+   * @param collected run (on the thread delivering the last wanted row) once
+   *                  all wanted rows have been collected
+   */
+  public void setFirstRowsQuota( AtomicLong remaining, Runnable collected ) {
+    m_firstRowsRemaining = remaining;
+    m_firstRowsCollected = collected;
+  }
+
+  /**
+   * Get the row meta data of the incoming rows
+   *
+   * @return the row meta data, or null if no rows have been seen yet
+   */
+  public RowMetaInterface getRowMeta() {
+    return m_rowMeta;
+  }
+
+  protected void setupArffMetas( RowMetaInterface rmi ) {
+    if ( rmi != null ) {
+      m_rowMeta = rmi;
+      m_incomingFields = new ArffMeta[rmi.size()];
+      m_numericConverters = new FieldConverter.NumericConverter[rmi.size()];
+      m_nominalConverters = new FieldConverter.NominalConverter[rmi.size()];
+
+      m_dictionaries = new NominalDictionary[m_incomingFields.length];
+      m_heavyHitters = new SpaceSavingSketch[m_incomingFields.length];
+      m_streamStats = new StreamingStats[m_incomingFields.length];
+      m_rowValues = new double[m_incomingFields.length];
+
+      m_hasNominalAtts = false;
+
+      for ( int i = 0; i < m_incomingFields.length; i++ ) {
+        ValueMetaInterface inField = rmi.getValueMeta( i );
+        if ( m_selectedFields != null && !m_selectedFields.contains( inField.getName() ) ) {
+          continue;
+        }
+        int fieldType = inField.getType();
+        switch ( fieldType ) {
+          case ValueMetaInterface.TYPE_NUMBER:
+          case ValueMetaInterface.TYPE_INTEGER:
+          case ValueMetaInterface.TYPE_BIGNUMBER:
+          case ValueMetaInterface.TYPE_BOOLEAN:
+            m_incomingFields[i] = new ArffMeta( inField.getName(), fieldType, ArffMeta.NUMERIC );
+            // inField.getPrecision());
+            break;
+          case ValueMetaInterface.TYPE_STRING:
+            m_incomingFields[i] = new ArffMeta( inField.getName(), fieldType, ArffMeta.NOMINAL );
+            m_hasNominalAtts = true;
+            m_dictionaries[i] = new NominalDictionary();
+            m_heavyHitters[i] = new SpaceSavingSketch( m_maxCategories * SKETCH_CAPACITY_FACTOR );
+            break;
+          case ValueMetaInterface.TYPE_DATE:
+            m_incomingFields[i] = new ArffMeta( inField.getName(), fieldType, ArffMeta.DATE );
+            m_incomingFields[i].setDateFormat( inField.getDateFormat().toPattern() );
+            break;
+        }
+        if ( m_incomingFields[i] != null ) {
+          if ( m_incomingFields[i].getArffType() == ArffMeta.NOMINAL ) {
+            m_nominalConverters[i] = FieldConverter.createNominal( inField );
+          } else {
+            m_numericConverters[i] = FieldConverter.createNumeric( inField );
+            m_streamStats[i] = new StreamingStats();
+          }
+        }
+      }
+
+      initializeReservoir();
+    }
+  }
+
+  /**
+   * Initialize the reservoir/cache for the requested sample (or cache)
+   * size.
+   */
+  protected void initializeReservoir() {
+
+    m_sample = new ColumnarSample( m_incomingFields, m_k );
+
+    m_rowsSeen = 0;
+    m_publishedRowsSeen = 0;
+    m_random = new Random( m_seed );
+
+    // throw away the first 100 random numbers
+    for ( int i = 0; i < 100; i++ ) {
+      m_random.nextDouble();
+    }
+
+    m_sampler = ( m_k > 0 ) ? new ReservoirSampler( m_k, m_random ) : null;
+  }
+
+  /**
+   * Store a kettle row directly into the columns of the sample. Numeric
+   * fields have already been converted into m_rowValues.
+   *
+   * @param slot the row index in the sample to write to
+   * @param row  the row itself
+   * @throws KettleException if the conversion can't be performed
+   */
+  private void storeRow( int slot, Object[] row ) throws KettleException {
+    if ( slot < m_sample.size() ) {
+      releaseCodes( slot );
+    }
+    m_sample.ensureSlot( slot );
+
+    for ( int i = 0; i < m_incomingFields.length; i++ ) {
+      if ( m_numericConverters[i] != null ) {
+        m_sample.getNumericColumn( i )[slot] = m_rowValues[i];
+      } else if ( m_nominalConverters[i] != null ) {
+        String key = m_nominalConverters[i].toKey( row[i] );
+        m_sample.setCode( i, slot, key == null ? ColumnarSample.MISSING_CODE : m_dictionaries[i].acquire( key ) );
+      }
+    }
+  }
+
+  /**
+   * Release the dictionary codes held by a reservoir row that is about to be
+   * overwritten
+   *
+   * @param slot the row index in the sample
+   */
+  private void releaseCodes( int slot ) {
+    for ( int i = 0; i < m_incomingFields.length; i++ ) {
+      int[] codes = m_sample.getCodeColumn( i );
+      if ( codes != null && codes[slot] >= 0 ) {
+        m_dictionaries[i].release( codes[slot] );
+      }
+    }
+  }
+
+  protected void processRow( Object[] inputRow, RowMetaInterface inputMeta ) throws KettleException {
+
+    // Convert the numeric fields and update the statistics of the entire stream.
+    for ( int i = 0; i < m_streamStats.length; i++ ) {
+      if ( m_streamStats[i] != null ) {
+        m_numericConverters[i].convert( inputRow[i], m_rowValues, i );
+        m_streamStats[i].update( m_rowValues[i] );
+      }
+    }
+
+    // Track the frequent nominal values over the entire stream.
+    if ( m_hasNominalAtts ) {
+      for ( int i = 0; i < m_incomingFields.length; i++ ) {
+        if ( m_heavyHitters[i] != null ) {
+          String key = m_nominalConverters[i].toKey( inputRow[i] );
+          if ( key != null ) {
+            m_heavyHitters[i].offer( key );
+          }
+        }
+      }
+    }
+
+    // Now see if this row should be stored in the reservoir
+    // if sampling size is 0, do not sample.
+    if ( m_k == 0 ) {
+      storeRow( m_sample.size(), inputRow );
+    } else if ( m_k > 0 ) {
+      // skip-based reservoir sampling - returns -1 for rows that fall in a gap
+      int slot = m_sampler.offer();
+      if ( slot >= 0 ) {
+        storeRow( slot, inputRow );
+      }
+    }
+    // size can be less than 0, which is essentially a blocking step
+    m_rowsSeen++;
+    if ( m_rowsSeen % PUBLISH_INTERVAL == 0 ) {
+      m_publishedRowsSeen = m_rowsSeen;
+    }
+    if ( m_snapshotRequested ) {
+      m_snapshotRequested = false;
+      m_snapshot = snapshot();
+    }
+  }
+
+  // RowListener ----------------
+  public void rowReadEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    // We don't respond to these (rows incoming to the selected step)
+  }
+
+  public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    // rows output from the selected step copy
+    if ( m_incomingFields == null ) {
+      setupArffMetas( rowMeta );
+    }
+
+    try {
+      if ( m_stopAfterFirstKRows ) {
+        if ( m_rowsSeen == m_k ) {
+          return;
+        }
+        if ( m_firstRowsRemaining != null ) {
+          long left = m_firstRowsRemaining.decrementAndGet();
+          if ( left < 0 ) {
+            return;
+          }
+          processRow( row, rowMeta );
+          if ( left == 0 && m_firstRowsCollected != null ) {
+            m_firstRowsCollected.run();
+          }
+          return;
+        }
+      }
+      processRow( row, rowMeta );
+    } catch ( Exception e ) {
+      throw new KettleStepException( e );
+    }
+  }
+
+  public void errorRowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    // We don't respond to these
+  }
+
+  // Merging ----------------
+
+  /**
+   * Merge the streaming statistics of a set of collectors. The result is
+   * indexed by attribute, in the same order as the Instances produced by
+   * mergeToInstances().
+   *
+   * @param collectors the collectors to merge
+   * @return the merged statistics (null entries for nominal attributes), or
+   * null if no collector has seen any rows
+   */
+  public static StreamingStats[] mergeStreamingStats( List<SampleCollector> collectors ) {
+    StreamingStats[] merged = null;
+    int[] attIndexes = null;
+    for ( SampleCollector c : collectors ) {
+      if ( c.m_rowMeta == null ) {
+        continue;
+      }
+      if ( merged == null ) {
+        attIndexes = attributeIndexes( c.m_incomingFields );
+        int numAtts = 0;
+        for ( int a : attIndexes ) {
+          numAtts = Math.max( numAtts, a + 1 );
+        }
+        merged = new StreamingStats[numAtts];
+        for ( int i = 0; i < attIndexes.length; i++ ) {
+          if ( c.m_streamStats[i] != null ) {
+            merged[attIndexes[i]] = new StreamingStats();
+          }
+        }
+      }
+      for ( int i = 0; i < attIndexes.length; i++ ) {
+        if ( c.m_streamStats[i] != null ) {
+          merged[attIndexes[i]].merge( c.m_streamStats[i] );
+        }
+      }
+    }
+
+    return merged;
+  }
+
+  private static ArrayList<String> setupNominalVals( int index, List<SampleCollector> collectors, int maxCategories )
+    throws KettleException {
+
+    // merge the heavy hitter counts of all collectors
+    final Map<String, Long> counts = new HashMap<String, Long>();
+    boolean evicted = false;
+    for ( SampleCollector c : collectors ) {
+      ValueMetaInterface fieldMeta = c.m_rowMeta.getValueMeta( index );
+      if ( fieldMeta.getType() != ValueMetaInterface.TYPE_STRING ) {
+        throw new KettleException( "Field is not of type STRING! (setUpNominalVals)" );
+      }
+      SpaceSavingSketch sketch = c.m_heavyHitters[index];
+      evicted |= sketch.hasEvicted();
+      for ( int j = 0; j < sketch.size(); j++ ) {
+        String sval = (String) sketch.getKey( j );
+        Long current = counts.get( sval );
+        counts.put( sval, ( current == null ? 0L : current ) + sketch.getCount( j ) );
+      }
+    }
+
+    // keep the most frequent values
+    List<String> byFrequency = new ArrayList<String>( counts.keySet() );
+    Collections.sort( byFrequency, new Comparator<String>() {
+      @Override public int compare( String a, String b ) {
+        int result = counts.get( b ).compareTo( counts.get( a ) );
+        return result != 0 ? result : a.compareTo( b );
+      }
+    } );
+    boolean needOther = evicted || byFrequency.size() > maxCategories;
+    if ( byFrequency.size() > maxCategories ) {
+      byFrequency = byFrequency.subList( 0, maxCategories );
+    }
+    Set<String> top = new HashSet<String>( byFrequency );
+
+    // any sampled values that didn't make the cut end up in "other"
+    for ( SampleCollector c : collectors ) {
+      NominalDictionary dict = c.m_dictionaries[index];
+      for ( int code = 0; code < dict.codeRange() && !needOther; code++ ) {
+        Object val = dict.getValue( code );
+        if ( val != null && !top.contains( val ) ) {
+          needOther = true;
+        }
+      }
+    }
+
+    // make sure that the values are in sorted order
+    ArrayList<String> attVals = new ArrayList<String>( top.size() + 1 );
+    attVals.addAll( byFrequency );
+    Collections.sort( attVals );
+    if ( needOther ) {
+      String other = OTHER_LABEL;
+      while ( top.contains( other ) ) {
+        other = "_" + other;
+      }
+      attVals.add( other );
+    }
+
+    return attVals;
+  }
+
+  /**
+   * Map each incoming field to the index of its attribute. Fields that are
+   * not kept (unselected, or of an unsupported type) don't get an attribute.
+   *
+   * @param fields the incoming fields
+   * @return the attribute index of each field, or -1 for fields not kept
+   */
+  protected static int[] attributeIndexes( ArffMeta[] fields ) {
+    int[] attIndexes = new int[fields.length];
+    int numAtts = 0;
+    for ( int i = 0; i < fields.length; i++ ) {
+      attIndexes[i] = fields[i] != null ? numAtts++ : -1;
+    }
+
+    return attIndexes;
+  }
+
+  private static Instances createHeader( List<SampleCollector> collectors, int capacity, int maxCategories )
+    throws KettleException {
+    ArffMeta[] fields = collectors.get( 0 ).m_incomingFields;
+    ArrayList<Attribute> attInfo = new ArrayList<Attribute>( fields.length );
+
+    for ( int i = 0; i < fields.length; i++ ) {
+      ArffMeta tempField = fields[i];
+      if ( tempField == null ) {
+        continue;
+      }
+      Attribute tempAtt = null;
+      int arffType = tempField.getArffType();
+      switch ( arffType ) {
+        case ArffMeta.NUMERIC:
+          tempAtt = new Attribute( tempField.getFieldName() );
+          break;
+        case ArffMeta.NOMINAL:
+          ArrayList<String> attVals = setupNominalVals( i, collectors, maxCategories );
+          tempAtt = new Attribute( tempField.getFieldName(), attVals );
+          break;
+        case ArffMeta.DATE:
+          String dateF = tempField.getDateFormat();
+          tempAtt = new Attribute( tempField.getFieldName(), dateF );
+          break;
+      }
+
+      if ( tempAtt != null ) {
+        attInfo.add( tempAtt );
+      } else {
+        throw new KettleException( "Unhandled attribute type (createHeader)" );
+      }
+    }
+
+    return new Instances( "Visualize3D_data", attInfo, capacity );
+  }
+
+  /**
+   * Map this collector's dictionary codes to the index of the corresponding
+   * (sorted) attribute values in the supplied header. Values that are not
+   * among the attribute's values map to the trailing "other" value.
+   */
+  private int[][] codeToIndex( Instances header ) {
+    int[] attIndexes = attributeIndexes( m_incomingFields );
+    int[][] codeToIndex = new int[m_incomingFields.length][];
+    for ( int i = 0; i < m_incomingFields.length; i++ ) {
+      if ( m_sample.getCodeColumn( i ) != null ) {
+        Attribute currentAtt = header.attribute( attIndexes[i] );
+        NominalDictionary dict = m_dictionaries[i];
+        codeToIndex[i] = new int[dict.codeRange()];
+        for ( int code = 0; code < dict.codeRange(); code++ ) {
+          Object val = dict.getValue( code );
+          if ( val != null ) {
+            int index = currentAtt.indexOfValue( (String) val );
+            codeToIndex[i][code] = index >= 0 ? index : currentAtt.numValues() - 1;
+          }
+        }
+      }
+    }
+
+    return codeToIndex;
+  }
+
+  private void addRow( int row, int[] attIndexes, int[][] codeToIndex, Instances header ) {
+    double[] vals = new double[header.numAttributes()];
+    for ( int i = 0; i < m_incomingFields.length; i++ ) {
+      double[] numeric = m_sample.getNumericColumn( i );
+      int[] codes = m_sample.getCodeColumn( i );
+      if ( numeric != null ) {
+        vals[attIndexes[i]] = numeric[row];
+      } else if ( codes != null ) {
+        vals[attIndexes[i]] = codes[row] < 0 ? Utils.missingValue() : codeToIndex[i][codes[row]];
+      }
+    }
+
+    header.add( new DenseInstance( 1.0, vals ) );
+  }
+
+  /**
+   * Combine the reservoirs of a set of collectors into a single sample and
+   * convert it to a set of Instances. For random sampling, a weighted merge is
+   * used: each of the k output rows is drawn (without replacement) from
+   * collector i with probability proportional to the number of rows from i's
+   * stream that have not yet been accounted for. This yields a uniform sample
+   * over the union of all the streams.
+   *
+   * @param collectors          the collectors to merge
+   * @param k                   the size of the final sample (less than 1 means keep everything)
+   * @param stopAfterFirstKRows true if the first k rows were requested
+   * @param maxCategories       the maximum number of values for nominal attributes
+   * @param random              random number generator to use for the merge
+   * @return the merged sample, or null if no collector has seen any rows
+   * @throws KettleException if a problem occurs
+   */
+  public static Instances mergeToInstances( List<SampleCollector> collectors, int k, boolean stopAfterFirstKRows,
+    int maxCategories, Random random ) throws KettleException {
+
+    List<SampleCollector> active = new ArrayList<SampleCollector>();
+    for ( SampleCollector c : collectors ) {
+      if ( c.m_rowMeta != null ) {
+        active.add( c );
+      }
+    }
+    if ( active.size() == 0 ) {
+      return null;
+    }
+
+    int available = 0;
+    for ( SampleCollector c : active ) {
+      available += c.m_sample.size();
+    }
+    int target = k > 0 ? Math.min( k, available ) : available;
+
+    Instances header = createHeader( active, target, maxCategories );
+    int[] attIndexes = attributeIndexes( active.get( 0 ).m_incomingFields );
+    int[][][] codeMaps = new int[active.size()][][];
+    for ( int i = 0; i < active.size(); i++ ) {
+      codeMaps[i] = active.get( i ).codeToIndex( header );
+    }
+
+    if ( k <= 0 || stopAfterFirstKRows || active.size() == 1 ) {
+      // just concatenate (in copy order) up to the target size
+      int added = 0;
+      for ( int i = 0; i < active.size() && added < target; i++ ) {
+        SampleCollector c = active.get( i );
+        for ( int row = 0; row < c.m_sample.size() && added < target; row++ ) {
+          c.addRow( row, attIndexes, codeMaps[i], header );
+          added++;
+        }
+      }
+    } else {
+      // weighted merge - remaining[i] is the number of rows in collector i's
+      // stream not yet represented; unused[i] holds the reservoir slots not yet taken
+      long[] remaining = new long[active.size()];
+      int[][] unused = new int[active.size()][];
+      int[] numUnused = new int[active.size()];
+      long totalRemaining = 0;
+      for ( int i = 0; i < active.size(); i++ ) {
+        SampleCollector c = active.get( i );
+        remaining[i] = c.m_rowsSeen;
+        totalRemaining += remaining[i];
+        numUnused[i] = c.m_sample.size();
+        unused[i] = new int[numUnused[i]];
+        for ( int j = 0; j < numUnused[i]; j++ ) {
+          unused[i][j] = j;
+        }
+      }
+
+      for ( int n = 0; n < target; n++ ) {
+        long r = (long) ( random.nextDouble() * totalRemaining );
+        int source = 0;
+        while ( source < remaining.length - 1 && r >= remaining[source] ) {
+          r -= remaining[source];
+          source++;
+        }
+        remaining[source]--;
+        totalRemaining--;
+
+        // pick one of the not yet used rows from the source reservoir at random
+        int pick = random.nextInt( numUnused[source] );
+        int row = unused[source][pick];
+        unused[source][pick] = unused[source][--numUnused[source]];
+        if ( numUnused[source] == 0 ) {
+          // reservoir used up (it can hold fewer rows than its share of the
+          // target - e.g. a snapshot), so the rest has to come from the others
+          totalRemaining -= remaining[source];
+          remaining[source] = 0;
+        }
+
+        active.get( source ).addRow( row, attIndexes, codeMaps[source], header );
+      }
+    }
+
+    header.compactify();
+    return header;
+  }
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.pentaho.di.core.database.DatabaseMeta;
+
+/**
+ * Rewrites a table or query so that the database does the sampling, and only
+ * the sampled rows are sent to the client. The SQL dialect is chosen based on
+ * the plugin id of the connection's database type. For random sampling the
+ * source is ordered by the database's random function and limited to k rows
+ * (or uses Teradata's SAMPLE clause), which gives a uniform sample of exactly k
+ * rows. For the first k rows the source is simply limited. Queries can also be
+ * restricted to just the fields that are going to be visualized.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SamplingQueryBuilder {
+
+  /** Alias for a query wrapped up as a derived table */
+  protected static final String ALIAS = "pdi_vis_sample";
+
+  /** An ORDER BY clause at the end of a query (i.e. not inside parentheses) */
+  protected static final Pattern TRAILING_ORDER_BY =
+      Pattern.compile( "(?is)\\border\\s+by\\b[^()]*(\\([^()]*\\)[^()]*)*$" );
+
+  /**
+   * Build a query that selects some of the fields of a table or query. A query
+   * is returned as it is (and the unwanted fields are dropped on the client)
+   * if all its fields are wanted, or if it ends with an ORDER BY that the
+   * database won't allow in a derived table.
+   *
+   * @param dbMeta    the database connection
+   * @param tableName the table to select from (used if sql is empty)
+   * @param sql       the query to select from, or null
+   * @param fields    the names of the fields to select, or null for all fields
+   * @return the query
+   */
+  public static String projectQuery( DatabaseMeta dbMeta, String tableName, String sql, List<String> fields ) {
+    return projectQuery( pluginId( dbMeta ), tableName, sql, fields == null ? null : selectList( dbMeta, fields ) );
+  }
+
+  /**
+   * Build a query that selects some of the fields of a table or query
+   *
+   * @param id         the plugin id of the database type
+   * @param tableName  the table to select from (used if sql is empty)
+   * @param sql        the query to select from, or null
+   * @param selectList the (quoted) fields to select, or null for all fields
+   * @return the query
+   */
+  protected static String projectQuery( String id, String tableName, String sql, String selectList ) {
+    boolean isQuery = sql != null && sql.trim().length() > 0;
+    if ( selectList == null || ( isQuery && !canWrap( id, sql ) ) ) {
+      return isQuery ? sql : "SELECT * from " + tableName;
+    }
+
+    return "SELECT " + selectList + " FROM " + source( tableName, sql );
+  }
+
+  protected static String selectList( DatabaseMeta dbMeta, List<String> fields ) {
+    if ( fields == null ) {
+      return "*";
+    }
+    StringBuilder b = new StringBuilder();
+    for ( String f : fields ) {
+      if ( b.length() > 0 ) {
+        b.append( ", " );
+      }
+      b.append( dbMeta.quoteField( f ) );
+    }
+
+    return b.toString();
+  }
+
+  protected static String pluginId( DatabaseMeta dbMeta ) {
+    return dbMeta.getPluginId() == null ? "" : dbMeta.getPluginId().toUpperCase();
+  }
+
+  /**
+   * Check whether a query ends with an ORDER BY clause
+   *
+   * @param sql the query
+   * @return true if the query is ordered
+   */
+  protected static boolean hasTrailingOrderBy( String sql ) {
+    return sql != null && TRAILING_ORDER_BY.matcher( sql.trim() ).find();
+  }
+
+  /**
+   * Check whether a query can be used as a derived table. SQL Server and
+   * Teradata don't allow an ORDER BY in a derived table (without TOP).
+   *
+   * @param id  the plugin id of the database type
+   * @param sql the query
+   * @return true if the query can be wrapped up as a derived table
+   */
+  protected static boolean canWrap( String id, String sql ) {
+    switch ( id ) {
+      case "MSSQL":
+      case "MSSQLNATIVE":
+      case "TERADATA":
+        return !hasTrailingOrderBy( sql );
+      default:
+        return true;
+    }
+  }
+
+  protected static String source( String tableName, String sql ) {
+    if ( sql != null && sql.trim().length() > 0 ) {
+      String inner = sql.trim();
+      while ( inner.endsWith( ";" ) ) {
+        inner = inner.substring( 0, inner.length() - 1 ).trim();
+      }
+      return "(" + inner + ") " + ALIAS;
+    }
+
+    return tableName;
+  }
+
+  /**
+   * Build a query that samples on the database side
+   *
+   * @param dbMeta              the database connection
+   * @param tableName           the table to sample (used if sql is empty)
+   * @param sql                 the query to sample, or null
+   * @param fields              the names of the fields to select, or null for all fields
+   * @param k                   the number of rows to sample
+   * @param stopAfterFirstKRows true if just the first k rows are wanted
+   * @param seed                the seed to use if the database supports seeding its
+   *                            random function
+   * @return the sampling query, or null if the sampling can't be done by the
+   * database (e.g. the dialect is not known)
+   */
+  public static String buildQuery( DatabaseMeta dbMeta, String tableName, String sql, List<String> fields, int k,
+    boolean stopAfterFirstKRows, long seed ) {
+    return buildQuery( pluginId( dbMeta ), stopAfterFirstKRows ? dbMeta.getLimitClause( k ) : null, tableName, sql,
+        selectList( dbMeta, fields ), k, stopAfterFirstKRows, seed );
+  }
+
+  /**
+   * Build a query that samples on the database side. On dialects that don't
+   * allow an ORDER BY in a derived table, a random sample ignores the order of
+   * the query (it gets shuffled anyway), but the first k rows of an ordered
+   * query can't be limited by wrapping it up, so are left to the client.
+   *
+   * @param id                  the plugin id of the database type
+   * @param limitClause         the clause that limits a query to k rows (may be
+   *                            null or empty if the dialect has none)
+   * @param tableName           the table to sample (used if sql is empty)
+   * @param sql                 the query to sample, or null
+   * @param selectList          the (quoted) fields to select
+   * @param k                   the number of rows to sample
+   * @param stopAfterFirstKRows true if just the first k rows are wanted
+   * @param seed                the seed to use if the database supports seeding its
+   *                            random function
+   * @return the sampling query, or null if the sampling can't be done by the
+   * database
+   */
+  protected static String buildQuery( String id, String limitClause, String tableName, String sql,
+    String selectList, int k, boolean stopAfterFirstKRows, long seed ) {
+    if ( !canWrap( id, sql ) ) {
+      if ( stopAfterFirstKRows ) {
+        return null;
+      }
+      sql = stripTrailingOrderBy( sql );
+    }
+    String select = "SELECT " + selectList + " FROM " + source( tableName, sql );
+
+    if ( stopAfterFirstKRows ) {
+      if ( limitClause != null && limitClause.trim().length() > 0 ) {
+        return select + limitClause;
+      }
+      return limitQuery( id, select, "", k );
+    }
+
+    if ( id.equals( "TERADATA" ) ) {
+      return select + " SAMPLE " + k;
+    }
+
+    String random = randomFunction( id, seed );
+    return random == null ? null : limitQuery( id, select, " ORDER BY " + random, k );
+  }
+
+  /**
+   * Remove the ORDER BY clause from the end of a query
+   *
+   * @param sql the query
+   * @return the query without its trailing ORDER BY
+   */
+  protected static String stripTrailingOrderBy( String sql ) {
+    Matcher m = TRAILING_ORDER_BY.matcher( sql.trim() );
+
+    return m.find() ? sql.trim().substring( 0, m.start() ).trim() : sql;
+  }
+
+  /**
+   * Get the random number function of a dialect
+   *
+   * @param id   the plugin id of the database type
+   * @param seed the seed to use, if the function can be seeded
+   * @return the function, or null if the dialect is not known
+   */
+  protected static String randomFunction( String id, long seed ) {
+    switch ( id ) {
+      case "POSTGRESQL":
+      case "GREENPLUM":
+      case "REDSHIFT":
+      case "VERTICA":
+      case "VERTICA5":
+      case "NETEZZA":
+      case "SQLITE":
+      case "MONETDB":
+      case "SNOWFLAKEHV":
+        return "RANDOM()";
+      case "MYSQL":
+      case "MARIADB":
+      case "INFOBRIGHT":
+        // seeded, so that the sample is repeatable
+        return "RAND(" + seed + ")";
+      case "H2":
+      case "HYPERSONIC":
+      case "HIVE2":
+      case "IMPALA":
+      case "GOOGLEBIGQUERY":
+      case "DB2":
+        return "RAND()";
+      case "MSSQL":
+      case "MSSQLNATIVE":
+        return "NEWID()";
+      case "ORACLE":
+        return "DBMS_RANDOM.VALUE";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Limit a query to k rows using the syntax of a dialect
+   *
+   * @param id      the plugin id of the database type
+   * @param select  the query to limit
+   * @param orderBy an order by clause to apply first (may be empty)
+   * @param k       the number of rows
+   * @return the limited query, or null if the dialect is not known
+   */
+  protected static String limitQuery( String id, String select, String orderBy, int k ) {
+    switch ( id ) {
+      case "MSSQL":
+      case "MSSQLNATIVE":
+        return "SELECT TOP " + k + " * FROM (" + select + ") " + ALIAS + "_top" + orderBy;
+      case "ORACLE":
+        return "SELECT * FROM (" + select + orderBy + ") WHERE ROWNUM <= " + k;
+      case "DB2":
+        return select + orderBy + " FETCH FIRST " + k + " ROWS ONLY";
+      case "TERADATA":
+        return "SELECT TOP " + k + " * FROM (" + select + ") " + ALIAS + "_top" + orderBy;
+      default:
+        return randomFunction( id, 0 ) != null ? select + orderBy + " LIMIT " + k : null;
+    }
+  }
+}
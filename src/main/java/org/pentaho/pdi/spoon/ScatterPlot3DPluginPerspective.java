@@ -25,20 +25,23 @@ package org.pentaho.pdi.spoon;
 import java.awt.BorderLayout;
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javafx.embed.swt.FXCanvas;
+import javafx.scene.Scene;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.awt.SWT_AWT;
 import org.eclipse.swt.custom.CCombo;
@@ -64,25 +67,24 @@ import org.eclipse.swt.widgets.Spinner;
 import org.pentaho.di.core.EngineMetaInterface;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
-import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.row.RowMetaInterface;
-import org.pentaho.di.core.row.ValueMetaInterface;
-import org.pentaho.di.trans.step.RowListener;
 import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.ui.core.dialog.EnterSelectionDialog;
+import org.pentaho.di.ui.spoon.Spoon;
 import org.pentaho.di.ui.spoon.SpoonPerspective;
 import org.pentaho.di.ui.spoon.SpoonPerspectiveListener;
-import org.pentaho.dm.commons.ArffMeta;
 import org.pentaho.ui.xul.XulOverlay;
 import org.pentaho.ui.xul.impl.XulEventHandler;
 
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.Utils;
 import weka.gui.beans.AttributeSummarizer;
+import weka.gui.visualize.MatrixModel;
+import weka.gui.visualize.PointCloud3D;
 import weka.gui.visualize.ScatterScene3D;
+import weka.gui.visualize.StreamingStats;
 import weka.gui.visualize.XChartMatrix;
 
 import javax.swing.JPanel;
@@ -98,12 +100,16 @@ import javax.swing.JScrollPane;
  *
  * @author Mark Hall (mhall{[at]}pentaho.com}
  */
-public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowListener {
+public class ScatterPlot3DPluginPerspective implements SpoonPerspective {
 
   /**
    * The 3D panel
    */
   protected ScatterScene3D m_scatterScene;
+  protected Scene m_scatterSceneFX;
+
+  /** The 3D panel as a point cloud - copes with much larger samples */
+  protected PointCloud3D m_pointCloud;
   protected Composite m_plotComposite;
   protected FXCanvas m_3dCanvas;
 
@@ -143,15 +149,90 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
    */
   protected Spinner m_wNumberOfRows;
   protected Spinner m_wRandomSeed;
+  protected Spinner m_wMaxCategories;
+  protected Button m_sampleInDatabaseBut;
+  protected Button m_useCacheBut;
   protected Spinner m_wScatterPlotWidth;
   protected Spinner m_wScatterMarkerSize;
   protected Button m_lowerTriangleBut;
   protected Button m_imageBut;
+  protected Button m_densityBut;
+  protected Button m_pointCloudBut;
+
+  /** Progress of the sampling in progress */
+  protected Label m_progressLabel;
+  protected Button m_cancelBut;
+
+  /** Stops the sampling in progress (null when not sampling) */
+  protected Runnable m_cancelAction;
+  protected boolean m_cancelled;
+  protected long m_progressStart;
+
+  /** Milliseconds between progress updates */
+  protected static final int PROGRESS_INTERVAL = 500;
+
+  /**
+   * Minimum milliseconds between redrawing the plots from the sample so far,
+   * while rows are still arriving
+   */
+  protected static final int REFRESH_INTERVAL = Integer.getInteger( "pmi.visualization.refresh.ms", 1000 );
+
+  /**
+   * Milliseconds that a redraw while rows are arriving is allowed to take.
+   * Redraws that take longer are spaced out proportionally further apart
+   */
+  protected static final int FRAME_BUDGET = Integer.getInteger( "pmi.visualization.frame.budget.ms", 100 );
+
+  /**
+   * Maximum number of rows drawn by the standard (one node per point) 3D scatter
+   * scene, and the most that can be sampled when it is in use. Larger (e.g.
+   * cached) samples are thinned out for it; the point cloud draws them all
+   */
+  protected static final int MAX_SCENE_ROWS = 10000;
+
+  /** Maximum number of rows that can be sampled when the point cloud is in use */
+  protected static final int MAX_POINT_CLOUD_ROWS = 1000000;
+
+  /**
+   * Samples with more rows than this are always drawn as density plots in the
+   * scatter plot matrix - drawing every point of every cell would take too long
+   */
+  protected static final int MAX_MATRIX_POINTS = 10000;
+
+  /** When the next redraw from the sample so far is due */
+  protected long m_nextRefresh;
+
+  /** The snapshots last drawn */
+  protected List<SampleCollector> m_refreshedSnapshots = new ArrayList<SampleCollector>();
+
+  /** True if the sample has been drawn while rows were still arriving */
+  protected boolean m_shownWhileSampling;
+
+  /** True while the snapshots for a redraw are being merged */
+  protected boolean m_merging;
+
+  /** Merges the snapshots for a redraw, so that the UI thread isn't held up */
+  protected final ExecutorService m_merger = Executors.newSingleThreadExecutor( new ThreadFactory() {
+    @Override public Thread newThread( Runnable r ) {
+      Thread t = new Thread( r, "Visualize: merge" );
+      t.setDaemon( true );
+      return t;
+    }
+  } );
+
+  /** Builds the scatter plot matrix - only the latest request gets drawn */
+  protected RenderPipeline m_renderPipeline = new RenderPipeline( "Visualize: render" );
+
+  /** Queue depth and timings of the render pipeline */
+  protected Label m_renderStatusLabel;
+
+  /**
+   * Columns, statistics and class partition of the data in the scatter plot
+   * matrix, reused while just the coloring or styling changes
+   */
+  protected MatrixModel m_matrixModel;
 
   protected int m_seed = 1;
-  protected List<Object[]> m_sample;
-  protected int m_currentRow;
-  protected Random m_random;
 
   /**
    * Reseviour size/max number of rows to visualize
@@ -159,12 +240,59 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
   protected int m_k = 5000;
   protected boolean m_stopAfterFirstKRows;
 
-  protected ArffMeta[] m_incomingFields;
-  protected boolean m_hasNominalAtts = false;
-  protected Map<Object, Object>[] m_nominalVals;
+  /**
+   * Maximum number of distinct values kept for a string field. Less frequent
+   * values get collapsed into an "other" value
+   */
+  protected int m_maxCategories = 50;
+
+  /**
+   * True if the sampling should be done by the database (when pulling rows
+   * from a table or query)
+   */
+  protected boolean m_sampleInDatabase;
+
+  /** True if a sample cached on disk can be used instead of sampling again */
+  protected boolean m_useCache = true;
+
+  /** Samples taken recently */
+  protected SampleCache m_sampleCache = new SampleCache();
+
+  /** Key to cache the sample being taken under (null to not cache it) */
+  protected String m_cacheKey;
+
+  /** Reads and writes the sample cache, so that disk I/O stays off the UI thread */
+  protected final ExecutorService m_cacheIO = Executors.newSingleThreadExecutor( new ThreadFactory() {
+    @Override public Thread newThread( Runnable r ) {
+      Thread t = new Thread( r, "Visualize: sample cache" );
+      t.setDaemon( true );
+      return t;
+    }
+  } );
+
+  /** Incremented for each new source, so that a late cache read is ignored */
+  protected int m_sourceGeneration;
+
+  /** Names of the fields to visualize (null for all fields) */
+  protected List<String> m_selectedFields;
+
+  /** First k rows mode: rows still wanted, shared by all collectors */
+  protected AtomicLong m_firstRowsRemaining;
+
+  /** Stops the row source once the first k rows have been collected */
+  protected Runnable m_firstRowsCollected;
+
+  /**
+   * One collector per step copy (or a single one when pulling rows from a
+   * database)
+   */
+  protected List<SampleCollector> m_collectors = new ArrayList<SampleCollector>();
 
-  protected RowMetaInterface m_rowMeta;
   protected Instances m_data;
+
+  /** Statistics of the numeric fields over all rows, not just the sample */
+  protected StreamingStats[] m_streamStats;
+
   protected boolean m_isWindows;
 
   /**
@@ -241,7 +369,7 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
 
       // sampling controls
       Group samplingGroup = new Group( holderPanel, SWT.SHADOW_IN );
-      samplingGroup.setLayout( new GridLayout( 16, false ) );
+      samplingGroup.setLayout( new GridLayout( 26, false ) );
       samplingGroup.setText( "Rows to visualize" );
       gridData = new GridData();
       gridData.horizontalAlignment = GridData.FILL;
@@ -250,12 +378,46 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
       gridData.horizontalSpan = 2;
       samplingGroup.setLayoutData( gridData );
 
+      // progress of sampling
+      Composite progressPanel = new Composite( holderPanel, SWT.NONE );
+      progressPanel.setLayout( new GridLayout( 3, false ) );
+      gridData = new GridData();
+      gridData.horizontalAlignment = GridData.FILL;
+      gridData.grabExcessHorizontalSpace = true;
+      gridData.horizontalSpan = 2;
+      progressPanel.setLayoutData( gridData );
+      m_progressLabel = new Label( progressPanel, SWT.LEFT );
+      gridData = new GridData();
+      gridData.horizontalAlignment = GridData.FILL;
+      gridData.grabExcessHorizontalSpace = true;
+      m_progressLabel.setLayoutData( gridData );
+      m_cancelBut = new Button( progressPanel, SWT.PUSH );
+      m_cancelBut.setText( "Cancel" );
+      m_cancelBut.setToolTipText( "Stop sampling and plot the rows sampled so far" );
+      m_cancelBut.setEnabled( false );
+      m_renderStatusLabel = new Label( progressPanel, SWT.RIGHT );
+      m_renderPipeline.setStatusListener( new RenderPipeline.StatusListener() {
+        @Override public void statusChanged( final RenderPipeline pipeline ) {
+          if ( m_renderStatusLabel.isDisposed() ) {
+            return;
+          }
+          m_renderStatusLabel.getDisplay().asyncExec( new Runnable() {
+            @Override public void run() {
+              if ( !m_renderStatusLabel.isDisposed() ) {
+                m_renderStatusLabel.setText( pipeline.getStatus() );
+                m_renderStatusLabel.getParent().layout();
+              }
+            }
+          } );
+        }
+      } );
+
       Label numRowsLabel = new Label( samplingGroup, SWT.RIGHT );
       numRowsLabel.setText( "Number of rows" );
       m_wNumberOfRows = new Spinner( samplingGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
       //m_wNumberOfRows.set
       //m_wNumberOfRows.setText("" + m_k + "  ");
-      m_wNumberOfRows.setMaximum( 10000 );
+      m_wNumberOfRows.setMaximum( MAX_SCENE_ROWS );
       m_wNumberOfRows.setMinimum( 1 );
       m_wNumberOfRows.setIncrement( 100 );
       m_wNumberOfRows.setPageIncrement( 500 );
@@ -278,6 +440,31 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
       m_wRandomSeed.setPageIncrement( 100 );
       m_wRandomSeed.setSelection( m_seed );
 
+      Label maxCategoriesLabel = new Label( samplingGroup, SWT.RIGHT );
+      maxCategoriesLabel.setText( "Max categories" );
+      maxCategoriesLabel.setToolTipText( "Less frequent values of string fields are grouped as \""
+          + SampleCollector.OTHER_LABEL + "\"" );
+      m_wMaxCategories = new Spinner( samplingGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+      m_wMaxCategories.setMaximum( 1000 );
+      m_wMaxCategories.setMinimum( 2 );
+      m_wMaxCategories.setIncrement( 1 );
+      m_wMaxCategories.setPageIncrement( 10 );
+      m_wMaxCategories.setSelection( m_maxCategories );
+
+      Label sampleInDatabaseLabel = new Label( samplingGroup, SWT.RIGHT );
+      sampleInDatabaseLabel.setText( "Sample in database" );
+      sampleInDatabaseLabel.setToolTipText( "For table input/output steps, have the database select the rows "
+          + "so that only the sample is transferred" );
+      m_sampleInDatabaseBut = new Button( samplingGroup, SWT.CHECK );
+      m_sampleInDatabaseBut.setSelection( m_sampleInDatabase );
+
+      Label useCacheLabel = new Label( samplingGroup, SWT.RIGHT );
+      useCacheLabel.setText( "Use cached sample" );
+      useCacheLabel.setToolTipText( "Reuse a sample taken earlier with the same settings, rather than sampling "
+          + "again. Uncheck to refresh the sample" );
+      m_useCacheBut = new Button( samplingGroup, SWT.CHECK );
+      m_useCacheBut.setSelection( m_useCache );
+
       Label scatterWidthLabel = new Label( samplingGroup, SWT.RIGHT );
       scatterWidthLabel.setText( "Scatter plot cell width/height" );
       m_wScatterPlotWidth = new Spinner( samplingGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
@@ -311,6 +498,21 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
       m_isWindows = osType.toLowerCase().contains( "windows" );
       m_imageBut.setSelection( !m_isWindows );
 
+      Label densityLabel = new Label( samplingGroup, SWT.RIGHT );
+      densityLabel.setText( "Density plots" );
+      densityLabel.setToolTipText( "Shade binned point counts rather than drawing every point. Always on for "
+          + "samples of more than " + MAX_MATRIX_POINTS + " rows" );
+      m_densityBut = new Button( samplingGroup, SWT.CHECK );
+      m_densityBut.setEnabled( false );
+
+      Label pointCloudLabel = new Label( samplingGroup, SWT.RIGHT );
+      pointCloudLabel.setText( "Point cloud 3D" );
+      pointCloudLabel.setToolTipText( "Draw the 3D plot as a point cloud - much faster to rotate with large samples. "
+          + "Allows up to " + MAX_POINT_CLOUD_ROWS + " rows to be sampled, rather than " + MAX_SCENE_ROWS );
+      m_pointCloudBut = new Button( samplingGroup, SWT.CHECK );
+      m_pointCloudBut.setSelection( true );
+      updateRowLimit();
+
       m_wbFirstRadio.setSelection( true );
       m_wRandomSeed.setEnabled( false );
 
@@ -330,7 +532,11 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
             int c = m_wbC.getSelectionIndex();
 
             if ( m_combosChanged ) {
-              m_scatterScene.updateAxes( x, y, z, c );
+              if ( m_pointCloudBut.getSelection() ) {
+                m_pointCloud.updateAxes( x, y, z, c );
+              } else {
+                m_scatterScene.updateAxes( x, y, z, c );
+              }
             }
             if ( ( m_colorComboChanged || m_scatterControlsChanged ) && !m_wbX.isEnabled() && m_data != null ) {
               // m_atts.setColoringIndex( c );
@@ -339,7 +545,7 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
               if ( m_wbC.getSelectionIndex() < m_data.numAttributes() ) {
                 m_data.setClassIndex( m_wbC.getSelectionIndex() );
                 updateScatter( m_data, m_wScatterPlotWidth.getSelection(), m_wScatterMarkerSize.getSelection(), m_lowerTriangleBut.getSelection(),
-                    m_imageBut.getSelection());
+                    m_imageBut.getSelection(), m_densityBut.getSelection() );
                 m_colorComboChanged = false;
                 m_scatterControlsChanged = false;
               }
@@ -352,6 +558,17 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
         }
       } );
 
+      m_cancelBut.addSelectionListener( new SelectionAdapter() {
+        @Override public void widgetSelected( SelectionEvent selectionEvent ) {
+          if ( m_cancelAction != null ) {
+            m_cancelled = true;
+            m_cancelBut.setEnabled( false );
+            m_progressLabel.setText( "Cancelling..." );
+            m_cancelAction.run();
+          }
+        }
+      } );
+
       m_wbX.addModifyListener( new ModifyListener() {
         public void modifyText( ModifyEvent e ) {
           m_combosChanged = true;
@@ -403,6 +620,23 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
         }
       } );
 
+      m_densityBut.addSelectionListener( new SelectionAdapter() {
+        @Override public void widgetSelected( SelectionEvent selectionEvent ) {
+          super.widgetSelected( selectionEvent );
+          m_scatterControlsChanged = true;
+        }
+      } );
+
+      m_pointCloudBut.addSelectionListener( new SelectionAdapter() {
+        @Override public void widgetSelected( SelectionEvent selectionEvent ) {
+          updateRowLimit();
+          if ( m_data != null ) {
+            set3DInstances( m_data, m_wbX.getSelectionIndex(), m_wbY.getSelectionIndex(), m_wbZ.getSelectionIndex(),
+                m_wbC.getSelectionIndex() );
+          }
+        }
+      } );
+
       // tabs
       CTabFolder tabs = new CTabFolder( holderPanel, SWT.BORDER );
       tabs.setSimple( false );
@@ -423,6 +657,7 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
       m_plotComposite = new Composite( tabs, SWT.NONE );
 
       m_scatterScene = new ScatterScene3D();
+      m_pointCloud = new PointCloud3D();
       // final Scene scene = m_scatterScene.getScene();
       FXCanvas fxCanvas = new FXCanvas( m_plotComposite, SWT.NONE ) {
         @Override public Point computeSize( int wHint, int hHint, boolean changed ) {
@@ -497,6 +732,7 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
             m_wScatterMarkerSize.setEnabled( true );
             m_lowerTriangleBut.setEnabled( true );
             m_imageBut.setEnabled( true );
+            m_densityBut.setEnabled( true );
           } else if ( e.item.equals( tab3D ) ) {
             m_wbX.setEnabled( true );
             m_wbY.setEnabled( true );
@@ -505,6 +741,7 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
             m_wScatterMarkerSize.setEnabled( false );
             m_lowerTriangleBut.setEnabled( false );
             m_imageBut.setEnabled( false );
+            m_densityBut.setEnabled( false );
           }
         }
       } );
@@ -588,301 +825,374 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
   // -------------
 
   protected void resetIncomingFields() {
-    m_incomingFields = null;
-  }
-
-  protected void allocateForIncomingFields( int num ) {
-    m_incomingFields = new ArffMeta[num];
+    m_collectors.clear();
+    m_firstRowsRemaining = null;
+    m_firstRowsCollected = null;
+    m_cacheKey = null;
+    m_sourceGeneration++;
+
+    // a new source - nothing about the previous run carries over (database
+    // sampling never calls startProgress())
+    m_cancelled = false;
+    m_shownWhileSampling = false;
   }
 
-  protected void setupArffMetas( RowMetaInterface rmi ) {
-    if ( rmi != null ) {
-      m_rowMeta = rmi;
-      allocateForIncomingFields( rmi.size() );
-      initializeReservoir();
-
-      m_nominalVals = (HashMap<Object, Object>[]) new HashMap[m_incomingFields.length];
-
-      m_hasNominalAtts = false;
-
-      for ( int i = 0; i < m_incomingFields.length; i++ ) {
-        ValueMetaInterface inField = rmi.getValueMeta( i );
-        int fieldType = inField.getType();
-        switch ( fieldType ) {
-          case ValueMetaInterface.TYPE_NUMBER:
-          case ValueMetaInterface.TYPE_INTEGER:
-          case ValueMetaInterface.TYPE_BOOLEAN:
-            m_incomingFields[i] = new ArffMeta( inField.getName(), fieldType, ArffMeta.NUMERIC );
-            // inField.getPrecision());
-            break;
-          case ValueMetaInterface.TYPE_STRING:
-            m_incomingFields[i] = new ArffMeta( inField.getName(), fieldType, ArffMeta.NOMINAL );
-            m_hasNominalAtts = true;
-            m_nominalVals[i] = new HashMap<Object, Object>();
-            break;
-          case ValueMetaInterface.TYPE_DATE:
-            m_incomingFields[i] = new ArffMeta( inField.getName(), fieldType, ArffMeta.DATE );
-            m_incomingFields[i].setDateFormat( inField.getDateFormat().toPattern() );
-            break;
-        }
-      }
+  /**
+   * Use a sample cached on disk, if there is one for the given source and the
+   * current sampling settings. Otherwise the sample that is about to be taken
+   * gets cached when it is done. The cached sample is read in the background,
+   * and visualized when it has been read. Must be called after preRows() and
+   * setSelectedFields(), on the UI thread.
+   *
+   * @param source identifies where the rows come from - e.g. the
+   *               transformation XML and step name, or the query and
+   *               connection XML
+   * @return true if a cached sample is going to be visualized
+   */
+  public boolean useCachedSample( String... source ) {
+    String[] parts = Arrays.copyOf( source, source.length + 1 );
+    parts[source.length] =
+        "k=" + m_k + ";seed=" + m_seed + ";first=" + m_stopAfterFirstKRows + ";maxCategories=" + m_maxCategories
+            + ";inDatabase=" + m_sampleInDatabase + ";fields=" + m_selectedFields;
+    final String key = SampleCache.key( parts );
+
+    if ( !m_useCache || !m_sampleCache.contains( key ) ) {
+      m_cacheKey = key;
+      return false;
     }
+    m_progressLabel.setText( "Reading cached sample..." );
+    final int generation = m_sourceGeneration;
+    final Display display = m_progressLabel.getDisplay();
+    m_cacheIO.execute( new Runnable() {
+      @Override public void run() {
+        final SampleCache.Entry entry = m_sampleCache.get( key );
+        display.asyncExec( new Runnable() {
+          @Override public void run() {
+            if ( generation != m_sourceGeneration || m_progressLabel.isDisposed() ) {
+              // another source has been picked since
+              return;
+            }
+            if ( entry == null ) {
+              // has been discarded, so sampling again will replace it
+              m_progressLabel.setText( "Unable to read the cached sample - visualize again to resample" );
+              return;
+            }
+            m_streamStats = entry.getStreamStats();
+            m_progressLabel.setText( String.format( "Cached sample of %,d rows taken %tc",
+                entry.getData().numInstances(), new Date( entry.getCreated() ) ) );
+            showData( entry.getData(), false );
+          }
+        } );
+      }
+    } );
+
+    return true;
   }
 
   /**
-   * Initialize the reservoir/cache for the requested sample (or cache)
-   * size.
+   * Set an action that stops the row source as soon as the first k rows have
+   * been collected (by any of the collectors). Only applies in first k rows
+   * mode, and to collectors created after this call.
+   *
+   * @param stop the action to run
    */
-  protected void initializeReservoir() {
-
-    m_sample = ( m_k > 0 ) ? new ArrayList<Object[]>( m_k ) : new ArrayList<Object[]>();
-
-    m_currentRow = 0;
-    m_random = new Random( m_seed );
-
-    // throw away the first 100 random numbers
-    for ( int i = 0; i < 100; i++ ) {
-      m_random.nextDouble();
+  public void setStopWhenFirstRowsCollected( Runnable stop ) {
+    if ( m_stopAfterFirstKRows && m_k > 0 ) {
+      m_firstRowsRemaining = new AtomicLong( m_k );
+      m_firstRowsCollected = stop;
     }
   }
 
-  //brute force way of filling list when item index is  out of range,
-  //should be ported to a commons or some library call or something
-  //that works well with the "R" randomizing algorithm
-  private static void setElement( List list, int idx, Object item ) {
-    final int size = list.size();
-    if ( size <= idx ) {
-      //int len = Math.max(size, idx - size);
-      int buff = ( size == 0 ) ? 100 : size * 2;
-      for ( int i = 0; i < buff; i++ ) {
-        list.add( null );
+  /**
+   * Let the user pick the fields to visualize. Only fields of a type that can
+   * be visualized are offered.
+   *
+   * @param fields the available fields
+   * @return the names of the selected fields, or null if the user cancelled
+   */
+  public List<String> selectFields( RowMetaInterface fields ) {
+    List<String> names = new ArrayList<String>();
+    for ( int i = 0; i < fields.size(); i++ ) {
+      if ( FieldConverter.create( fields.getValueMeta( i ) ) != null ) {
+        names.add( fields.getValueMeta( i ).getName() );
       }
     }
-    list.set( idx, item );
-  }
-
-  private ArrayList<String> setupNominalVals( int index, ValueMetaInterface fieldMeta ) throws KettleException {
-    Map<Object, Object> map = m_nominalVals[index];
-    if ( fieldMeta.getType() != ValueMetaInterface.TYPE_STRING ) {
-      throw new KettleException( "Field is not of type STRING! (setUpNominalVals)" );
+    int[] all = new int[names.size()];
+    for ( int i = 0; i < all.length; i++ ) {
+      all[i] = i;
     }
 
-    // make sure that the values are in sorted order
-    TreeSet<String> sorted = new TreeSet<String>();
-
-    Set<Object> keySet = map.keySet();
-    Iterator<Object> ksi = keySet.iterator();
-    while ( ksi.hasNext() ) {
-      Object val = ksi.next();
-      String sval = fieldMeta.getString( val );
-      sorted.add( sval );
+    Shell shell = ( (Spoon) SpoonFactory.getInstance() ).getShell();
+    EnterSelectionDialog dialog =
+        new EnterSelectionDialog( shell, names.toArray( new String[names.size()] ), "Fields to visualize",
+            "Select the fields to sample and visualize" );
+    dialog.setMulti( true );
+    dialog.setSelectedNrs( all );
+    if ( dialog.open() == null ) {
+      return null;
     }
-
-    // make the list
-    ArrayList<String> attVals = new ArrayList<String>( sorted.size() );
-    Iterator<String> tsi = sorted.iterator();
-    while ( tsi.hasNext() ) {
-      attVals.add( tsi.next() );
+    List<String> selected = new ArrayList<String>();
+    for ( int index : dialog.getSelectionIndeces() ) {
+      selected.add( names.get( index ) );
     }
 
-    return attVals;
+    return selected;
   }
 
-  private Instances createHeader( RowMetaInterface rmi ) throws KettleException {
-    ArrayList<Attribute> attInfo = new ArrayList<Attribute>( m_incomingFields.length );
-
-    for ( int i = 0; i < m_incomingFields.length; i++ ) {
-      ArffMeta tempField = m_incomingFields[i];
-      Attribute tempAtt = null;
-      int arffType = tempField.getArffType();
-      switch ( arffType ) {
-        case ArffMeta.NUMERIC:
-          tempAtt = new Attribute( tempField.getFieldName() );
-          break;
-        case ArffMeta.NOMINAL:
-          ArrayList<String> attVals = setupNominalVals( i, rmi.getValueMeta( i ) );
-          tempAtt = new Attribute( tempField.getFieldName(), attVals );
-          break;
-        case ArffMeta.DATE:
-          String dateF = tempField.getDateFormat();
-          tempAtt = new Attribute( tempField.getFieldName(), dateF );
-          break;
-      }
+  /**
+   * Set the fields to sample. Other fields are dropped as rows arrive (and not
+   * fetched at all when pulling from a database).
+   *
+   * @param fields the names of the fields to sample, or null for all fields
+   */
+  public void setSelectedFields( List<String> fields ) {
+    m_selectedFields = fields;
+  }
 
-      if ( tempAtt != null ) {
-        attInfo.add( tempAtt );
-      } else {
-        throw new KettleException( "Unhandled attribute type (createHeader)" );
-      }
+  /**
+   * Get the number of rows seen so far by all collectors
+   *
+   * @return the number of rows seen
+   */
+  protected long rowsSeenSoFar() {
+    long rows = 0;
+    for ( SampleCollector c : m_collectors ) {
+      rows += c.getRowsSeenSoFar();
     }
 
-    Instances header = new Instances( "Visualize3D_data", attInfo, m_sample.size() );
-    return header;
+    return rows;
   }
 
   /**
-   * Construct an instance from a kettle row
+   * Show the progress of sampling that is running in the background, until
+   * stopProgress() is called. Must be called on the UI thread.
    *
-   * @param inputRowMeta the meta data for the row
-   * @param row          the row itself
-   * @param header       the arff header to use
-   * @return an Instance corresponding to the row
-   * @throws KettleException if the conversion can't be performed
+   * @param cancelAction stops the sampling when the user cancels
    */
-  private Instance constructInstance( RowMetaInterface inputRowMeta, Object[] row, Instances header )
-      throws KettleException {
-
-    double[] vals = new double[header.numAttributes()]; // holds values for the new Instance
-
-    for ( int i = 0; i < m_incomingFields.length; i++ ) {
-      ArffMeta tempField = m_incomingFields[i];
-      if ( tempField != null ) {
-        int arffType = tempField.getArffType();
-        Attribute currentAtt = header.attribute( i );
-
-        ValueMetaInterface vmi = inputRowMeta.getValueMeta( i );
-        int fieldType = vmi.getType();
-        Object rowVal = row[i];
-
-        // check for null
-        String stringV = vmi.getString( rowVal );
-        if ( stringV == null || stringV.length() == 0 ) {
-          // set to missing value
-          vals[i] = Utils.missingValue();
-        } else {
-          switch ( arffType ) {
-            case ArffMeta.NUMERIC: {
-              if ( fieldType == ValueMetaInterface.TYPE_BOOLEAN ) {
-                Boolean b = vmi.getBoolean( rowVal );
-                vals[i] = ( b.booleanValue() ) ? 1.0 : 0.0;
-              } else if ( fieldType == ValueMetaInterface.TYPE_INTEGER ) {
-                Long t = vmi.getInteger( rowVal );
-                vals[i] = (double) t.longValue();
-              } else {
-                Double n = vmi.getNumber( rowVal );
-                vals[i] = n.doubleValue();
-              }
-            }
-            break;
-            case ArffMeta.NOMINAL: {
-              String s = vmi.getString( rowVal );
-              // now need to look for this value in the attribute
-              // in order to get the correct index
-              int index = currentAtt.indexOfValue( s );
-              if ( index < 0 ) {
-                // shouldn't happen as we have been collecting all nominal values
-                // over the entire stream of rows
-                throw new KettleException( "Encountered a nominal value in the reservoir that "
-                    + "wasn't seen over the entire stream! (reservoirToInstances)" );
-              }
-              vals[i] = (double) index;
-            }
-            break;
-            case ArffMeta.DATE: {
-              // Get the date as a number
-              Double date = vmi.getNumber( rowVal );
-              vals[i] = date.doubleValue();
-            }
-            break;
-          }
-        }
-      }
+  public void startProgress( Runnable cancelAction ) {
+    m_cancelAction = cancelAction;
+    m_cancelled = false;
+    m_progressStart = System.currentTimeMillis();
+    m_cancelBut.setEnabled( true );
+    m_progressLabel.setText( "Sampling..." );
+
+    // snapshots are taken by the step threads, so ask for the first one now
+    m_refreshedSnapshots.clear();
+    m_shownWhileSampling = false;
+    m_nextRefresh = m_progressStart + REFRESH_INTERVAL;
+    for ( SampleCollector c : m_collectors ) {
+      c.requestSnapshot();
     }
-    Instance newInst = new DenseInstance( 1.0, vals );
-
-    return newInst;
-  }
 
-  protected Instances reservoirToInstances( RowMetaInterface rmi ) throws KettleException {
-    // Construct the Instances structure
-    Instances header = createHeader( rmi );
-
-    // Convert the sampled rows to Instance objects and add them to the data set
-    Iterator<Object[]> li = m_sample.iterator();
-    int counter = 0;
-    while ( li.hasNext() ) {
-      Object[] row = li.next(); // the row to process
-      if ( row == null ) {
-        // either more rows were requested than there actually were in the
-        // end, or the mechanism for filling the list has added some residue null values
-        break;
+    final Display display = m_progressLabel.getDisplay();
+    display.timerExec( PROGRESS_INTERVAL, new Runnable() {
+      @Override public void run() {
+        if ( m_cancelAction == null || m_cancelled || m_progressLabel.isDisposed() ) {
+          return;
+        }
+        long rows = rowsSeenSoFar();
+        double secs = Math.max( 0.001, ( System.currentTimeMillis() - m_progressStart ) / 1000.0 );
+        m_progressLabel.setText( String.format( "Sampling: %,d rows seen (%,.0f rows/sec)", rows, rows / secs ) );
+        refresh();
+        display.timerExec( PROGRESS_INTERVAL, this );
       }
-      counter++;
-
-      Instance newInst = constructInstance( rmi, row, header );
+    } );
+  }
 
-      // add that sucker...
-      header.add( newInst );
+  /**
+   * Redraw the plots from the latest snapshots of the collectors, if there are
+   * new ones and a redraw is due. Redraws are skipped while the previous
+   * snapshots are still being merged or the previous scatter plot matrix is
+   * still being built, and are spaced out further when they take longer than
+   * the frame budget. Called on the UI thread while sampling runs in the
+   * background. The snapshots are merged in the background too, and only the
+   * result is handed back to the UI thread. The step threads only ever copy
+   * their sample when asked, and at most once per redraw.
+   */
+  protected void refresh() {
+    final long start = System.currentTimeMillis();
+    if ( start < m_nextRefresh || m_merging || m_renderPipeline.isBusy() ) {
+      return;
     }
 
-    // m_log.logBasic("[KFData] Converted " + counter + " rows to instances");
-    header.compactify();
-    return header;
-  }
+    List<SampleCollector> snapshots = new ArrayList<SampleCollector>();
+    for ( SampleCollector c : m_collectors ) {
+      if ( c.getSnapshot() != null ) {
+        snapshots.add( c.getSnapshot() );
+      }
+      c.requestSnapshot();
+    }
+    if ( snapshots.size() == 0 || snapshots.equals( m_refreshedSnapshots ) ) {
+      return;
+    }
+    m_refreshedSnapshots = snapshots;
+    m_merging = true;
+
+    final List<SampleCollector> toMerge = snapshots;
+    final int k = m_k;
+    final boolean stopAfterFirstKRows = m_stopAfterFirstKRows;
+    final int maxCategories = m_maxCategories;
+    final int seed = m_seed;
+    final int generation = m_sourceGeneration;
+    final Display display = m_progressLabel.getDisplay();
+    m_merger.execute( new Runnable() {
+      @Override public void run() {
+        Instances merged = null;
+        StreamingStats[] mergedStats = null;
+        try {
+          merged =
+              SampleCollector.mergeToInstances( toMerge, k, stopAfterFirstKRows, maxCategories, new Random( seed ) );
+          mergedStats = SampleCollector.mergeStreamingStats( toMerge );
+        } catch ( KettleException e ) {
+          e.printStackTrace();
+        }
 
-  protected void processRow( Object[] inputRow, RowMetaInterface inputMeta ) throws Exception {
-
-    // Store any necessary nominal header values first.
-    // Store as (possibly) kettle internal binary format (for speed).
-    // At the end of the incoming stream of rows we will construct
-    // the arff header and at that time convert from the binary format.
-    if ( m_hasNominalAtts ) {
-      for ( int i = 0; i < m_incomingFields.length; i++ ) {
-        Object inField = inputRow[i];
-        if ( inField != null ) {
-          if ( m_incomingFields[i].getKettleType() == ValueMetaInterface.TYPE_STRING ) {
-            if ( !m_nominalVals[i].containsKey( inField ) ) {
-              m_nominalVals[i].put( inField, inField );
+        final Instances data = merged;
+        final StreamingStats[] streamStats = mergedStats;
+        display.asyncExec( new Runnable() {
+          @Override public void run() {
+            m_merging = false;
+            if ( generation != m_sourceGeneration || !isSampling() || m_progressLabel.isDisposed() ) {
+              // sampling has finished (or a new source has been picked) while
+              // merging, so this preview is already out of date
+              return;
             }
+            if ( data != null ) {
+              m_streamStats = streamStats;
+              showData( data, m_shownWhileSampling, !m_shownWhileSampling );
+              m_shownWhileSampling = true;
+            }
+
+            long cost = System.currentTimeMillis() - start + m_renderPipeline.getLastBuildTime();
+            m_nextRefresh =
+                System.currentTimeMillis() + Math.max( REFRESH_INTERVAL, cost * REFRESH_INTERVAL / FRAME_BUDGET );
           }
-        }
+        } );
       }
+    } );
+  }
+
+  /**
+   * @return true if sampling is running in the background
+   */
+  public boolean isSampling() {
+    return m_cancelAction != null;
+  }
+
+  /**
+   * Stop showing progress - sampling has finished, or has been cancelled. Must
+   * be called on the UI thread, after the rows have stopped arriving.
+   */
+  public void stopProgress() {
+    long rows = 0;
+    for ( SampleCollector c : m_collectors ) {
+      rows += c.getRowsSeen();
     }
+    double secs = ( System.currentTimeMillis() - m_progressStart ) / 1000.0;
+    m_progressLabel.setText( String.format( "%s %,d rows in %.1f sec", m_cancelled ? "Cancelled after" : "Sampled",
+        rows, secs ) );
+    m_cancelAction = null;
+    m_refreshedSnapshots.clear();
+    m_cancelBut.setEnabled( false );
+  }
 
-    // Now see if this row should be stored in the reservoir
-    // if sampling size is 0, do not sample.
-    if ( m_k == 0 ) {
-      m_sample.add( inputRow );
-    } else if ( m_currentRow < m_k ) {
-      setElement( m_sample, m_currentRow, inputRow );
-      // size can be less than 0, which is essentially a blocking step
-    } else if ( m_k > 0 ) {
-      double r = m_random.nextDouble();
-      if ( r < ( (double) m_k / (double) m_currentRow ) ) {
-        r = m_random.nextDouble();
-        int replace = (int) ( (double) m_k * r );
-        setElement( m_sample, replace, inputRow );
-      }
+  /**
+   * Create a new collector for a copy of the step that rows are being sampled
+   * from. Must be called before the transformation starts running.
+   *
+   * @param copyNr the copy number of the step
+   * @return a collector to be registered as a RowListener with the step copy
+   */
+  protected SampleCollector createCollector( int copyNr ) {
+    // copy 0 uses the configured seed, so that a single copy samples exactly
+    // as before; other copies get distinct, but reproducible, seeds
+    SampleCollector collector =
+        new SampleCollector( m_k, m_seed + 7919L * copyNr, m_stopAfterFirstKRows, m_maxCategories );
+    collector.setSelectedFields( m_selectedFields );
+    if ( m_firstRowsRemaining != null ) {
+      collector.setFirstRowsQuota( m_firstRowsRemaining, m_firstRowsCollected );
     }
-    m_currentRow++;
+    m_collectors.add( collector );
+
+    return collector;
   }
 
   public void setDataSource( String tableName, String sql, DatabaseMeta dbMeta ) {
+    if ( isSampling() ) {
+      // one at a time - a transformation sampling in the background is still
+      // using the collectors
+      return;
+    }
     Database db = new Database( dbMeta );
 
     try {
       db.connect();
+      resetIncomingFields();
+      preRows();
 
-      String query = "SELECT * from " + tableName;
-      if ( sql != null && sql.length() > 0 ) {
-        query = sql;
+      String query = SamplingQueryBuilder.projectQuery( dbMeta, tableName, sql, null );
+
+      // only fetch the fields that are going to be visualized
+      RowMetaInterface queryFields = db.getQueryFields( query, false );
+      List<String> fields = selectFields( queryFields );
+      if ( fields == null || fields.size() == 0 ) {
+        db.disconnect();
+        return;
+      }
+      setSelectedFields( fields );
+      if ( useCachedSample( dbMeta.getXML(), tableName, sql ) ) {
+        db.disconnect();
+        return;
+      }
+      // the table or query is used as it is if every field is wanted
+      List<String> projected = fields.size() == queryFields.size() ? null : fields;
+      query = SamplingQueryBuilder.projectQuery( dbMeta, tableName, sql, projected );
+      String projectedQuery = query;
+
+      if ( m_k > 0 ) {
+        if ( m_sampleInDatabase || m_stopAfterFirstKRows ) {
+          // let the database pick the rows - null if we don't know the dialect,
+          // in which case everything gets pulled and sampled here. The first k
+          // rows are always limited in the database
+          String sampleQuery =
+              SamplingQueryBuilder.buildQuery( dbMeta, tableName, sql, projected, m_k, m_stopAfterFirstKRows, m_seed );
+          if ( sampleQuery != null ) {
+            query = sampleQuery;
+          }
+        }
+        if ( m_stopAfterFirstKRows ) {
+          // don't fetch more than we need, whatever the dialect
+          db.setQueryLimit( m_k );
+        }
+      }
+      ResultSet rs;
+      try {
+        rs = db.openQuery( query );
+      } catch ( KettleDatabaseException e ) {
+        if ( query.equals( projectedQuery ) ) {
+          throw e;
+        }
+        // the database didn't accept the sampling query - fetch everything
+        // and sample here instead
+        System.err.println( "Unable to sample in the database, sampling in Spoon instead: " + e.getMessage() );
+        rs = db.openQuery( projectedQuery );
       }
-      ResultSet rs = db.openQuery( query );
       ResultSetMetaData rsmd = rs.getMetaData();
       RowMetaInterface rmi = db.getMetaFromRow( null, rsmd );
-      m_rowMeta = rmi;
-      preRows();
-      setupArffMetas( rmi );
+      SampleCollector collector = createCollector( 0 );
+      collector.setupArffMetas( rmi );
 
       Object[] row = null;
       int rowCount = 0;
       while ( ( row = db.getRow( rs ) ) != null ) {
-        processRow( row, rmi );
+        collector.processRow( row, rmi );
         rowCount++;
         if ( m_stopAfterFirstKRows && rowCount == m_k ) {
           break;
         }
       }
+      // done with the cursor - don't leave the rest of the result pending
+      db.closeQuery( rs );
 
       /* // Construct instances
       Instances data = reservoirToInstances( rmi );
@@ -894,7 +1204,7 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
       m_scatterScene.setInstances( data, 0, 1, 2, 3 );
       m_plotComposite.layout( true ); */
 
-      rowsDone();
+      rowsDone( true );
 
       db.disconnect();
     } catch ( Exception e ) {
@@ -915,73 +1225,218 @@ public class ScatterPlot3DPluginPerspective implements SpoonPerspective, RowList
     combo.select( initialIndex );
   }
 
-  // RowListener ----------------
-  public void rowReadEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
-    // We don't respond to these (rows incoming to the selected step)
+  public void preRows() {
+    m_k = m_wNumberOfRows.getSelection();
+    m_seed = m_wRandomSeed.getSelection();
+    m_stopAfterFirstKRows = m_wbFirstRadio.getSelection();
+    m_maxCategories = m_wMaxCategories.getSelection();
+    m_sampleInDatabase = m_sampleInDatabaseBut.getSelection();
+    m_useCache = m_useCacheBut.getSelection();
   }
 
-  public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
-    // rows output from the selected step
-    if ( m_incomingFields == null ) {
-      allocateForIncomingFields( rowMeta.size() );
-      setupArffMetas( rowMeta );
-    }
+  /**
+   * Merge the samples of the collectors and visualize the result. The merge
+   * (which can involve millions of rows) is done in the background, and the
+   * result is shown when it is ready. Must be called on the UI thread, after
+   * the rows have stopped arriving.
+   *
+   * @param succeeded false if the row source failed part way through - the
+   *                  sample is still shown, but not cached
+   */
+  public void rowsDone( boolean succeeded ) {
+    final List<SampleCollector> collectors = new ArrayList<SampleCollector>( m_collectors );
+    final int k = m_k;
+    final boolean stopAfterFirstKRows = m_stopAfterFirstKRows;
+    final int maxCategories = m_maxCategories;
+    final int seed = m_seed;
+    // a cancelled or failed sample is partial, so isn't worth keeping
+    final String cacheKey = m_cancelled || !succeeded ? null : m_cacheKey;
+    final int generation = m_sourceGeneration;
+    final Display display = m_progressLabel.getDisplay();
+
+    m_merger.execute( new Runnable() {
+      @Override public void run() {
+        Instances merged = null;
+        StreamingStats[] mergedStats = null;
+        try {
+          // Merge the per-copy reservoirs and construct instances
+          merged =
+              SampleCollector.mergeToInstances( collectors, k, stopAfterFirstKRows, maxCategories, new Random( seed ) );
+          mergedStats = SampleCollector.mergeStreamingStats( collectors );
+        } catch ( KettleException e ) {
+          e.printStackTrace();
+        }
+        if ( merged == null ) {
+          return;
+        }
 
-    try {
-      if ( m_stopAfterFirstKRows && m_currentRow == m_k ) {
-        return;
+        final Instances data = merged;
+        final StreamingStats[] streamStats = mergedStats;
+        if ( cacheKey != null ) {
+          m_cacheIO.execute( new Runnable() {
+            @Override public void run() {
+              try {
+                m_sampleCache.put( cacheKey, data, streamStats );
+              } catch ( IOException e ) {
+                System.err.println( "Unable to cache sample: " + e.getMessage() );
+              }
+            }
+          } );
+        }
+        display.asyncExec( new Runnable() {
+          @Override public void run() {
+            if ( generation != m_sourceGeneration || m_progressLabel.isDisposed() ) {
+              // another source has been picked since
+              return;
+            }
+            m_streamStats = streamStats;
+            showData( data, m_shownWhileSampling, true );
+          }
+        } );
       }
-      processRow( row, rowMeta );
-    } catch ( Exception e ) {
-      throw new KettleStepException( e );
-    }
+    } );
   }
 
-  public void preRows() {
-    m_k = m_wNumberOfRows.getSelection();
-    m_seed = m_wRandomSeed.getSelection();
-    m_stopAfterFirstKRows = m_wbFirstRadio.getSelection();
+  /**
+   * Visualize a sample
+   *
+   * @param data           the sample
+   * @param keepSelections true if the sample is an update of the one being
+   *                       shown, in which case the axes and coloring chosen
+   *                       by the user are kept
+   */
+  protected void showData( Instances data, boolean keepSelections ) {
+    showData( data, keepSelections, true );
   }
 
-  public void rowsDone() throws KettleException {
-    // Construct instances
-    if ( m_rowMeta != null ) {
-      Instances data = reservoirToInstances( m_rowMeta );
+  /**
+   * Visualize a sample
+   *
+   * @param data           the sample
+   * @param keepSelections true if the sample is an update of the one being
+   *                       shown, in which case the axes and coloring chosen
+   *                       by the user are kept
+   * @param update3D       false to leave the 3D plot as it is - rebuilding the
+   *                       3D scene is too slow to do for every preview while
+   *                       rows are still arriving
+   */
+  protected void showData( Instances data, boolean keepSelections, boolean update3D ) {
+    if ( data != null ) {
+      Instances previous = m_data;
       m_data = data;
 
-      setupCombo( m_wbX, data, 0, "X" );
-      setupCombo( m_wbY, data, 1, "Y" );
-      setupCombo( m_wbZ, data, 2, "Z" );
-      setupCombo( m_wbC, data, 3, "Color" );
-      m_scatterScene.setInstances( data, 0, 1, 2, 3 );
-      if ( m_3dCanvas.getScene() == null ) {
-        m_3dCanvas.setScene( m_scatterScene.getScene() );
+      if ( keepSelections && previous != null && previous.numAttributes() == data.numAttributes()
+          && m_wbX.getSelectionIndex() >= 0 ) {
+        int c = m_wbC.getSelectionIndex();
+        if ( previous.classIndex() >= 0 ) {
+          data.setClassIndex( previous.classIndex() );
+        }
+        if ( update3D ) {
+          set3DInstances( data, m_wbX.getSelectionIndex(), m_wbY.getSelectionIndex(), m_wbZ.getSelectionIndex(), c );
+        }
+      } else {
+        setupCombo( m_wbX, data, 0, "X" );
+        setupCombo( m_wbY, data, 1, "Y" );
+        setupCombo( m_wbZ, data, 2, "Z" );
+        setupCombo( m_wbC, data, 3, "Color" );
+        set3DInstances( data, 0, 1, 2, 3 );
       }
-      m_plotComposite.layout( true );
 
-      updateScatter( data, 250, 3, true, !m_isWindows );
+      if ( keepSelections ) {
+        // keep the plot size and style the user has chosen too
+        updateScatter( data, m_wScatterPlotWidth.getSelection(), m_wScatterMarkerSize.getSelection(),
+            m_lowerTriangleBut.getSelection(), m_imageBut.getSelection(), m_densityBut.getSelection() );
+      } else {
+        updateScatter( data, 250, 3, true, !m_isWindows, m_densityBut.getSelection() );
+      }
     }
   }
 
-  protected void updateScatter( Instances inst, int chartWidth, int markerSize, boolean lowerTriange, boolean image ) {
-    Thread t = new Thread() {
-      public void run() {
-        JPanel scatter = XChartMatrix.getMatrix( inst, chartWidth, markerSize, image, lowerTriange );
-        if ( m_scatterHolder.getComponentCount() > 0 ) {
-          m_scatterHolder.remove( 0 );
-        }
-        JScrollPane sp = new JScrollPane();
-        sp.setViewportView( scatter );
-        m_scatterHolder.add( sp, BorderLayout.CENTER );
-        m_scatterHolder.revalidate();
+  /**
+   * Show data in the 3D plot - as a point cloud or with the standard scatter
+   * scene, depending on the point cloud setting
+   *
+   * @param data the data
+   * @param x    the index of the attribute on the x axis
+   * @param y    the index of the attribute on the y axis
+   * @param z    the index of the attribute on the z axis
+   * @param c    the index of the attribute to color by
+   */
+  protected void set3DInstances( Instances data, int x, int y, int z, int c ) {
+    Scene scene;
+    if ( m_pointCloudBut.getSelection() ) {
+      m_pointCloud.setInstances( data, x, y, z, c );
+      scene = m_pointCloud.getScene();
+    } else {
+      m_scatterScene.setInstances( thin( data, MAX_SCENE_ROWS ), x, y, z, c );
+      if ( m_scatterSceneFX == null ) {
+        m_scatterSceneFX = m_scatterScene.getScene();
       }
-    };
-    t.setPriority( Thread.MIN_PRIORITY );
-    t.start();
+      scene = m_scatterSceneFX;
+    }
+    if ( m_3dCanvas.getScene() != scene ) {
+      m_3dCanvas.setScene( scene );
+    }
+    m_plotComposite.layout( true );
   }
 
-  public void errorRowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
-    // We don't respond to these
+  /**
+   * Set the maximum number of rows that can be sampled to suit the 3D view in
+   * use. Only the point cloud copes with more than MAX_SCENE_ROWS rows.
+   */
+  protected void updateRowLimit() {
+    m_wNumberOfRows.setMaximum( m_pointCloudBut.getSelection() ? MAX_POINT_CLOUD_ROWS : MAX_SCENE_ROWS );
+  }
+
+  /**
+   * Thin out a set of instances by taking evenly spaced rows
+   *
+   * @param data    the instances
+   * @param maxRows the maximum number of rows to keep
+   * @return the data itself if it has no more than maxRows rows, otherwise a
+   * new set of instances holding maxRows of its rows
+   */
+  protected static Instances thin( Instances data, int maxRows ) {
+    if ( data.numInstances() <= maxRows ) {
+      return data;
+    }
+    Instances thinned = new Instances( data, maxRows );
+    double stride = (double) data.numInstances() / maxRows;
+    for ( int i = 0; i < maxRows; i++ ) {
+      thinned.add( data.instance( (int) ( i * stride ) ) );
+    }
+
+    return thinned;
+  }
+
+  protected void updateScatter( final Instances inst, final int chartWidth, final int markerSize,
+      final boolean lowerTriange, final boolean image, final boolean density ) {
+    if ( m_matrixModel == null || !m_matrixModel.isFor( inst, m_streamStats ) ) {
+      m_matrixModel = new MatrixModel( inst, m_streamStats );
+    }
+    final MatrixModel model = m_matrixModel;
+    final boolean useDensity = density || inst.numInstances() > MAX_MATRIX_POINTS;
+    m_renderPipeline.submit( new RenderPipeline.RenderTask<JPanel>() {
+      @Override public JPanel build() {
+        return XChartMatrix.getMatrix( model, chartWidth, markerSize, image, lowerTriange, useDensity );
+      }
+
+      @Override public void commit( JPanel scatter ) {
+        if ( m_scatterHolder.getComponentCount() > 0 && m_scatterHolder.getComponent( 0 ) instanceof JScrollPane ) {
+          // same scroll pane, so that a restyled matrix stays where the user
+          // had scrolled to
+          JScrollPane sp = (JScrollPane) m_scatterHolder.getComponent( 0 );
+          java.awt.Point position = sp.getViewport().getViewPosition();
+          sp.setViewportView( scatter );
+          sp.getViewport().setViewPosition( position );
+        } else {
+          JScrollPane sp = new JScrollPane();
+          sp.setViewportView( scatter );
+          m_scatterHolder.add( sp, BorderLayout.CENTER );
+        }
+        m_scatterHolder.revalidate();
+      }
+    } );
   }
 
   /**
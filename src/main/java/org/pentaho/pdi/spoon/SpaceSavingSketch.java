@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy hitters sketch (Metwally et al.). Tracks approximate
+ * counts for at most a fixed number of distinct values of a stream. When a new
+ * value arrives and the sketch is full, the value with the smallest count is
+ * evicted and the newcomer inherits its count (+1). Any value with a true
+ * frequency greater than n / capacity is guaranteed to be tracked. The counter
+ * with the minimum count is kept at the root of a binary heap, so each update
+ * is O(log capacity).
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SpaceSavingSketch {
+
+  /** Maximum number of values tracked */
+  protected final int m_capacity;
+
+  /** Value to counter slot */
+  protected final Map<Object, Integer> m_slots;
+
+  /** Per slot value, count and over-estimation error */
+  protected final Object[] m_keys;
+  protected final long[] m_counts;
+  protected final long[] m_errors;
+
+  /** Min-heap of slots ordered by count, and the position of each slot in it */
+  protected final int[] m_heap;
+  protected final int[] m_heapPos;
+
+  /** Number of slots in use */
+  protected int m_size;
+
+  /** Total number of values offered */
+  protected long m_total;
+
+  /** True once a value has been evicted to make room for another */
+  protected boolean m_evicted;
+
+  /**
+   * Constructor
+   *
+   * @param capacity the maximum number of distinct values to track
+   */
+  public SpaceSavingSketch( int capacity ) {
+    m_capacity = Math.max( 1, capacity );
+    m_slots = new HashMap<Object, Integer>( m_capacity * 2 );
+    m_keys = new Object[m_capacity];
+    m_counts = new long[m_capacity];
+    m_errors = new long[m_capacity];
+    m_heap = new int[m_capacity];
+    m_heapPos = new int[m_capacity];
+  }
+
+  /**
+   * Get a copy of the sketch
+   *
+   * @return the copy
+   */
+  public SpaceSavingSketch copy() {
+    SpaceSavingSketch copy = new SpaceSavingSketch( m_capacity );
+    copy.m_slots.putAll( m_slots );
+    System.arraycopy( m_keys, 0, copy.m_keys, 0, m_size );
+    System.arraycopy( m_counts, 0, copy.m_counts, 0, m_size );
+    System.arraycopy( m_errors, 0, copy.m_errors, 0, m_size );
+    System.arraycopy( m_heap, 0, copy.m_heap, 0, m_size );
+    System.arraycopy( m_heapPos, 0, copy.m_heapPos, 0, m_size );
+    copy.m_size = m_size;
+    copy.m_total = m_total;
+    copy.m_evicted = m_evicted;
+
+    return copy;
+  }
+
+  /**
+   * Offer a value from the stream
+   *
+   * @param value the value (must not be null)
+   */
+  public void offer( Object value ) {
+    m_total++;
+    Integer slot = m_slots.get( value );
+    if ( slot != null ) {
+      m_counts[slot]++;
+      siftDown( m_heapPos[slot] );
+      return;
+    }
+
+    if ( m_size < m_capacity ) {
+      int s = m_size++;
+      m_keys[s] = value;
+      m_counts[s] = 1;
+      m_errors[s] = 0;
+      m_heap[s] = s;
+      m_heapPos[s] = s;
+      m_slots.put( value, s );
+      siftUp( s );
+      return;
+    }
+
+    // evict the value with the smallest count
+    m_evicted = true;
+    int s = m_heap[0];
+    m_slots.remove( m_keys[s] );
+    m_keys[s] = value;
+    m_errors[s] = m_counts[s];
+    m_counts[s]++;
+    m_slots.put( value, s );
+    siftDown( 0 );
+  }
+
+  /**
+   * Get the number of distinct values currently tracked
+   *
+   * @return the number of tracked values
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * Get the total number of values offered to the sketch
+   *
+   * @return the total number of values offered
+   */
+  public long getTotal() {
+    return m_total;
+  }
+
+  /**
+   * True if values have been evicted, i.e. the stream has more distinct values
+   * than are tracked. A stream with exactly as many distinct values as there
+   * are counters fills the sketch without evicting anything.
+   *
+   * @return true if a value has been evicted
+   */
+  public boolean hasEvicted() {
+    return m_evicted;
+  }
+
+  /**
+   * Get the value held in a slot
+   *
+   * @param slot the slot (0 .. size() - 1)
+   * @return the value
+   */
+  public Object getKey( int slot ) {
+    return m_keys[slot];
+  }
+
+  /**
+   * Get the (over-)estimated count for the value held in a slot
+   *
+   * @param slot the slot (0 .. size() - 1)
+   * @return the estimated count
+   */
+  public long getCount( int slot ) {
+    return m_counts[slot];
+  }
+
+  /**
+   * Get the maximum over-estimation of the count for the value in a slot
+   *
+   * @param slot the slot (0 .. size() - 1)
+   * @return the error bound
+   */
+  public long getError( int slot ) {
+    return m_errors[slot];
+  }
+
+  protected void siftUp( int pos ) {
+    int slot = m_heap[pos];
+    while ( pos > 0 ) {
+      int parent = ( pos - 1 ) >>> 1;
+      if ( m_counts[m_heap[parent]] <= m_counts[slot] ) {
+        break;
+      }
+      m_heap[pos] = m_heap[parent];
+      m_heapPos[m_heap[pos]] = pos;
+      pos = parent;
+    }
+    m_heap[pos] = slot;
+    m_heapPos[slot] = pos;
+  }
+
+  protected void siftDown( int pos ) {
+    int slot = m_heap[pos];
+    int half = m_size >>> 1;
+    while ( pos < half ) {
+      int child = 2 * pos + 1;
+      int right = child + 1;
+      if ( right < m_size && m_counts[m_heap[right]] < m_counts[m_heap[child]] ) {
+        child = right;
+      }
+      if ( m_counts[slot] <= m_counts[m_heap[child]] ) {
+        break;
+      }
+      m_heap[pos] = m_heap[child];
+      m_heapPos[m_heap[pos]] = pos;
+      pos = child;
+    }
+    m_heap[pos] = slot;
+    m_heapPos[slot] = pos;
+  }
+}
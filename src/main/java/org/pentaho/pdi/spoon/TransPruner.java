@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package org.pentaho.pdi.spoon;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+/**
+ * Derives a copy of a transformation that contains just a given step and the
+ * steps upstream of it (following both main and info hops). Downstream
+ * branches, outputs and unrelated streams are removed, so that running the
+ * copy only does the work needed to produce the rows of the step - and has
+ * no side effects beyond those of the step's ancestors.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class TransPruner {
+
+  /**
+   * Get a copy of a transformation pruned down to a step and its ancestors
+   *
+   * @param transMeta the transformation (not modified)
+   * @param stepName  the name of the step
+   * @return the pruned copy
+   * @throws KettleException if the step can't be found
+   */
+  public static TransMeta pruneToStep( TransMeta transMeta, String stepName ) throws KettleException {
+    TransMeta pruned = (TransMeta) transMeta.clone();
+    StepMeta target = pruned.findStep( stepName );
+    if ( target == null ) {
+      throw new KettleException( "Unable to find step '" + stepName + "' in the transformation" );
+    }
+
+    // the step and everything upstream of it
+    Set<StepMeta> keep = new HashSet<StepMeta>();
+    Deque<StepMeta> toVisit = new ArrayDeque<StepMeta>();
+    keep.add( target );
+    toVisit.add( target );
+    while ( !toVisit.isEmpty() ) {
+      for ( StepMeta previous : pruned.findPreviousSteps( toVisit.poll(), true ) ) {
+        if ( keep.add( previous ) ) {
+          toVisit.add( previous );
+        }
+      }
+    }
+
+    for ( int i = pruned.nrTransHops() - 1; i >= 0; i-- ) {
+      TransHopMeta hop = pruned.getTransHop( i );
+      if ( !keep.contains( hop.getFromStep() ) || !keep.contains( hop.getToStep() ) ) {
+        pruned.removeTransHop( i );
+      }
+    }
+    for ( int i = pruned.nrSteps() - 1; i >= 0; i-- ) {
+      if ( !keep.contains( pruned.getStep( i ) ) ) {
+        pruned.removeStep( i );
+      }
+    }
+
+    return pruned;
+  }
+}
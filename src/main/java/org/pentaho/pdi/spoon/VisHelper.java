@@ -22,10 +22,17 @@
 
 package org.pentaho.pdi.spoon;
 
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.MessageBox;
+import org.eclipse.swt.widgets.Shell;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
@@ -54,22 +61,121 @@ public class VisHelper extends AbstractXulEventHandler {
     return instance;
   }
 
+  /**
+   * Prepare a transformation for execution that just runs a step and the steps
+   * upstream of it. If the pruned copy can't be prepared (for example, because
+   * a kept step insists on a target step that was pruned), the user is told
+   * why and asked whether to run the whole transformation instead - which
+   * includes any outputs downstream of the step.
+   *
+   * @param transMeta the transformation
+   * @param pruned    the transformation pruned to the step and its ancestors
+   * @param stepName  the step whose rows are to be visualized
+   * @return the prepared transformation, or null if the user chose not to run
+   * the whole transformation
+   * @throws KettleException if the transformation can't be prepared
+   */
+  protected Trans prepareUpstreamOf( TransMeta transMeta, TransMeta pruned, String stepName )
+    throws KettleException {
+    try {
+      Trans trans = new Trans( pruned );
+      trans.prepareExecution( null );
+      return trans;
+    } catch ( KettleException e ) {
+      Shell shell = ( (Spoon) SpoonFactory.getInstance() ).getShell();
+      MessageBox box = new MessageBox( shell, SWT.ICON_WARNING | SWT.YES | SWT.NO );
+      box.setText( "Visualize" );
+      box.setMessage( "Unable to run just the steps upstream of " + stepName + ":\n\n" + e.getMessage()
+          + "\n\nRun the whole transformation instead? Steps downstream of " + stepName
+          + " (including any outputs) will be run too." );
+      if ( box.open() != SWT.YES ) {
+        return null;
+      }
+    }
+    Trans trans = new Trans( transMeta );
+    trans.prepareExecution( null );
+
+    return trans;
+  }
+
   protected void visualizeRows( StepMetaInterface currentStepMeta ) throws KettleException {
     Spoon spoon = ( (Spoon) SpoonFactory.getInstance() );
 
     TransGraph tg = spoon.getActiveTransGraph();
-    Trans trans = new Trans( tg.getTransMeta() );
-
-    trans.prepareExecution( null );
     String stepName = spoon.getActiveTransGraph().getCurrentStep().getName();
+    final ScatterPlot3DPluginPerspective perspective = ScatterPlot3DPluginPerspective.getSingleton();
+    if ( perspective.isSampling() ) {
+      // one at a time
+      return;
+    }
+
+    // only keep the fields that are going to be visualized
+    List<String> fields = perspective.selectFields( tg.getTransMeta().getStepFields( stepName ) );
+    if ( fields == null || fields.size() == 0 ) {
+      return;
+    }
+
+    perspective.resetIncomingFields();
+    perspective.preRows();
+    perspective.setSelectedFields( fields );
+
+    // the pruned transformation determines the rows of the step, so is what
+    // a cached sample is keyed on
+    TransMeta pruned = TransPruner.pruneToStep( tg.getTransMeta(), stepName );
+    if ( perspective.useCachedSample( pruned.getXML(), stepName ) ) {
+      return;
+    }
+
+    final Trans trans = prepareUpstreamOf( tg.getTransMeta(), pruned, stepName );
+    if ( trans == null ) {
+      return;
+    }
     System.err.println( "Preparing to execute transformation and extract rows from " + stepName );
-    StepInterface step = trans.findRunThread( stepName );
-    ScatterPlot3DPluginPerspective.getSingleton().resetIncomingFields();
-    ScatterPlot3DPluginPerspective.getSingleton().preRows();
-    step.addRowListener( ScatterPlot3DPluginPerspective.getSingleton() );
+
+    // in first k rows mode, stop the transformation as soon as enough rows
+    // have been seen. Stopping is done off the step thread that delivered the
+    // last row, rather than from within its row listener
+    perspective.setStopWhenFirstRowsCollected( new Runnable() {
+      @Override public void run() {
+        Thread stopper = new Thread( "Visualize: stopping " + trans.getTransMeta().getName() ) {
+          @Override public void run() {
+            trans.stopAll();
+          }
+        };
+        stopper.setDaemon( true );
+        stopper.start();
+      }
+    } );
+
+    // sample from every copy of the step (multiple copies, partitioning), each
+    // into its own collector. These get merged in rowsDone()
+    for ( StepInterface step : trans.findStepInterfaces( stepName ) ) {
+      step.addRowListener( perspective.createCollector( step.getCopy() ) );
+    }
     trans.startThreads();
-    trans.waitUntilFinished();
-    ScatterPlot3DPluginPerspective.getSingleton().rowsDone();
+
+    // wait for the transformation in the background so that Spoon stays
+    // responsive. Cancelling stops the transformation, and whatever has been
+    // sampled up to that point gets plotted
+    perspective.startProgress( new Runnable() {
+      @Override public void run() {
+        trans.stopAll();
+      }
+    } );
+    final Display display = spoon.getDisplay();
+    Thread waiter = new Thread( "Visualize: sampling " + stepName ) {
+      @Override public void run() {
+        trans.waitUntilFinished();
+        display.asyncExec( new Runnable() {
+          @Override public void run() {
+            perspective.stopProgress();
+            perspective.rowsDone( trans.getErrors() == 0 );
+          }
+        } );
+      }
+    };
+    waiter.setDaemon( true );
+    waiter.start();
   }
 
   public void visualize() {
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+/**
+ * Splits the rows of a data set by the values of a nominal class attribute
+ * without copying any of the data. The row indexes are sorted by class (with
+ * a stable counting sort, so rows keep their original order within a class)
+ * into a single permutation, and the rows of each class are a contiguous range
+ * of it. The values of an attribute for one class are gathered from the
+ * shared primitive column of the attribute only when they are needed. Rows
+ * with a missing class value are left out.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class ClassPartition {
+
+  /** Index of the class attribute */
+  protected final int m_classIndex;
+
+  /** Row indexes, grouped by class */
+  protected final int[] m_order;
+
+  /** Rows of class k are m_order[m_offsets[k]] .. m_order[m_offsets[k + 1] - 1] */
+  protected final int[] m_offsets;
+
+  /**
+   * Constructor
+   *
+   * @param classColumn the value of the class for each row (NaN for missing)
+   * @param classIndex the index of the class attribute
+   * @param numClasses the number of values of the class attribute
+   */
+  public ClassPartition(double[] classColumn, int classIndex, int numClasses) {
+    m_classIndex = classIndex;
+    m_offsets = new int[numClasses + 1];
+
+    // count each class, then turn the counts into start offsets
+    for (double c : classColumn) {
+      if (!Double.isNaN(c)) {
+        m_offsets[(int) c + 1]++;
+      }
+    }
+    for (int k = 0; k < numClasses; k++) {
+      m_offsets[k + 1] += m_offsets[k];
+    }
+
+    m_order = new int[m_offsets[numClasses]];
+    int[] next = new int[numClasses];
+    System.arraycopy(m_offsets, 0, next, 0, numClasses);
+    for (int i = 0; i < classColumn.length; i++) {
+      double c = classColumn[i];
+      if (!Double.isNaN(c)) {
+        m_order[next[(int) c]++] = i;
+      }
+    }
+  }
+
+  /**
+   * @return the index of the class attribute
+   */
+  public int classIndex() {
+    return m_classIndex;
+  }
+
+  /**
+   * @return the number of classes
+   */
+  public int numClasses() {
+    return m_offsets.length - 1;
+  }
+
+  /**
+   * Get the number of rows of a class
+   *
+   * @param k the index of the class value
+   * @return the number of rows
+   */
+  public int size(int k) {
+    return m_offsets[k + 1] - m_offsets[k];
+  }
+
+  /**
+   * Get the rows of all classes, grouped by class. The rows of class k start
+   * at start(k) and end before end(k).
+   *
+   * @return the row indexes (not to be modified)
+   */
+  public int[] order() {
+    return m_order;
+  }
+
+  /**
+   * @param k the index of the class value
+   * @return the position in order() of the first row of class k
+   */
+  public int start(int k) {
+    return m_offsets[k];
+  }
+
+  /**
+   * @param k the index of the class value
+   * @return the position in order() after the last row of class k
+   */
+  public int end(int k) {
+    return m_offsets[k + 1];
+  }
+
+  /**
+   * Gather the values of an attribute for the rows of one class
+   *
+   * @param column the values of the attribute for all rows
+   * @param k the index of the class value
+   * @return the values for the rows of class k
+   */
+  public double[] slice(double[] column, int k) {
+    double[] values = new double[size(k)];
+    int start = m_offsets[k];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = column[m_order[start + i]];
+    }
+
+    return values;
+  }
+}
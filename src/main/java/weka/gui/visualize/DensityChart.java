@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.knowm.xchart.XYChart;
+
+/**
+ * An XYChart that draws a DensityGrid in its plot area rather than one marker
+ * per point. Axes, ticks and titles are handled by XChart as usual; the
+ * shaded grid is drawn over the (empty) plot content afterwards.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class DensityChart extends XYChart {
+
+  /** The shaded grid, one pixel per bin */
+  protected BufferedImage m_density;
+
+  /**
+   * Constructor
+   *
+   * @param width the width of the chart
+   * @param height the height of the chart
+   */
+  public DensityChart(int width, int height) {
+    super(width, height);
+  }
+
+  /**
+   * Set the shaded grid to draw
+   *
+   * @param density the shaded grid, one pixel per bin
+   */
+  public void setDensity(BufferedImage density) {
+    m_density = density;
+  }
+
+  @Override
+  public void paint(Graphics2D g, int width, int height) {
+    super.paint(g, width, height);
+    if (m_density == null) {
+      return;
+    }
+
+    // XChart centers the plot content within the plot bounds
+    Rectangle2D bounds = plot.getBounds();
+    double contentSize = getStyler().getPlotContentSize();
+    double w = bounds.getWidth() * contentSize;
+    double h = bounds.getHeight() * contentSize;
+    double x = bounds.getX() + (bounds.getWidth() - w) / 2.0;
+    double y = bounds.getY() + (bounds.getHeight() - h) / 2.0;
+
+    Object hint = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+      RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    g.drawImage(m_density, (int) Math.round(x), (int) Math.round(y),
+      (int) Math.round(w), (int) Math.round(h), null);
+    if (hint != null) {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, hint);
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * A 2D histogram of x/y pairs, optionally split by color class. Points are
+ * binned into a fixed size square grid in a single pass, and the grid is then
+ * shaded according to the (log scaled) number of points in each bin, with the
+ * color of a bin being the mix of the class colors of its points. The cost of
+ * drawing the result depends only on the size of the grid, not on the number
+ * of points.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class DensityGrid {
+
+  /** Default number of bins along each axis */
+  public static final int DEFAULT_GRID_SIZE = 64;
+
+  /** Opacity of a bin holding a single point */
+  protected static final double MIN_ALPHA = 0.15;
+
+  protected final int m_size;
+  protected final double m_xmin;
+  protected final double m_xmax;
+  protected final double m_ymin;
+  protected final double m_ymax;
+
+  /** Counts per class, indexed by gy * size + gx */
+  protected final int[][] m_counts;
+
+  /**
+   * Constructor
+   *
+   * @param size the number of bins along each axis
+   * @param xmin the minimum of the x range
+   * @param xmax the maximum of the x range
+   * @param ymin the minimum of the y range
+   * @param ymax the maximum of the y range
+   * @param numClasses the number of color classes (1 if not coloring)
+   */
+  public DensityGrid(int size, double xmin, double xmax, double ymin,
+    double ymax, int numClasses) {
+    m_size = size;
+    m_xmin = xmin;
+    m_xmax = xmax;
+    m_ymin = ymin;
+    m_ymax = ymax;
+    m_counts = new int[Math.max(1, numClasses)][size * size];
+  }
+
+  protected int bin(double v, double min, double max) {
+    if (!(max > min)) {
+      return 0;
+    }
+    if (v < min) {
+      return -1;
+    }
+    int b = (int) ((v - min) / (max - min) * m_size);
+    if (b == m_size && v <= max) {
+      b = m_size - 1; // v == max
+    }
+
+    return b;
+  }
+
+  /**
+   * Add a point. Points with missing coordinates or class, or that fall outside
+   * of the range of the grid, are ignored.
+   *
+   * @param x the x value
+   * @param y the y value
+   * @param cls the class of the point (0 if not coloring)
+   */
+  public void add(double x, double y, int cls) {
+    if (Double.isNaN(x) || Double.isNaN(y) || cls < 0) {
+      return;
+    }
+    int gx = bin(x, m_xmin, m_xmax);
+    int gy = bin(y, m_ymin, m_ymax);
+    if (gx < 0 || gx >= m_size || gy < 0 || gy >= m_size) {
+      return;
+    }
+    m_counts[cls][gy * m_size + gx]++;
+  }
+
+  /**
+   * Add all the points from a pair of columns
+   *
+   * @param xs the x values (NaN for missing)
+   * @param ys the y values (NaN for missing)
+   * @param classes the class values (NaN for missing), or null if not coloring
+   */
+  public void addAll(double[] xs, double[] ys, double[] classes) {
+    for (int i = 0; i < xs.length; i++) {
+      if (classes == null) {
+        add(xs[i], ys[i], 0);
+      } else if (!Double.isNaN(classes[i])) {
+        add(xs[i], ys[i], (int) classes[i]);
+      }
+    }
+  }
+
+  /**
+   * Get the number of bins along each axis
+   *
+   * @return the size of the grid
+   */
+  public int getSize() {
+    return m_size;
+  }
+
+  /**
+   * Get the number of points of a class in a bin
+   *
+   * @param cls the class
+   * @param gx the x bin
+   * @param gy the y bin
+   * @return the count
+   */
+  public int getCount(int cls, int gx, int gy) {
+    return m_counts[cls][gy * m_size + gx];
+  }
+
+  /**
+   * Shade the grid. The result is in row major order with the first row being
+   * the top of the plot (i.e. the largest y bin), as expected by images.
+   *
+   * @param classColors the RGB color of each class
+   * @return ARGB pixels, one per bin
+   */
+  public int[] toARGB(int[] classColors) {
+    int cells = m_size * m_size;
+    int[] totals = new int[cells];
+    int maxTotal = 0;
+    for (int[] counts : m_counts) {
+      for (int i = 0; i < cells; i++) {
+        totals[i] += counts[i];
+      }
+    }
+    for (int t : totals) {
+      maxTotal = Math.max(maxTotal, t);
+    }
+
+    int[] pixels = new int[cells];
+    if (maxTotal == 0) {
+      return pixels;
+    }
+    double logMax = Math.log1p(maxTotal);
+    for (int gy = 0; gy < m_size; gy++) {
+      int row = (m_size - 1 - gy) * m_size;
+      for (int gx = 0; gx < m_size; gx++) {
+        int i = gy * m_size + gx;
+        int total = totals[i];
+        if (total == 0) {
+          continue;
+        }
+        double r = 0, g = 0, b = 0;
+        for (int c = 0; c < m_counts.length; c++) {
+          int n = m_counts[c][i];
+          if (n > 0) {
+            int rgb = classColors[c % classColors.length];
+            r += n * ((rgb >> 16) & 0xff);
+            g += n * ((rgb >> 8) & 0xff);
+            b += n * (rgb & 0xff);
+          }
+        }
+        double alpha =
+          MIN_ALPHA + (1.0 - MIN_ALPHA) * Math.log1p(total) / logMax;
+        pixels[row + gx] =
+          ((int) (alpha * 255) << 24) | ((int) (r / total) << 16)
+            | ((int) (g / total) << 8) | (int) (b / total);
+      }
+    }
+
+    return pixels;
+  }
+
+  /**
+   * Shade the grid into an image with one pixel per bin
+   *
+   * @param classColors the color of each class
+   * @return the image
+   */
+  public BufferedImage toImage(Color[] classColors) {
+    int[] rgb = new int[classColors.length];
+    for (int i = 0; i < rgb.length; i++) {
+      rgb[i] = classColors[i].getRGB() & 0xffffff;
+    }
+    BufferedImage img =
+      new BufferedImage(m_size, m_size, BufferedImage.TYPE_INT_ARGB);
+    img.setRGB(0, 0, m_size, m_size, toARGB(rgb), 0, m_size);
+
+    return img;
+  }
+}
@@ -26,27 +26,31 @@ import javafx.application.Platform;
 import javafx.embed.swing.JFXPanel;
 import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.chart.BarChart;
 import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.ScatterChart;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Region;
-import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import weka.core.Attribute;
-import weka.core.Instance;
 import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.Discretize;
+import weka.core.Utils;
 
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -58,42 +62,131 @@ public class FXChartMatrix {
   protected final GridPane m_root = new GridPane();
   protected Scene m_scene;
   protected Instances m_data;
-  protected Instances m_dataBinned;
-  protected List<XYChart.Series<Number, Number>> m_scatterSeries =
-    new ArrayList<XYChart.Series<Number, Number>>();
-  protected List<Instances> m_originalPerC;
-  protected List<Instances> m_binnedPerC;
+  protected List<CanvasScatterChart> m_scatterCharts =
+    new ArrayList<CanvasScatterChart>();
+
+  /** Rows split by class (null if there is no nominal class) */
+  protected ClassPartition m_partition;
+
+  /** Values of each attribute, extracted on first use */
+  protected double[][] m_columns;
+
+  /** ARGB color of the point for each row */
+  protected int[] m_rowColors;
+
+  /**
+   * Histogram of each attribute - counts indexed by class and then bin (or
+   * nominal value), and a label for each bin
+   */
+  protected double[][][] m_histCounts;
+  protected String[][] m_histLabels;
+
+  /** True to draw scatter cells as binned density plots */
+  protected boolean m_densityMode;
+
+  /** Default JavaFX chart series colors (CHART_COLOR_1..8 in modena.css) */
+  protected static final int[] FX_SERIES_COLORS = { 0xf3622d, 0xfba71b,
+    0x57b757, 0x41a9c9, 0x4258c9, 0x9a42c8, 0xc84164, 0x888888 };
+
+  /**
+   * Set whether scatter cells should be drawn as binned density plots rather
+   * than individual points. Needs to be set before the charts are built.
+   *
+   * @param density true for density plots
+   */
+  public void setDensityMode(boolean density) {
+    m_densityMode = density;
+  }
 
   public void setInstances(Instances instances) {
     // TODO clear root
 
     m_data = instances;
     int classIndex = m_data.classIndex();
-    m_originalPerC =
-      classIndex >= 0 && m_data.classAttribute().isNominal() ? getPerClassData(m_data)
+    m_columns = new double[m_data.numAttributes()][];
+    m_partition =
+      classIndex >= 0 && m_data.classAttribute().isNominal() ? new ClassPartition(
+        column(classIndex), classIndex, m_data.classAttribute().numValues())
         : null;
+    m_rowColors = new int[m_data.numInstances()];
+    if (m_partition != null) {
+      int[] classColors = classColors();
+      int[] order = m_partition.order();
+      for (int k = 0; k < m_partition.numClasses(); k++) {
+        for (int i = m_partition.start(k); i < m_partition.end(k); i++) {
+          m_rowColors[order[i]] = 0xff000000 | classColors[k];
+        }
+      }
+    } else {
+      Arrays.fill(m_rowColors, 0xff000000 | FX_SERIES_COLORS[0]);
+    }
 
     int numBins =
       Math.min((int) (Math.log(instances.numInstances()) / Math.log(2.0)), 10);
-    Discretize discretize = new Discretize();
-    discretize.setBins(numBins);
-    discretize.setBinRangePrecision(2);
-    discretize.setIgnoreClass(true);
-    try {
-      discretize.setInputFormat(instances);
-      m_dataBinned = Filter.useFilter(m_data, discretize);
-      m_binnedPerC =
-        classIndex >= 0 && m_data.classAttribute().isNominal() ? getPerClassData(m_dataBinned)
-          : null;
-    } catch (Exception e) {
-      e.printStackTrace();
+    computeHistograms(Math.max(1, numBins));
+  }
+
+  /**
+   * Count the values of every attribute into equal width bins (numeric
+   * attributes) or by value (nominal attributes), per class. Each attribute
+   * costs one pass over its column, regardless of the number of bins or
+   * classes.
+   *
+   * @param numBins the number of bins for numeric attributes
+   */
+  protected void computeHistograms(int numBins) {
+    int numClasses = m_partition != null ? m_partition.numClasses() : 1;
+    double[] classes =
+      m_partition != null ? column(m_partition.classIndex()) : null;
+    m_histCounts = new double[m_data.numAttributes()][][];
+    m_histLabels = new String[m_data.numAttributes()][];
+
+    for (int a = 0; a < m_data.numAttributes(); a++) {
+      Attribute att = m_data.attribute(a);
+      if (att.isNominal()) {
+        m_histCounts[a] =
+          HistogramBinner.valueCounts(column(a), classes, numClasses,
+            att.numValues());
+        m_histLabels[a] = new String[att.numValues()];
+        for (int i = 0; i < att.numValues(); i++) {
+          m_histLabels[a][i] = att.value(i);
+        }
+      } else if (att.isNumeric()) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double v : column(a)) {
+          if (!Double.isNaN(v)) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+          }
+        }
+        if (Double.isInfinite(min)) {
+          // all missing
+          min = max = 0;
+        }
+        // a constant attribute gets a single bin
+        int bins = max > min ? numBins : 1;
+        double width = max > min ? (max - min) / bins : 1;
+        m_histCounts[a] =
+          HistogramBinner.binCounts(column(a), classes, numClasses, bins, min,
+            min + width * bins);
+        m_histLabels[a] = new String[bins];
+        for (int i = 0; i < bins; i++) {
+          double upper = i == bins - 1 ? max : min + width * (i + 1);
+          m_histLabels[a][i] =
+            "[" + Utils.doubleToString(min + width * i, 2) + "-"
+              + Utils.doubleToString(upper, 2) + "]";
+        }
+      } else {
+        m_histCounts[a] = new double[numClasses][0];
+        m_histLabels[a] = new String[0];
+      }
     }
   }
 
   protected void buildChart(int x, int y, int chartWidth) {
     Attribute xx = m_data.attribute(x);
     Attribute yy = m_data.attribute(y);
-    int classIndex = m_data.classIndex();
 
     if (x == y) {
       // bar/histogram
@@ -109,30 +202,19 @@ public class FXChartMatrix {
         yAxis.setLabel(yy.name());
       }
 
-      Instances full = xx.isNominal() ? m_data : m_dataBinned;
-      List<Instances> pC = xx.isNominal() ? m_originalPerC : m_binnedPerC;
-      if (classIndex >= 0 && m_data.classAttribute().isNominal()) {
-        for (int k = 0; k < pC.size(); k++) {
-          Instances instForC = pC.get(k);
-          if (instForC.numInstances() > 0) {
-            XYChart.Series<String, Number> aSeries = new XYChart.Series<>();
-            aSeries.setName(m_data.classAttribute().value(k));
-            for (int i = 0; i < instForC.attribute(x).numValues(); i++) {
-              String cat = full.attribute(x).value(i);
-              int catCount = instForC.attributeStats(x).nominalCounts[i];
-              aSeries.getData().add(
-                new XYChart.Data<String, Number>(cat, catCount));
-            }
-            barChart.getData().add(aSeries);
-          }
+      double[][] counts = m_histCounts[x];
+      String[] labels = m_histLabels[x];
+      for (int k = 0; k < counts.length; k++) {
+        if (m_partition != null && m_partition.size(k) == 0) {
+          continue;
         }
-      } else {
         XYChart.Series<String, Number> aSeries = new XYChart.Series<>();
-        for (int i = 0; i < full.attribute(x).numValues(); i++) {
-          String cat = full.attribute(x).value(i);
-          int catCount = full.attributeStats(x).nominalCounts[i];
+        if (m_partition != null) {
+          aSeries.setName(m_data.classAttribute().value(k));
+        }
+        for (int i = 0; i < labels.length; i++) {
           aSeries.getData().add(
-            new XYChart.Data<String, Number>(cat, catCount));
+            new XYChart.Data<String, Number>(labels[i], counts[k][i]));
         }
         barChart.getData().add(aSeries);
       }
@@ -153,44 +235,20 @@ public class FXChartMatrix {
 
       // yAxis.setTickLabelsVisible(false);
 
-      final ScatterChart<Number, Number> sc =
-        new ScatterChart<Number, Number>(xAxis, yAxis);
-
-      if (classIndex >= 0 && m_data.classAttribute().isNominal()) {
-        // series per class label
-        for (int k = 0; k < m_originalPerC.size(); k++) {
-          Instances instForC = m_originalPerC.get(k);
-          if (instForC.numInstances() > 0) {
-            XYChart.Series<Number, Number> aSeries =
-              new XYChart.Series<Number, Number>();
-            for (int i = 0; i < instForC.numInstances(); i++) {
-              if (!instForC.instance(i).isMissing(x)
-                && !instForC.instance(i).isMissing(y)) {
-                aSeries.getData().add(
-                  new XYChart.Data<Number, Number>(instForC.instance(i)
-                    .value(x), instForC.instance(i).value(y)));
-              }
-            }
-            aSeries.setName(m_data.classAttribute().value(k));
-            sc.getData().add(aSeries);
-            m_scatterSeries.add(aSeries);
-          }
-        }
+      final ScatterChart<Number, Number> sc;
+      if (m_densityMode) {
+        sc = buildDensityChart(x, y, xAxis, yAxis);
       } else {
-        XYChart.Series<Number, Number> aSeries =
-          new XYChart.Series<Number, Number>();
-        aSeries.setName(m_data.relationName());
-        for (int i = 0; i < m_data.numInstances(); i++) {
-          Instance current = m_data.instance(i);
-          if (!current.isMissing(x) && !current.isMissing(y)) {
-            aSeries.getData().add(
-              new XYChart.Data<Number, Number>(current.value(x), current
-                .value(y)));
-          }
-        }
-
-        sc.getData().add(aSeries);
-        m_scatterSeries.add(aSeries);
+        // points are drawn straight onto a canvas in row order, one class
+        // after another, so later classes end up on top as they would with a
+        // series per class
+        CanvasScatterChart canvasChart =
+          new CanvasScatterChart(xAxis, yAxis, column(x), column(y),
+            m_partition != null ? m_partition.order() : null, m_rowColors);
+        setRange(xAxis, xx, column(x));
+        setRange(yAxis, yy, column(y));
+        m_scatterCharts.add(canvasChart);
+        sc = canvasChart;
       }
       sc.setLegendVisible(false);
 
@@ -203,6 +261,271 @@ public class FXChartMatrix {
     }
   }
 
+  /**
+   * Bin the points of a scatter cell into a density grid and wrap the shaded
+   * grid in a chart
+   *
+   * @param x the index of the attribute on the x axis
+   * @param y the index of the attribute on the y axis
+   * @param xAxis the x axis
+   * @param yAxis the y axis
+   * @return the chart
+   */
+  protected ScatterChart<Number, Number> buildDensityChart(int x, int y,
+    NumberAxis xAxis, NumberAxis yAxis) {
+    double[] xs = column(x);
+    double[] ys = column(y);
+    double[] xRange = setRange(xAxis, m_data.attribute(x), xs);
+    double[] yRange = setRange(yAxis, m_data.attribute(y), ys);
+
+    double[] classes = null;
+    int[] classColors = FX_SERIES_COLORS;
+    if (m_partition != null) {
+      classes = column(m_partition.classIndex());
+      classColors = classColors();
+    }
+
+    int size = DensityGrid.DEFAULT_GRID_SIZE;
+    DensityGrid grid =
+      new DensityGrid(size, xRange[0], xRange[1], yRange[0], yRange[1],
+        classColors.length);
+    grid.addAll(xs, ys, classes);
+    WritableImage image = new WritableImage(size, size);
+    image.getPixelWriter().setPixels(0, 0, size, size,
+      PixelFormat.getIntArgbInstance(), grid.toARGB(classColors), 0, size);
+
+    return new DensityScatterChart(xAxis, yAxis, image);
+  }
+
+  /**
+   * Get the values of an attribute, extracting them from the data on first use
+   *
+   * @param index the index of the attribute
+   * @return the values (NaN for missing)
+   */
+  protected double[] column(int index) {
+    if (m_columns[index] == null) {
+      m_columns[index] = m_data.attributeToDoubleArray(index);
+    }
+    return m_columns[index];
+  }
+
+  /**
+   * Get the RGB color of each class. Only non-empty classes use up a color, in
+   * the same way that charts only get a series for non-empty classes.
+   *
+   * @return the colors
+   */
+  protected int[] classColors() {
+    int[] classColors = new int[m_partition.numClasses()];
+    int s = 0;
+    for (int k = 0; k < m_partition.numClasses(); k++) {
+      classColors[k] = FX_SERIES_COLORS[s % FX_SERIES_COLORS.length];
+      if (m_partition.size(k) > 0) {
+        s++;
+      }
+    }
+    return classColors;
+  }
+
+  /**
+   * Fix the range of an axis to the range of the values of an attribute
+   *
+   * @param axis the axis
+   * @param att the attribute
+   * @param values the values of the attribute (NaN for missing)
+   * @return the range
+   */
+  protected static double[] setRange(NumberAxis axis, Attribute att,
+    double[] values) {
+    double min = 0;
+    double max = att.isNominal() ? att.numValues() - 1 : 0;
+    if (att.isNumeric()) {
+      min = Double.POSITIVE_INFINITY;
+      max = Double.NEGATIVE_INFINITY;
+      for (double v : values) {
+        if (!Double.isNaN(v)) {
+          min = Math.min(min, v);
+          max = Math.max(max, v);
+        }
+      }
+    }
+    if (!(max > min)) {
+      // constant (or all missing)
+      min = Double.isInfinite(min) ? 0 : min - 0.5;
+      max = min + 1;
+    }
+    axis.setAutoRanging(false);
+    axis.setLowerBound(min);
+    axis.setUpperBound(max);
+    axis.setTickUnit((max - min) / 5.0);
+
+    return new double[] { min, max };
+  }
+
+  /**
+   * A scatter chart without any data that draws a shaded density grid in its
+   * plot area instead. The cost of laying out and drawing the chart depends
+   * only on the size of the grid.
+   */
+  protected static class DensityScatterChart extends
+    ScatterChart<Number, Number> {
+
+    protected final ImageView m_view;
+
+    public DensityScatterChart(NumberAxis xAxis, NumberAxis yAxis,
+      Image density) {
+      super(xAxis, yAxis);
+      m_view = new ImageView(density);
+      m_view.setSmooth(false);
+      m_view.setPreserveRatio(false);
+      getPlotChildren().add(m_view);
+    }
+
+    @Override
+    protected void layoutPlotChildren() {
+      super.layoutPlotChildren();
+      NumberAxis xAxis = (NumberAxis) getXAxis();
+      NumberAxis yAxis = (NumberAxis) getYAxis();
+      double x0 = xAxis.getDisplayPosition(xAxis.getLowerBound());
+      double x1 = xAxis.getDisplayPosition(xAxis.getUpperBound());
+      double y0 = yAxis.getDisplayPosition(yAxis.getUpperBound());
+      double y1 = yAxis.getDisplayPosition(yAxis.getLowerBound());
+      m_view.setX(Math.min(x0, x1));
+      m_view.setY(Math.min(y0, y1));
+      m_view.setFitWidth(Math.abs(x1 - x0));
+      m_view.setFitHeight(Math.abs(y1 - y0));
+    }
+  }
+
+  /**
+   * A scatter chart without any data nodes that draws its points straight
+   * onto a canvas in its plot area instead. Points are written into a pixel
+   * buffer, so the chart adds a single node to the scene graph however many
+   * points it has. The canvas is redrawn only when the size of the plot area
+   * or the point size changes.
+   */
+  protected static class CanvasScatterChart extends
+    ScatterChart<Number, Number> {
+
+    /** Default point size (about the size of the default chart symbol) */
+    public static final int DEFAULT_POINT_SIZE = 5;
+
+    protected final Canvas m_canvas = new Canvas();
+    protected final double[] m_xs;
+    protected final double[] m_ys;
+    protected final int[] m_order;
+    protected final int[] m_colors;
+    protected int m_pointSize = DEFAULT_POINT_SIZE;
+    protected boolean m_dirty = true;
+
+    /**
+     * Constructor
+     *
+     * @param xAxis the x axis
+     * @param yAxis the y axis
+     * @param xs the x value of each row (NaN for missing)
+     * @param ys the y value of each row (NaN for missing)
+     * @param order the rows to draw, in drawing order (null for all rows in
+     *          order)
+     * @param colors the ARGB color of each row
+     */
+    public CanvasScatterChart(NumberAxis xAxis, NumberAxis yAxis, double[] xs,
+      double[] ys, int[] order, int[] colors) {
+      super(xAxis, yAxis);
+      m_xs = xs;
+      m_ys = ys;
+      m_order = order;
+      m_colors = colors;
+      getPlotChildren().add(m_canvas);
+    }
+
+    /**
+     * Set the size of the points
+     *
+     * @param pointSize the size (in pixels)
+     */
+    public void setPointSize(int pointSize) {
+      m_pointSize = Math.max(1, pointSize);
+      m_dirty = true;
+      requestChartLayout();
+    }
+
+    @Override
+    protected void layoutPlotChildren() {
+      super.layoutPlotChildren();
+      NumberAxis xAxis = (NumberAxis) getXAxis();
+      NumberAxis yAxis = (NumberAxis) getYAxis();
+      double x0 = xAxis.getDisplayPosition(xAxis.getLowerBound());
+      double x1 = xAxis.getDisplayPosition(xAxis.getUpperBound());
+      double y0 = yAxis.getDisplayPosition(yAxis.getUpperBound());
+      double y1 = yAxis.getDisplayPosition(yAxis.getLowerBound());
+      int width = (int) Math.ceil(Math.abs(x1 - x0));
+      int height = (int) Math.ceil(Math.abs(y1 - y0));
+      m_canvas.setLayoutX(Math.min(x0, x1));
+      m_canvas.setLayoutY(Math.min(y0, y1));
+      if (m_dirty || width != (int) m_canvas.getWidth()
+        || height != (int) m_canvas.getHeight()) {
+        m_canvas.setWidth(width);
+        m_canvas.setHeight(height);
+        draw(width, height, xAxis, yAxis);
+        m_dirty = false;
+      }
+    }
+
+    protected void draw(int width, int height, NumberAxis xAxis,
+      NumberAxis yAxis) {
+      GraphicsContext gc = m_canvas.getGraphicsContext2D();
+      gc.clearRect(0, 0, m_canvas.getWidth(), m_canvas.getHeight());
+      if (width <= 0 || height <= 0) {
+        return;
+      }
+
+      // offsets of the pixels of a round marker from its center
+      int size = m_pointSize;
+      double c = (size - 1) / 2.0;
+      double r2 = (size / 2.0) * (size / 2.0);
+      int[] dx = new int[size * size];
+      int[] dy = new int[size * size];
+      int numOffsets = 0;
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          if (size < 3 || (i - c) * (i - c) + (j - c) * (j - c) <= r2) {
+            dx[numOffsets] = i - size / 2;
+            dy[numOffsets++] = j - size / 2;
+          }
+        }
+      }
+
+      double xmin = xAxis.getLowerBound();
+      double ymax = yAxis.getUpperBound();
+      double sx = (width - 1) / (xAxis.getUpperBound() - xmin);
+      double sy = (height - 1) / (ymax - yAxis.getLowerBound());
+      int[] pixels = new int[width * height];
+      int n = m_order != null ? m_order.length : m_xs.length;
+      for (int i = 0; i < n; i++) {
+        int row = m_order != null ? m_order[i] : i;
+        double x = m_xs[row];
+        double y = m_ys[row];
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+          continue;
+        }
+        int px = (int) Math.round((x - xmin) * sx);
+        int py = (int) Math.round((ymax - y) * sy);
+        int color = m_colors[row];
+        for (int o = 0; o < numOffsets; o++) {
+          int ox = px + dx[o];
+          int oy = py + dy[o];
+          if (ox >= 0 && ox < width && oy >= 0 && oy < height) {
+            pixels[oy * width + ox] = color;
+          }
+        }
+      }
+      gc.getPixelWriter().setPixels(0, 0, width, height,
+        PixelFormat.getIntArgbInstance(), pixels, 0, width);
+    }
+  }
+
   public Scene buildScene() {
     System.out.println("buildScene()");
     ScrollPane s1 = new ScrollPane();
@@ -214,22 +537,19 @@ public class FXChartMatrix {
   }
 
   public void setScatterPointSize(int pointSize) {
-    // try to adjust point size
-    for (XYChart.Series<Number, Number> series : m_scatterSeries) {
-      for (XYChart.Data<Number, Number> data : series.getData()) {
-        StackPane stackPane = (StackPane) data.getNode();
-        stackPane.setPrefWidth(pointSize);
-        stackPane.setPrefHeight(pointSize);
-      }
+    for (CanvasScatterChart chart : m_scatterCharts) {
+      chart.setPointSize(pointSize);
     }
   }
 
   public void freeMemory() {
-    m_scatterSeries.clear();
+    // the charts keep the columns that they draw
     m_data = null;
-    m_dataBinned = null;
-    m_binnedPerC.clear();
-    m_originalPerC.clear();
+    m_histCounts = null;
+    m_histLabels = null;
+    m_partition = null;
+    m_columns = null;
+    m_rowColors = null;
   }
 
   public void adjustChartSizes(int chartWidth) {
@@ -249,22 +569,6 @@ public class FXChartMatrix {
     return null;
   }
 
-  protected static List<Instances> getPerClassData(Instances data) {
-    List<Instances> perC = new ArrayList<Instances>();
-    for (int i = 0; i < data.classAttribute().numValues(); i++) {
-      Instances c = new Instances(data, 0);
-      perC.add(c);
-    }
-
-    for (int i = 0; i < data.numInstances(); i++) {
-      if (!data.instance(i).classIsMissing()) {
-        perC.get((int) data.instance(i).classValue()).add(data.instance(i));
-      }
-    }
-
-    return perC;
-  }
-
   private static FXChartMatrix initFX(JFXPanel fxPanel, String[] args) {
     FXChartMatrix fxChartMatrix = new FXChartMatrix();
     Instances toPlot = loadInstances(args[0]);
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+/**
+ * Equal width histograms computed directly from primitive columns. The counts
+ * for all classes are filled in a single pass over the column, without boxing
+ * any values. Bins follow the same layout as XChart's Histogram: numBins bins
+ * of equal width spanning [min, max], with the maximum falling into the last
+ * bin. Unlike Histogram, missing (NaN) values are skipped rather than counted
+ * in the first bin.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class HistogramBinner {
+
+  /**
+   * Get the center of each bin
+   *
+   * @param numBins the number of bins
+   * @param min the minimum of the range
+   * @param max the maximum of the range
+   * @return the bin centers
+   */
+  public static double[] binCenters(int numBins, double min, double max) {
+    double binSize = (max - min) / numBins;
+    double[] centers = new double[numBins];
+    for (int i = 0; i < numBins; i++) {
+      centers[i] = (i * (max - min)) / numBins + min + binSize / 2;
+    }
+
+    return centers;
+  }
+
+  /**
+   * Count the values falling into each bin, per class
+   *
+   * @param values the values to bin (NaN for missing)
+   * @param classes the class of each value (NaN for missing), or null to
+   *          count all values as belonging to class 0
+   * @param numClasses the number of classes
+   * @param numBins the number of bins
+   * @param min the minimum of the range
+   * @param max the maximum of the range
+   * @return the counts, indexed by class and then bin
+   */
+  public static double[][] binCounts(double[] values, double[] classes,
+    int numClasses, int numBins, double min, double max) {
+    double[][] counts = new double[Math.max(1, numClasses)][numBins];
+    double scale = numBins / (max - min);
+    int last = numBins - 1;
+
+    for (int i = 0; i < values.length; i++) {
+      double v = values[i];
+      if (Double.isNaN(v) || v < min || v > max) {
+        continue;
+      }
+      int c = 0;
+      if (classes != null) {
+        double cv = classes[i];
+        if (Double.isNaN(cv)) {
+          continue;
+        }
+        c = (int) cv;
+      }
+      int bin = (int) ((v - min) * scale);
+      counts[c][bin > last ? last : bin]++;
+    }
+
+    return counts;
+  }
+
+  /**
+   * Count the occurrences of each value of a nominal attribute, per class
+   *
+   * @param values the values to count - indexes of nominal values (NaN for
+   *          missing)
+   * @param classes the class of each value (NaN for missing), or null to
+   *          count all values as belonging to class 0
+   * @param numClasses the number of classes
+   * @param numValues the number of values of the nominal attribute
+   * @return the counts, indexed by class and then value
+   */
+  public static double[][] valueCounts(double[] values, double[] classes,
+    int numClasses, int numValues) {
+    double[][] counts = new double[Math.max(1, numClasses)][numValues];
+
+    for (int i = 0; i < values.length; i++) {
+      double v = values[i];
+      if (Double.isNaN(v)) {
+        continue;
+      }
+      int c = 0;
+      if (classes != null) {
+        double cv = classes[i];
+        if (Double.isNaN(cv)) {
+          continue;
+        }
+        c = (int) cv;
+      }
+      counts[c][(int) v]++;
+    }
+
+    return counts;
+  }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import weka.core.Instances;
+
+/**
+ * The data behind a scatter plot matrix, kept between renders of the matrix.
+ * The primitive columns and summary statistics of the attributes are computed
+ * once, the first time they are needed, and reused by every later render of
+ * the same data. The split of the data by the coloring (class) attribute is
+ * recomputed only when the class attribute changes. Changes to styling only
+ * (cell size, marker size, lower triangle, density) recompute nothing.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class MatrixModel {
+
+  protected final Instances m_data;
+  protected final StreamingStats[] m_streamStats;
+
+  protected MatrixStats m_stats;
+
+  /** Split of the data by the class, and the class it was made for */
+  protected ClassPartition m_partition;
+  protected int m_partitionClassIndex = -2;
+
+  /**
+   * Constructor. Nothing is computed until it is needed.
+   *
+   * @param data the data
+   * @param streamStats statistics of the numeric attributes over the full
+   *          stream that the data was sampled from (indexed by attribute). May
+   *          be null.
+   */
+  public MatrixModel(Instances data, StreamingStats[] streamStats) {
+    m_data = data;
+    m_streamStats = streamStats;
+  }
+
+  /**
+   * Check whether this model can be reused to render the given data
+   *
+   * @param data the data
+   * @param streamStats the full stream statistics
+   * @return true if this model holds the given data
+   */
+  public boolean isFor(Instances data, StreamingStats[] streamStats) {
+    return data == m_data && streamStats == m_streamStats
+      && (m_stats == null || m_stats.numInstances() == data.numInstances());
+  }
+
+  /**
+   * @return the data
+   */
+  public Instances getData() {
+    return m_data;
+  }
+
+  /**
+   * Get the columns and summary statistics, computing them on first use
+   *
+   * @return the statistics
+   */
+  public synchronized MatrixStats getStats() {
+    if (m_stats == null) {
+      m_stats = new MatrixStats(m_data, m_streamStats);
+    }
+    return m_stats;
+  }
+
+  /**
+   * Get the split of the data by the current class attribute, recomputing it
+   * only if the class attribute has changed since the last call. The split
+   * shares the columns of getStats(), so costs just an index per row.
+   *
+   * @return the partition, or null if there is no nominal class attribute
+   */
+  public synchronized ClassPartition getPartition() {
+    int classIndex =
+      m_data.classIndex() >= 0 && m_data.classAttribute().isNominal() ? m_data
+        .classIndex() : -1;
+    if (classIndex != m_partitionClassIndex) {
+      m_partition =
+        classIndex >= 0 ? new ClassPartition(getStats().column(classIndex),
+          classIndex, m_data.attribute(classIndex).numValues()) : null;
+      m_partitionClassIndex = classIndex;
+    }
+
+    return m_partition;
+  }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.util.stream.IntStream;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Summary statistics (min, max, missing count and nominal value counts) for
+ * all attributes of a set of instances, along with the values of each
+ * attribute as a primitive column. Each attribute is summarized in a single
+ * pass over the data, and attributes are processed in parallel. Unlike
+ * Instances.attributeStats(), nothing is sorted, and the results are computed
+ * once and then shared by all the cells of a scatter plot matrix.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class MatrixStats {
+
+  /** Number of instances summarized */
+  protected final int m_numInstances;
+
+  /** The values of each attribute (NaN for missing) */
+  protected final double[][] m_columns;
+
+  /** Min/max of numeric attributes (NaN if all values are missing) */
+  protected final double[] m_min;
+  protected final double[] m_max;
+
+  /** Number of missing values per attribute */
+  protected final int[] m_missing;
+
+  /** Counts per value for nominal attributes (null for other types) */
+  protected final int[][] m_nominalCounts;
+
+  /**
+   * Statistics over the full stream that the data was sampled from (null, or
+   * null entries, if not available)
+   */
+  protected final StreamingStats[] m_streamStats;
+
+  /**
+   * Constructor. Computes the statistics for all attributes.
+   *
+   * @param data the instances to summarize
+   */
+  public MatrixStats(final Instances data) {
+    this(data, null);
+  }
+
+  /**
+   * Constructor. Computes the statistics for all attributes.
+   *
+   * @param data the instances to summarize
+   * @param streamStats statistics of the numeric attributes over the full
+   *          stream that the instances were sampled from, indexed by
+   *          attribute. May be null.
+   */
+  public MatrixStats(final Instances data, StreamingStats[] streamStats) {
+    m_streamStats = streamStats;
+    int numAtts = data.numAttributes();
+    m_numInstances = data.numInstances();
+    m_columns = new double[numAtts][];
+    m_min = new double[numAtts];
+    m_max = new double[numAtts];
+    m_missing = new int[numAtts];
+    m_nominalCounts = new int[numAtts][];
+
+    IntStream.range(0, numAtts).parallel()
+      .forEach(a -> summarizeAttribute(data, a));
+  }
+
+  protected void summarizeAttribute(Instances data, int a) {
+    Attribute att = data.attribute(a);
+    double[] column = new double[m_numInstances];
+    int[] counts = att.isNominal() ? new int[att.numValues()] : null;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    int missing = 0;
+
+    for (int i = 0; i < m_numInstances; i++) {
+      double v = data.instance(i).value(a);
+      column[i] = v;
+      if (Utils.isMissingValue(v)) {
+        missing++;
+      } else {
+        if (v < min) {
+          min = v;
+        }
+        if (v > max) {
+          max = v;
+        }
+        if (counts != null) {
+          counts[(int) v]++;
+        }
+      }
+    }
+
+    m_columns[a] = column;
+    m_min[a] = missing < m_numInstances ? min : Double.NaN;
+    m_max[a] = missing < m_numInstances ? max : Double.NaN;
+    m_missing[a] = missing;
+    m_nominalCounts[a] = counts;
+  }
+
+  /**
+   * Get the number of instances summarized
+   *
+   * @return the number of instances
+   */
+  public int numInstances() {
+    return m_numInstances;
+  }
+
+  /**
+   * Get the values of an attribute
+   *
+   * @param att the index of the attribute
+   * @return the values of the attribute (NaN for missing)
+   */
+  public double[] column(int att) {
+    return m_columns[att];
+  }
+
+  /**
+   * Get the minimum (non-missing) value of an attribute
+   *
+   * @param att the index of the attribute
+   * @return the minimum value
+   */
+  public double min(int att) {
+    return m_min[att];
+  }
+
+  /**
+   * Get the maximum (non-missing) value of an attribute
+   *
+   * @param att the index of the attribute
+   * @return the maximum value
+   */
+  public double max(int att) {
+    return m_max[att];
+  }
+
+  /**
+   * Get the full stream statistics of an attribute
+   *
+   * @param att the index of the attribute
+   * @return the statistics, or null if not available
+   */
+  public StreamingStats streamingStats(int att) {
+    return m_streamStats != null && att < m_streamStats.length ? m_streamStats[att]
+      : null;
+  }
+
+  /**
+   * Get the lower bound for an axis showing a numeric attribute. This is the
+   * minimum over the full stream when available, otherwise the sample minimum.
+   *
+   * @param att the index of the attribute
+   * @return the lower bound
+   */
+  public double axisMin(int att) {
+    StreamingStats s = streamingStats(att);
+    return s != null && s.count() > 0 ? s.min() : m_min[att];
+  }
+
+  /**
+   * Get the upper bound for an axis showing a numeric attribute. This is the
+   * maximum over the full stream when available, otherwise the sample maximum.
+   *
+   * @param att the index of the attribute
+   * @return the upper bound
+   */
+  public double axisMax(int att) {
+    StreamingStats s = streamingStats(att);
+    return s != null && s.count() > 0 ? s.max() : m_max[att];
+  }
+
+  /**
+   * Get the number of missing values of an attribute
+   *
+   * @param att the index of the attribute
+   * @return the number of missing values
+   */
+  public int missingCount(int att) {
+    return m_missing[att];
+  }
+
+  /**
+   * True if every value of an attribute is missing
+   *
+   * @param att the index of the attribute
+   * @return true if all values are missing
+   */
+  public boolean allMissing(int att) {
+    return m_missing[att] == m_numInstances;
+  }
+
+  /**
+   * Get the counts for each value of a nominal attribute
+   *
+   * @param att the index of the attribute
+   * @return the counts, or null if the attribute is not nominal
+   */
+  public int[] nominalCounts(int att) {
+    return m_nominalCounts[att];
+  }
+}
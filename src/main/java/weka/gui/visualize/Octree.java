@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.util.Arrays;
+
+/**
+ * An octree over the points of a 3D plot, for finding rows by position. Built
+ * from three primitive coordinate columns; rows with a missing (NaN)
+ * coordinate are left out. The nodes are kept in flat arrays, and the rows in
+ * a single permutation in which every node covers a contiguous range, so
+ * building the tree allocates a handful of arrays rather than an object per
+ * node or point. Answers nearest point, nearest point to a ray (for picking
+ * with the mouse) and box queries, returning row indexes.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class Octree {
+
+  /** Default maximum number of points in a leaf */
+  public static final int DEFAULT_LEAF_SIZE = 32;
+
+  /** Maximum depth, so that many identical points can't split forever */
+  protected static final int MAX_DEPTH = 20;
+
+  protected final float[] m_xs;
+  protected final float[] m_ys;
+  protected final float[] m_zs;
+  protected final int m_leafSize;
+
+  /** Row indexes, grouped so that each node covers a contiguous range */
+  protected final int[] m_rows;
+
+  /** Bounds of each node - min x, y, z then max x, y, z */
+  protected float[] m_bounds;
+
+  /** Range of m_rows covered by each node */
+  protected int[] m_start;
+  protected int[] m_end;
+
+  /** Index of the first of the eight children of each node (-1 for leaves) */
+  protected int[] m_firstChild;
+
+  protected int m_numNodes;
+
+  /**
+   * Constructor using the default leaf size
+   *
+   * @param xs the x coordinate of each row (NaN for missing)
+   * @param ys the y coordinate of each row (NaN for missing)
+   * @param zs the z coordinate of each row (NaN for missing)
+   */
+  public Octree(float[] xs, float[] ys, float[] zs) {
+    this(xs, ys, zs, DEFAULT_LEAF_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param xs the x coordinate of each row (NaN for missing)
+   * @param ys the y coordinate of each row (NaN for missing)
+   * @param zs the z coordinate of each row (NaN for missing)
+   * @param leafSize the maximum number of points in a leaf
+   */
+  public Octree(float[] xs, float[] ys, float[] zs, int leafSize) {
+    m_xs = xs;
+    m_ys = ys;
+    m_zs = zs;
+    m_leafSize = Math.max(1, leafSize);
+
+    float[] bounds =
+      { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+        Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+    int[] rows = new int[xs.length];
+    int n = 0;
+    for (int i = 0; i < xs.length; i++) {
+      if (!Float.isNaN(xs[i]) && !Float.isNaN(ys[i]) && !Float.isNaN(zs[i])) {
+        rows[n++] = i;
+        bounds[0] = Math.min(bounds[0], xs[i]);
+        bounds[1] = Math.min(bounds[1], ys[i]);
+        bounds[2] = Math.min(bounds[2], zs[i]);
+        bounds[3] = Math.max(bounds[3], xs[i]);
+        bounds[4] = Math.max(bounds[4], ys[i]);
+        bounds[5] = Math.max(bounds[5], zs[i]);
+      }
+    }
+    m_rows = Arrays.copyOf(rows, n);
+
+    int capacity = Math.max(16, n / m_leafSize * 2);
+    m_bounds = new float[capacity * 6];
+    m_start = new int[capacity];
+    m_end = new int[capacity];
+    m_firstChild = new int[capacity];
+    if (n > 0) {
+      int root = addNode(bounds, 0, n);
+      split(root, 0, new int[n]);
+    }
+  }
+
+  protected int addNode(float[] bounds, int start, int end) {
+    if (m_numNodes == m_start.length) {
+      int capacity = m_numNodes * 2;
+      m_bounds = Arrays.copyOf(m_bounds, capacity * 6);
+      m_start = Arrays.copyOf(m_start, capacity);
+      m_end = Arrays.copyOf(m_end, capacity);
+      m_firstChild = Arrays.copyOf(m_firstChild, capacity);
+    }
+    int node = m_numNodes++;
+    System.arraycopy(bounds, 0, m_bounds, node * 6, 6);
+    m_start[node] = start;
+    m_end[node] = end;
+    m_firstChild[node] = -1;
+
+    return node;
+  }
+
+  protected int octant(int row, float cx, float cy, float cz) {
+    return (m_xs[row] > cx ? 1 : 0) | (m_ys[row] > cy ? 2 : 0)
+      | (m_zs[row] > cz ? 4 : 0);
+  }
+
+  /**
+   * Split a node into octants, if it holds too many points
+   *
+   * @param node the node
+   * @param depth the depth of the node
+   * @param buffer scratch space for reordering rows
+   */
+  protected void split(int node, int depth, int[] buffer) {
+    int start = m_start[node];
+    int end = m_end[node];
+    if (end - start <= m_leafSize || depth >= MAX_DEPTH) {
+      return;
+    }
+
+    int b = node * 6;
+    float cx = (m_bounds[b] + m_bounds[b + 3]) / 2;
+    float cy = (m_bounds[b + 1] + m_bounds[b + 4]) / 2;
+    float cz = (m_bounds[b + 2] + m_bounds[b + 5]) / 2;
+
+    // counting sort of the node's rows by octant
+    int[] offsets = new int[9];
+    for (int i = start; i < end; i++) {
+      offsets[octant(m_rows[i], cx, cy, cz) + 1]++;
+    }
+    for (int o = 0; o < 8; o++) {
+      offsets[o + 1] += offsets[o];
+    }
+    int[] next = Arrays.copyOf(offsets, 8);
+    for (int i = start; i < end; i++) {
+      int row = m_rows[i];
+      buffer[start + next[octant(row, cx, cy, cz)]++] = row;
+    }
+    System.arraycopy(buffer, start, m_rows, start, end - start);
+
+    // the eight children are allocated together, empty or not
+    float[] childBounds = new float[6];
+    int first = m_numNodes;
+    for (int o = 0; o < 8; o++) {
+      childBounds[0] = (o & 1) == 0 ? m_bounds[b] : cx;
+      childBounds[3] = (o & 1) == 0 ? cx : m_bounds[b + 3];
+      childBounds[1] = (o & 2) == 0 ? m_bounds[b + 1] : cy;
+      childBounds[4] = (o & 2) == 0 ? cy : m_bounds[b + 4];
+      childBounds[2] = (o & 4) == 0 ? m_bounds[b + 2] : cz;
+      childBounds[5] = (o & 4) == 0 ? cz : m_bounds[b + 5];
+      addNode(childBounds, start + offsets[o], start + offsets[o + 1]);
+    }
+    m_firstChild[node] = first;
+    for (int o = 0; o < 8; o++) {
+      split(first + o, depth + 1, buffer);
+    }
+  }
+
+  /**
+   * @return the number of points in the tree
+   */
+  public int size() {
+    return m_rows.length;
+  }
+
+  /**
+   * Get the rows whose points lie within a box
+   *
+   * @param minX the minimum x
+   * @param minY the minimum y
+   * @param minZ the minimum z
+   * @param maxX the maximum x
+   * @param maxY the maximum y
+   * @param maxZ the maximum z
+   * @return the row indexes
+   */
+  public int[] query(float minX, float minY, float minZ, float maxX,
+    float maxY, float maxZ) {
+    int[] result = new int[16];
+    int n = 0;
+    if (m_numNodes == 0) {
+      return new int[0];
+    }
+
+    int[] stack = new int[MAX_DEPTH * 8 + 1];
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      int b = node * 6;
+      if (m_bounds[b] > maxX || m_bounds[b + 3] < minX
+        || m_bounds[b + 1] > maxY || m_bounds[b + 4] < minY
+        || m_bounds[b + 2] > maxZ || m_bounds[b + 5] < minZ
+        || m_start[node] == m_end[node]) {
+        continue;
+      }
+      boolean inside =
+        m_bounds[b] >= minX && m_bounds[b + 3] <= maxX
+          && m_bounds[b + 1] >= minY && m_bounds[b + 4] <= maxY
+          && m_bounds[b + 2] >= minZ && m_bounds[b + 5] <= maxZ;
+      if (inside || m_firstChild[node] < 0) {
+        for (int i = m_start[node]; i < m_end[node]; i++) {
+          int row = m_rows[i];
+          if (inside
+            || (m_xs[row] >= minX && m_xs[row] <= maxX && m_ys[row] >= minY
+              && m_ys[row] <= maxY && m_zs[row] >= minZ && m_zs[row] <= maxZ)) {
+            if (n == result.length) {
+              result = Arrays.copyOf(result, n * 2);
+            }
+            result[n++] = row;
+          }
+        }
+      } else {
+        for (int o = 0; o < 8; o++) {
+          stack[top++] = m_firstChild[node] + o;
+        }
+      }
+    }
+
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Find the point nearest to a position
+   *
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param z the z coordinate
+   * @param maxDistance the maximum distance of the point from the position
+   * @return the row of the nearest point, or -1 if there is none within
+   *         maxDistance
+   */
+  public int nearest(float x, float y, float z, float maxDistance) {
+    int best = -1;
+    float bestDist2 = maxDistance * maxDistance;
+    if (m_numNodes == 0) {
+      return best;
+    }
+
+    int[] stack = new int[MAX_DEPTH * 8 + 1];
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (m_start[node] == m_end[node] || boxDistance2(node, x, y, z) > bestDist2) {
+        continue;
+      }
+      if (m_firstChild[node] < 0) {
+        for (int i = m_start[node]; i < m_end[node]; i++) {
+          int row = m_rows[i];
+          float dx = m_xs[row] - x;
+          float dy = m_ys[row] - y;
+          float dz = m_zs[row] - z;
+          float d2 = dx * dx + dy * dy + dz * dz;
+          if (d2 <= bestDist2) {
+            bestDist2 = d2;
+            best = row;
+          }
+        }
+      } else {
+        for (int o = 0; o < 8; o++) {
+          stack[top++] = m_firstChild[node] + o;
+        }
+      }
+    }
+
+    return best;
+  }
+
+  protected float boxDistance2(int node, float x, float y, float z) {
+    int b = node * 6;
+    float dx = Math.max(0, Math.max(m_bounds[b] - x, x - m_bounds[b + 3]));
+    float dy = Math.max(0, Math.max(m_bounds[b + 1] - y, y - m_bounds[b + 4]));
+    float dz = Math.max(0, Math.max(m_bounds[b + 2] - z, z - m_bounds[b + 5]));
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Find the point closest to the origin of a ray among those lying within
+   * a distance of the ray - i.e. the point under the mouse, for a ray cast
+   * from the camera through the mouse position.
+   *
+   * @param ox the x coordinate of the origin of the ray
+   * @param oy the y coordinate of the origin of the ray
+   * @param oz the z coordinate of the origin of the ray
+   * @param dx the x component of the direction of the ray
+   * @param dy the y component of the direction of the ray
+   * @param dz the z component of the direction of the ray
+   * @param maxDistance the maximum distance of the point from the ray
+   * @return the row of the point, or -1 if there is none within maxDistance
+   *         of the ray
+   */
+  public int nearestToRay(float ox, float oy, float oz, float dx, float dy,
+    float dz, float maxDistance) {
+    int best = -1;
+    if (m_numNodes == 0) {
+      return best;
+    }
+    float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    dx /= length;
+    dy /= length;
+    dz /= length;
+    float max2 = maxDistance * maxDistance;
+    float bestT = Float.POSITIVE_INFINITY;
+
+    int[] stack = new int[MAX_DEPTH * 8 + 1];
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (m_start[node] == m_end[node]
+        || rayEntry(node, ox, oy, oz, dx, dy, dz, maxDistance) >= bestT) {
+        continue;
+      }
+      if (m_firstChild[node] < 0) {
+        for (int i = m_start[node]; i < m_end[node]; i++) {
+          int row = m_rows[i];
+          float px = m_xs[row] - ox;
+          float py = m_ys[row] - oy;
+          float pz = m_zs[row] - oz;
+          float t = px * dx + py * dy + pz * dz;
+          if (t < 0 || t >= bestT) {
+            continue;
+          }
+          float perp2 = px * px + py * py + pz * pz - t * t;
+          if (perp2 <= max2) {
+            bestT = t;
+            best = row;
+          }
+        }
+      } else {
+        for (int o = 0; o < 8; o++) {
+          stack[top++] = m_firstChild[node] + o;
+        }
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Slab test of a ray against the bounds of a node, grown by a margin
+   *
+   * @return the distance along the ray at which it enters the bounds, or
+   *         infinity if it misses them
+   */
+  protected float rayEntry(int node, float ox, float oy, float oz, float dx,
+    float dy, float dz, float margin) {
+    int b = node * 6;
+    float tMin = 0;
+    float tMax = Float.POSITIVE_INFINITY;
+    float[] origin = { ox, oy, oz };
+    float[] dir = { dx, dy, dz };
+    for (int a = 0; a < 3; a++) {
+      float lo = m_bounds[b + a] - margin;
+      float hi = m_bounds[b + a + 3] + margin;
+      if (dir[a] == 0) {
+        if (origin[a] < lo || origin[a] > hi) {
+          return Float.POSITIVE_INFINITY;
+        }
+      } else {
+        float t1 = (lo - origin[a]) / dir[a];
+        float t2 = (hi - origin[a]) / dir[a];
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        if (tMin > tMax) {
+          return Float.POSITIVE_INFINITY;
+        }
+      }
+    }
+
+    return tMin;
+  }
+}
@@ -0,0 +1,737 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import javafx.event.EventHandler;
+import javafx.geometry.Point3D;
+import javafx.scene.AmbientLight;
+import javafx.scene.Group;
+import javafx.scene.PerspectiveCamera;
+import javafx.scene.Scene;
+import javafx.scene.SceneAntialiasing;
+import javafx.scene.SubScene;
+import javafx.scene.control.Label;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.Box;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.text.Text;
+import javafx.scene.transform.Rotate;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * A 3D scatter plot that draws its points as a point cloud. Rather than a
+ * node per point, all the points of a color are packed into one (or, for very
+ * large samples, a few) TriangleMesh, with each point drawn as a small
+ * tetrahedron. The size of the scene graph depends only on the number of
+ * colors, so rotating the plot stays smooth with hundreds of thousands of
+ * points, even with software rendering. While the plot is being dragged
+ * around, a decimated copy of the cloud is shown instead of the full one.
+ * Provides the same methods as ScatterScene3D, so can be used in its place.
+ * <p>
+ * Rows are found by position with an octree over the plotted coordinates,
+ * rebuilt whenever the axes change, rather than by hit testing the meshes.
+ * Hovering over a point shows the values of its row, double clicking zooms in
+ * on the region around a point and escape zooms back out.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class PointCloud3D {
+
+  /** Default number of points shown while the plot is being rotated */
+  public static final int DEFAULT_MAX_POINTS_WHILE_MOVING = 20000;
+
+  /** Default size of a point (the cube of the plot has sides of 400) */
+  public static final double DEFAULT_POINT_SIZE = 2.5;
+
+  /** Length of the sides of the cube that the points are scaled into */
+  protected static final double AXIS_LENGTH = 400;
+
+  /** Maximum points packed into a single mesh */
+  protected static final int MAX_POINTS_PER_MESH = 250000;
+
+  /** Number of color bands used for a numeric coloring attribute */
+  protected static final int NUM_NUMERIC_COLORS = 10;
+
+  /** Fraction of the sides of the plot covered by a zoom with the mouse */
+  protected static final double ZOOM_FRACTION = 0.25;
+
+  /** Pixels that the mouse can be away from a point and still pick it */
+  protected static final double PICK_PIXELS = 4;
+
+  /** Color of points with a missing coloring value */
+  protected static final Color MISSING_COLOR = Color.GRAY;
+
+  /** Vertices of a regular tetrahedron centered on the origin */
+  protected static final float[] TETRAHEDRON = { 1, 1, 1, 1, -1, -1, -1, 1,
+    -1, -1, -1, 1 };
+
+  /** Faces of the tetrahedron (vertex indexes) */
+  protected static final int[][] TETRAHEDRON_FACES = { { 0, 1, 2 },
+    { 0, 3, 1 }, { 0, 2, 3 }, { 1, 3, 2 } };
+
+  protected Instances m_data;
+  protected int m_x;
+  protected int m_y;
+  protected int m_z;
+  protected int m_c;
+
+  /** Values of each attribute of the data, extracted on first use */
+  protected double[][] m_columns;
+
+  /** Range of values shown on the x, y and z axes */
+  protected double[][] m_ranges = new double[3][2];
+
+  /** Index of the plotted points */
+  protected Octree m_octree;
+
+  /** The rows in the zoomed in region (null when not zoomed in) */
+  protected int[] m_viewRows;
+
+  protected int m_maxPointsWhileMoving = DEFAULT_MAX_POINTS_WHILE_MOVING;
+  protected double m_pointSize = DEFAULT_POINT_SIZE;
+
+  /** All the points, and the decimated points shown while rotating */
+  protected final Group m_points = new Group();
+  protected final Group m_coarsePoints = new Group();
+
+  protected final Group m_axes = new Group();
+  protected final Group m_world = new Group();
+  protected final Rotate m_rotateX = new Rotate(-20, Rotate.X_AXIS);
+  protected final Rotate m_rotateY = new Rotate(-30, Rotate.Y_AXIS);
+  protected final PerspectiveCamera m_camera = new PerspectiveCamera(true);
+  protected SubScene m_subScene;
+  protected final Label m_tooltip = new Label();
+  protected Scene m_scene;
+
+  /** Where a drag started, and the rotation at the time */
+  protected double m_anchorX;
+  protected double m_anchorY;
+  protected double m_anchorAngleX;
+  protected double m_anchorAngleY;
+
+  /**
+   * Set the number of points to show while the plot is being rotated. Larger
+   * samples are decimated to this many points until the mouse is released.
+   *
+   * @param maxPoints the number of points (0 to always show all points)
+   */
+  public void setMaxPointsWhileMoving(int maxPoints) {
+    m_maxPointsWhileMoving = maxPoints;
+  }
+
+  /**
+   * Set the size of the points. Takes effect the next time the points are
+   * built.
+   *
+   * @param pointSize the size, relative to plot sides of 400
+   */
+  public void setPointSize(double pointSize) {
+    m_pointSize = pointSize;
+  }
+
+  /**
+   * Set the data to plot. Should be called on the JavaFX application thread
+   * once the scene is showing.
+   *
+   * @param data the data
+   * @param x the index of the attribute on the x axis
+   * @param y the index of the attribute on the y axis
+   * @param z the index of the attribute on the z axis
+   * @param c the index of the attribute to color by (out of range for no
+   *          coloring)
+   */
+  public void setInstances(Instances data, int x, int y, int z, int c) {
+    if (data != m_data) {
+      m_data = data;
+      m_columns = new double[data.numAttributes()][];
+      m_viewRows = null;
+    }
+    updateAxes(x, y, z, c);
+  }
+
+  /**
+   * Change the attributes plotted. Zooms back out if the x, y or z attribute
+   * changes.
+   *
+   * @param x the index of the attribute on the x axis
+   * @param y the index of the attribute on the y axis
+   * @param z the index of the attribute on the z axis
+   * @param c the index of the attribute to color by (out of range for no
+   *          coloring)
+   */
+  public void updateAxes(int x, int y, int z, int c) {
+    if (x != m_x || y != m_y || z != m_z) {
+      m_viewRows = null;
+    }
+    m_x = x;
+    m_y = y;
+    m_z = z;
+    m_c = c;
+    if (m_data != null) {
+      getScene();
+      buildPoints();
+      buildAxes();
+    }
+  }
+
+  /**
+   * Get the scene holding the plot, creating it if necessary
+   *
+   * @return the scene
+   */
+  public Scene getScene() {
+    if (m_scene == null) {
+      m_world.getChildren().addAll(m_axes, m_points, m_coarsePoints);
+      m_world.getTransforms().addAll(m_rotateX, m_rotateY);
+      m_coarsePoints.setVisible(false);
+
+      m_camera.setNearClip(1);
+      m_camera.setFarClip(AXIS_LENGTH * 20);
+      m_camera.setTranslateZ(-AXIS_LENGTH * 2.5);
+
+      // flat lighting - the points are too small for shading to show
+      Group root3D = new Group(m_world, new AmbientLight(Color.WHITE));
+      m_subScene =
+        new SubScene(root3D, 800, 600, true, SceneAntialiasing.DISABLED);
+      m_subScene.setFill(Color.LIGHTGRAY);
+      m_subScene.setCamera(m_camera);
+
+      // the meshes are never hit tested - the octree is used instead
+      m_world.setMouseTransparent(true);
+
+      m_tooltip.setStyle("-fx-background-color: #ffffe1; "
+        + "-fx-border-color: gray; -fx-padding: 3;");
+      m_tooltip.setVisible(false);
+      m_tooltip.setMouseTransparent(true);
+
+      m_scene = new Scene(new Group(m_subScene, m_tooltip), 800, 600);
+      m_subScene.widthProperty().bind(m_scene.widthProperty());
+      m_subScene.heightProperty().bind(m_scene.heightProperty());
+      addMouseHandlers();
+    }
+
+    return m_scene;
+  }
+
+  protected void addMouseHandlers() {
+    m_scene.setOnMousePressed(new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent e) {
+        m_anchorX = e.getSceneX();
+        m_anchorY = e.getSceneY();
+        m_anchorAngleX = m_rotateX.getAngle();
+        m_anchorAngleY = m_rotateY.getAngle();
+        m_tooltip.setVisible(false);
+        showCoarse(true);
+      }
+    });
+    m_scene.setOnMouseDragged(new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent e) {
+        m_rotateX.setAngle(m_anchorAngleX - (e.getSceneY() - m_anchorY) / 2);
+        m_rotateY.setAngle(m_anchorAngleY + (e.getSceneX() - m_anchorX) / 2);
+      }
+    });
+    m_scene.setOnMouseReleased(new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent e) {
+        showCoarse(false);
+      }
+    });
+    m_scene.setOnMouseMoved(new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent e) {
+        showTooltip(rowAt(e.getSceneX(), e.getSceneY()), e.getSceneX(),
+          e.getSceneY());
+      }
+    });
+    m_scene.setOnMouseClicked(new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent e) {
+        if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) {
+          int row = rowAt(e.getSceneX(), e.getSceneY());
+          if (row >= 0) {
+            zoomAround(row);
+          }
+        }
+      }
+    });
+    m_scene.setOnKeyPressed(new EventHandler<KeyEvent>() {
+      @Override
+      public void handle(KeyEvent e) {
+        if (e.getCode() == KeyCode.ESCAPE && m_viewRows != null) {
+          resetZoom();
+        }
+      }
+    });
+    m_scene.setOnScroll(new EventHandler<ScrollEvent>() {
+      @Override
+      public void handle(ScrollEvent e) {
+        double z = m_camera.getTranslateZ() + e.getDeltaY();
+        m_camera.setTranslateZ(Math.max(-AXIS_LENGTH * 10,
+          Math.min(-AXIS_LENGTH * 0.6, z)));
+      }
+    });
+  }
+
+  /**
+   * Swap between the full and decimated point clouds
+   *
+   * @param coarse true to show the decimated cloud
+   */
+  protected void showCoarse(boolean coarse) {
+    // there is only a decimated cloud if there are enough points to need one
+    boolean hasCoarse = !m_coarsePoints.getChildren().isEmpty();
+    m_coarsePoints.setVisible(coarse && hasCoarse);
+    m_points.setVisible(!coarse || !hasCoarse);
+  }
+
+  protected double[] column(int index) {
+    if (m_columns[index] == null) {
+      m_columns[index] = m_data.attributeToDoubleArray(index);
+    }
+    return m_columns[index];
+  }
+
+  /**
+   * Scale the values of an attribute into the cube of the plot. When zoomed
+   * in, only the rows in the zoomed region are scaled (to fill the plot), and
+   * the rest are left out.
+   *
+   * @param values the values (NaN for missing)
+   * @param axis the axis (0 = x, 1 = y, 2 = z)
+   * @return the coordinates (NaN for rows that aren't plotted)
+   */
+  protected float[] scale(double[] values, int axis) {
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    int n = m_viewRows != null ? m_viewRows.length : values.length;
+    for (int i = 0; i < n; i++) {
+      double v = values[m_viewRows != null ? m_viewRows[i] : i];
+      if (!Double.isNaN(v)) {
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+      }
+    }
+    m_ranges[axis][0] = min;
+    m_ranges[axis][1] = max;
+
+    float[] coords = new float[values.length];
+    if (m_viewRows != null) {
+      Arrays.fill(coords, Float.NaN);
+    }
+    for (int i = 0; i < n; i++) {
+      int row = m_viewRows != null ? m_viewRows[i] : i;
+      coords[row] = (float) toPlot(axis, values[row]);
+    }
+
+    return coords;
+  }
+
+  /**
+   * Convert a value of the attribute on an axis to a plot coordinate
+   *
+   * @param axis the axis (0 = x, 1 = y, 2 = z)
+   * @param v the value
+   * @return the coordinate
+   */
+  protected double toPlot(int axis, double v) {
+    double min = m_ranges[axis][0];
+    double max = m_ranges[axis][1];
+    double factor = max > min ? AXIS_LENGTH / (max - min) : 0;
+    double c = (v - min) * factor - AXIS_LENGTH / 2;
+
+    // JavaFX y points down
+    return axis == 1 ? -c : c;
+  }
+
+  /**
+   * Work out the color group of each row, and the color of each group
+   *
+   * @param colors filled in with the color of each group
+   * @return the group of each row (NaN for rows that aren't plotted)
+   */
+  protected double[] colorGroups(Color[] colors) {
+    int n = m_data.numInstances();
+    double[] groups = new double[n];
+    Attribute att =
+      m_c >= 0 && m_c < m_data.numAttributes() ? m_data.attribute(m_c) : null;
+    if (att == null || !(att.isNominal() || att.isNumeric())) {
+      colors[0] = Color.web("#4258c9");
+      return groups;
+    }
+
+    double[] values = column(m_c);
+    int missing = colors.length - 1;
+    colors[missing] = MISSING_COLOR;
+    if (att.isNominal()) {
+      for (int k = 0; k < att.numValues(); k++) {
+        int rgb =
+          FXChartMatrix.FX_SERIES_COLORS[k
+            % FXChartMatrix.FX_SERIES_COLORS.length];
+        colors[k] = Color.rgb(rgb >> 16, (rgb >> 8) & 0xff, rgb & 0xff);
+      }
+      for (int i = 0; i < n; i++) {
+        groups[i] = Double.isNaN(values[i]) ? missing : values[i];
+      }
+    } else {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (double v : values) {
+        if (!Double.isNaN(v)) {
+          min = Math.min(min, v);
+          max = Math.max(max, v);
+        }
+      }
+      for (int k = 0; k < NUM_NUMERIC_COLORS; k++) {
+        colors[k] =
+          Color.BLUE.interpolate(Color.RED, k / (NUM_NUMERIC_COLORS - 1.0));
+      }
+      double factor = max > min ? (NUM_NUMERIC_COLORS - 1) / (max - min) : 0;
+      for (int i = 0; i < n; i++) {
+        groups[i] =
+          Double.isNaN(values[i]) ? missing : Math.round((values[i] - min)
+            * factor);
+      }
+    }
+
+    return groups;
+  }
+
+  /**
+   * Rebuild the meshes for the current axes and coloring
+   */
+  protected void buildPoints() {
+    float[] xs = scale(column(m_x), 0);
+    float[] ys = scale(column(m_y), 1);
+    float[] zs = scale(column(m_z), 2);
+    m_octree = new Octree(xs, ys, zs);
+
+    Attribute att =
+      m_c >= 0 && m_c < m_data.numAttributes() ? m_data.attribute(m_c) : null;
+    int numColors = 1;
+    if (att != null && att.isNominal()) {
+      numColors = att.numValues() + 1;
+    } else if (att != null && att.isNumeric()) {
+      numColors = NUM_NUMERIC_COLORS + 1;
+    }
+    Color[] colors = new Color[numColors];
+    ClassPartition groups =
+      new ClassPartition(colorGroups(colors), m_c, numColors);
+
+    int numPlotted = 0;
+    for (int i = 0; i < xs.length; i++) {
+      if (!Float.isNaN(xs[i]) && !Float.isNaN(ys[i]) && !Float.isNaN(zs[i])) {
+        numPlotted++;
+      }
+    }
+    int stride =
+      m_maxPointsWhileMoving > 0 && numPlotted > m_maxPointsWhileMoving ? (int) Math
+        .ceil((double) numPlotted / m_maxPointsWhileMoving) : 0;
+
+    m_points.getChildren().clear();
+    m_coarsePoints.getChildren().clear();
+    int[] order = groups.order();
+    for (int k = 0; k < numColors; k++) {
+      if (groups.size(k) == 0) {
+        continue;
+      }
+      PhongMaterial material = new PhongMaterial(colors[k]);
+      addMeshes(m_points, material, xs, ys, zs, order, groups.start(k),
+        groups.end(k), 1);
+      if (stride > 0) {
+        addMeshes(m_coarsePoints, material, xs, ys, zs, order,
+          groups.start(k), groups.end(k), stride);
+      }
+    }
+    showCoarse(false);
+  }
+
+  /**
+   * Pack points into meshes
+   *
+   * @param parent the group to add the meshes to
+   * @param material the material of the points
+   * @param xs the x coordinate of each row
+   * @param ys the y coordinate of each row
+   * @param zs the z coordinate of each row
+   * @param order row indexes
+   * @param start the position in order of the first row to add
+   * @param end the position in order after the last row to add
+   * @param stride add every stride'th row
+   */
+  protected void addMeshes(Group parent, PhongMaterial material, float[] xs,
+    float[] ys, float[] zs, int[] order, int start, int end, int stride) {
+    int[] rows = new int[(end - start + stride - 1) / stride];
+    int n = 0;
+    for (int i = start; i < end; i += stride) {
+      int row = order[i];
+      if (!Float.isNaN(xs[row]) && !Float.isNaN(ys[row])
+        && !Float.isNaN(zs[row])) {
+        rows[n++] = row;
+      }
+    }
+
+    for (int from = 0; from < n; from += MAX_POINTS_PER_MESH) {
+      int count = Math.min(MAX_POINTS_PER_MESH, n - from);
+      MeshView view =
+        new MeshView(buildMesh(xs, ys, zs, rows, from, count,
+          (float) (m_pointSize / 2)));
+      view.setMaterial(material);
+      view.setCullFace(CullFace.NONE);
+      parent.getChildren().add(view);
+    }
+  }
+
+  /**
+   * Build a mesh with a tetrahedron for each point
+   *
+   * @param xs the x coordinate of each row
+   * @param ys the y coordinate of each row
+   * @param zs the z coordinate of each row
+   * @param rows the rows to draw
+   * @param from the position in rows of the first row to draw
+   * @param count the number of rows to draw
+   * @param radius the distance of the corners of a tetrahedron from its
+   *          center
+   * @return the mesh
+   */
+  protected static TriangleMesh buildMesh(float[] xs, float[] ys, float[] zs,
+    int[] rows, int from, int count, float radius) {
+    int numVertices = TETRAHEDRON.length / 3;
+    float[] points = new float[count * TETRAHEDRON.length];
+    int[] faces = new int[count * TETRAHEDRON_FACES.length * 6];
+    float r = radius / (float) Math.sqrt(3);
+    int p = 0;
+    int f = 0;
+    for (int i = 0; i < count; i++) {
+      int row = rows[from + i];
+      for (int v = 0; v < TETRAHEDRON.length; v += 3) {
+        points[p++] = xs[row] + TETRAHEDRON[v] * r;
+        points[p++] = ys[row] + TETRAHEDRON[v + 1] * r;
+        points[p++] = zs[row] + TETRAHEDRON[v + 2] * r;
+      }
+      int base = i * numVertices;
+      for (int[] face : TETRAHEDRON_FACES) {
+        // vertex index, then texture coordinate index (there is just one)
+        faces[f++] = base + face[0];
+        faces[f++] = 0;
+        faces[f++] = base + face[1];
+        faces[f++] = 0;
+        faces[f++] = base + face[2];
+        faces[f++] = 0;
+      }
+    }
+
+    TriangleMesh mesh = new TriangleMesh();
+    mesh.getTexCoords().addAll(0, 0);
+    mesh.getPoints().setAll(points);
+    mesh.getFaces().setAll(faces);
+
+    return mesh;
+  }
+
+  /**
+   * Rebuild the axis lines and labels
+   */
+  protected void buildAxes() {
+    m_axes.getChildren().clear();
+    double h = AXIS_LENGTH / 2;
+    PhongMaterial material = new PhongMaterial(Color.DARKGRAY);
+
+    // the axes meet at the corner of the minimum values (y is flipped)
+    Box xAxis = new Box(AXIS_LENGTH, 1, 1);
+    xAxis.setTranslateY(h);
+    xAxis.setTranslateZ(-h);
+    Box yAxis = new Box(1, AXIS_LENGTH, 1);
+    yAxis.setTranslateX(-h);
+    yAxis.setTranslateZ(-h);
+    Box zAxis = new Box(1, 1, AXIS_LENGTH);
+    zAxis.setTranslateX(-h);
+    zAxis.setTranslateY(h);
+    for (Box axis : new Box[] { xAxis, yAxis, zAxis }) {
+      axis.setMaterial(material);
+      m_axes.getChildren().add(axis);
+    }
+
+    m_axes.getChildren().addAll(label(m_x, h, h, -h),
+      label(m_y, -h, -h, -h), label(m_z, -h, h, h));
+  }
+
+  /**
+   * Find the row of the point under a position in the scene - the point
+   * nearest the camera among those within a few pixels of the ray cast from
+   * the camera through the position
+   *
+   * @param sceneX the x coordinate in the scene
+   * @param sceneY the y coordinate in the scene
+   * @return the row, or -1 if there is no point there
+   */
+  public int rowAt(double sceneX, double sceneY) {
+    if (m_octree == null || m_subScene == null) {
+      return -1;
+    }
+    double width = m_subScene.getWidth();
+    double height = m_subScene.getHeight();
+    double tanHalf = Math.tan(Math.toRadians(m_camera.getFieldOfView() / 2));
+
+    // the camera looks down z (with y pointing down), and the field of view
+    // is vertical
+    double dx = (2 * sceneX / width - 1) * tanHalf * width / height;
+    double dy = (2 * sceneY / height - 1) * tanHalf;
+    Point3D origin = new Point3D(0, 0, m_camera.getTranslateZ());
+    Point3D o = m_world.sceneToLocal(origin);
+    Point3D d = m_world.sceneToLocal(origin.add(dx, dy, 1)).subtract(o);
+
+    // allow a few pixels at the distance of the center of the plot
+    double pixel = 2 * -m_camera.getTranslateZ() * tanHalf / height;
+    float tolerance = (float) Math.max(m_pointSize, PICK_PIXELS * pixel);
+
+    return m_octree.nearestToRay((float) o.getX(), (float) o.getY(),
+      (float) o.getZ(), (float) d.getX(), (float) d.getY(), (float) d.getZ(),
+      tolerance);
+  }
+
+  /**
+   * Get the rows whose values lie within a box. Only rows currently plotted
+   * (i.e. in the zoomed in region, if zoomed in) are returned.
+   *
+   * @param min the minimum x, y and z values
+   * @param max the maximum x, y and z values
+   * @return the row indexes
+   */
+  public int[] rowsInBox(double[] min, double[] max) {
+    if (m_octree == null) {
+      return new int[0];
+    }
+    float[] lo = new float[3];
+    float[] hi = new float[3];
+    for (int a = 0; a < 3; a++) {
+      // a constant axis maps every value to the same coordinate, so a box
+      // that misses the values shown has to be caught before mapping
+      if (max[a] < m_ranges[a][0] || min[a] > m_ranges[a][1]) {
+        return new int[0];
+      }
+      // flipped axes swap the ends of the range
+      double p0 = toPlot(a, min[a]);
+      double p1 = toPlot(a, max[a]);
+      lo[a] = (float) Math.min(p0, p1);
+      hi[a] = (float) Math.max(p0, p1);
+    }
+
+    return m_octree.query(lo[0], lo[1], lo[2], hi[0], hi[1], hi[2]);
+  }
+
+  /**
+   * Zoom in on the rows whose values lie within a box, scaling them to fill
+   * the plot. Does nothing if there are no such rows.
+   *
+   * @param min the minimum x, y and z values
+   * @param max the maximum x, y and z values
+   */
+  public void zoomTo(double[] min, double[] max) {
+    int[] rows = rowsInBox(min, max);
+    if (rows.length > 0) {
+      m_viewRows = rows;
+      buildPoints();
+      buildAxes();
+    }
+  }
+
+  /**
+   * Zoom back out to show all rows
+   */
+  public void resetZoom() {
+    m_viewRows = null;
+    if (m_data != null) {
+      buildPoints();
+      buildAxes();
+    }
+  }
+
+  /**
+   * Zoom in on the region around the point of a row
+   *
+   * @param row the row
+   */
+  protected void zoomAround(int row) {
+    double[] min = new double[3];
+    double[] max = new double[3];
+    int[] atts = { m_x, m_y, m_z };
+    for (int a = 0; a < 3; a++) {
+      double half = (m_ranges[a][1] - m_ranges[a][0]) * ZOOM_FRACTION / 2;
+      double v = column(atts[a])[row];
+      min[a] = v - half;
+      max[a] = v + half;
+    }
+    zoomTo(min, max);
+  }
+
+  /**
+   * Show the values of a row next to the mouse
+   *
+   * @param row the row (-1 to hide the tooltip)
+   * @param sceneX the x coordinate of the mouse
+   * @param sceneY the y coordinate of the mouse
+   */
+  protected void showTooltip(int row, double sceneX, double sceneY) {
+    if (row < 0) {
+      m_tooltip.setVisible(false);
+      return;
+    }
+    Instance inst = m_data.instance(row);
+    StringBuilder text = new StringBuilder("Row ").append(row + 1);
+    for (int index : new int[] { m_x, m_y, m_z, m_c }) {
+      if (index >= 0 && index < m_data.numAttributes()) {
+        text.append('\n').append(m_data.attribute(index).name()).append(": ")
+          .append(inst.toString(index));
+      }
+    }
+    m_tooltip.setText(text.toString());
+    m_tooltip.setLayoutX(sceneX + 12);
+    m_tooltip.setLayoutY(sceneY + 12);
+    m_tooltip.setVisible(true);
+  }
+
+  protected Text label(int index, double x, double y, double z) {
+    Text text = new Text(m_data.attribute(index).name());
+    text.setTranslateX(x);
+    text.setTranslateY(y);
+    text.setTranslateZ(z);
+
+    return text;
+  }
+}
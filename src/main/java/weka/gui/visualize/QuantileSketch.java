@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A KLL quantile sketch (Karnin, Lang and Liberty, "Optimal Quantile
+ * Approximation in Streams", FOCS 2016). Values are kept in a hierarchy of
+ * compactors, where an item at level h stands for 2^h values of the stream.
+ * When a level fills up it is sorted and every other item (starting at a
+ * random offset) is promoted to the next level. Capacities shrink
+ * geometrically towards the lower levels, so the memory used is bounded by
+ * O(k) regardless of the length of the stream. Sketches of separate streams
+ * can be merged.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class QuantileSketch {
+
+  /** Default capacity of the top level (rank error of roughly 1.5%) */
+  public static final int DEFAULT_K = 200;
+
+  /** Ratio of the capacity of a level to that of the level above it */
+  protected static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+  protected final int m_k;
+
+  /** Items held at each level */
+  protected double[][] m_levels = new double[1][8];
+
+  /** Number of items at each level */
+  protected int[] m_sizes = new int[1];
+
+  /** Number of values in the stream */
+  protected long m_n;
+
+  /**
+   * Number of items held over all levels, and the total capacity of the
+   * levels - kept up to date rather than summed on every update
+   */
+  protected int m_numRetained;
+  protected int m_totalCapacity;
+
+  /** Picks the items to promote when compacting */
+  protected final Random m_random = new Random(1);
+
+  /** Sorted values and cumulative weights - built on demand by queries */
+  protected double[] m_sortedValues;
+  protected long[] m_cumWeights;
+
+  /**
+   * Constructor using the default capacity
+   */
+  public QuantileSketch() {
+    this(DEFAULT_K);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param k the capacity of the top level - larger is more accurate
+   */
+  public QuantileSketch(int k) {
+    if (k < 2) {
+      throw new IllegalArgumentException("k must be at least 2");
+    }
+    m_k = k;
+    m_totalCapacity = computeTotalCapacity();
+  }
+
+  protected int numLevels() {
+    return m_levels.length;
+  }
+
+  protected int capacity(int level) {
+    int depth = numLevels() - 1 - level;
+    return Math.max(2, (int) Math.ceil(m_k * Math.pow(CAPACITY_DECAY, depth)));
+  }
+
+  protected int numRetained() {
+    return m_numRetained;
+  }
+
+  protected int totalCapacity() {
+    return m_totalCapacity;
+  }
+
+  protected int computeTotalCapacity() {
+    int total = 0;
+    for (int h = 0; h < numLevels(); h++) {
+      total += capacity(h);
+    }
+    return total;
+  }
+
+  protected void append(int level, double v) {
+    if (m_sizes[level] == m_levels[level].length) {
+      m_levels[level] =
+        Arrays.copyOf(m_levels[level], m_levels[level].length * 2);
+    }
+    m_levels[level][m_sizes[level]++] = v;
+    m_numRetained++;
+  }
+
+  protected void addLevel() {
+    int h = numLevels();
+    m_levels = Arrays.copyOf(m_levels, h + 1);
+    m_levels[h] = new double[8];
+    m_sizes = Arrays.copyOf(m_sizes, h + 1);
+    m_totalCapacity = computeTotalCapacity();
+  }
+
+  /**
+   * Compact the lowest level that is at (or over) capacity
+   */
+  protected void compress() {
+    for (int h = 0; h < numLevels(); h++) {
+      if (m_sizes[h] >= capacity(h)) {
+        if (h + 1 == numLevels()) {
+          addLevel();
+        }
+        double[] items = m_levels[h];
+        int size = m_sizes[h];
+        Arrays.sort(items, 0, size);
+
+        // an odd item out stays at this level
+        int even = size & ~1;
+        int offset = m_random.nextBoolean() ? 1 : 0;
+        for (int i = offset; i < even; i += 2) {
+          append(h + 1, items[i]);
+        }
+        if (even < size) {
+          items[0] = items[size - 1];
+          m_sizes[h] = 1;
+        } else {
+          m_sizes[h] = 0;
+        }
+        m_numRetained -= size - m_sizes[h];
+        return;
+      }
+    }
+  }
+
+  /**
+   * Add a value to the sketch. Missing (NaN) values are ignored.
+   *
+   * @param v the value to add
+   */
+  public void update(double v) {
+    if (Double.isNaN(v)) {
+      return;
+    }
+    append(0, v);
+    m_n++;
+    m_sortedValues = null;
+    while (numRetained() >= totalCapacity()) {
+      compress();
+    }
+  }
+
+  /**
+   * Merge another sketch into this one
+   *
+   * @param other the sketch to merge
+   */
+  public void merge(QuantileSketch other) {
+    while (numLevels() < other.numLevels()) {
+      addLevel();
+    }
+    for (int h = 0; h < other.numLevels(); h++) {
+      for (int i = 0; i < other.m_sizes[h]; i++) {
+        append(h, other.m_levels[h][i]);
+      }
+    }
+    m_n += other.m_n;
+    m_sortedValues = null;
+    while (numRetained() >= totalCapacity()) {
+      compress();
+    }
+  }
+
+  /**
+   * Get a copy of the sketch
+   *
+   * @return the copy
+   */
+  public QuantileSketch copy() {
+    QuantileSketch copy = new QuantileSketch(m_k);
+    copy.m_levels = new double[numLevels()][];
+    for (int h = 0; h < numLevels(); h++) {
+      copy.m_levels[h] = m_levels[h].clone();
+    }
+    copy.m_sizes = m_sizes.clone();
+    copy.m_n = m_n;
+    copy.m_numRetained = m_numRetained;
+    copy.m_totalCapacity = m_totalCapacity;
+
+    return copy;
+  }
+
+  /**
+   * Write the sketch out
+   *
+   * @param out the output to write to
+   * @throws IOException if a problem occurs
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(m_k);
+    out.writeLong(m_n);
+    out.writeInt(numLevels());
+    for (int h = 0; h < numLevels(); h++) {
+      out.writeInt(m_sizes[h]);
+      for (int i = 0; i < m_sizes[h]; i++) {
+        out.writeDouble(m_levels[h][i]);
+      }
+    }
+  }
+
+  /**
+   * Read a sketch written by write()
+   *
+   * @param in the input to read from
+   * @return the sketch
+   * @throws IOException if a problem occurs
+   */
+  public static QuantileSketch read(DataInput in) throws IOException {
+    QuantileSketch sketch = new QuantileSketch(in.readInt());
+    sketch.m_n = in.readLong();
+    int numLevels = in.readInt();
+    sketch.m_levels = new double[numLevels][];
+    sketch.m_sizes = new int[numLevels];
+    for (int h = 0; h < numLevels; h++) {
+      int size = in.readInt();
+      sketch.m_levels[h] = new double[Math.max(8, size)];
+      sketch.m_sizes[h] = size;
+      for (int i = 0; i < size; i++) {
+        sketch.m_levels[h][i] = in.readDouble();
+      }
+      sketch.m_numRetained += size;
+    }
+    sketch.m_totalCapacity = sketch.computeTotalCapacity();
+
+    return sketch;
+  }
+
+  /**
+   * Get the number of values seen
+   *
+   * @return the number of values
+   */
+  public long getN() {
+    return m_n;
+  }
+
+  protected void buildSortedView() {
+    if (m_sortedValues != null) {
+      return;
+    }
+    int total = numRetained();
+    double[] values = new double[total];
+    long[] weights = new long[total];
+    int filled = 0;
+
+    // merge the (sorted) levels one at a time
+    for (int h = 0; h < numLevels(); h++) {
+      int size = m_sizes[h];
+      double[] level = Arrays.copyOf(m_levels[h], size);
+      Arrays.sort(level);
+      long w = 1L << h;
+
+      int i = filled - 1;
+      int j = size - 1;
+      int dest = filled + size - 1;
+      while (j >= 0) {
+        if (i >= 0 && values[i] > level[j]) {
+          values[dest] = values[i];
+          weights[dest--] = weights[i--];
+        } else {
+          values[dest] = level[j--];
+          weights[dest--] = w;
+        }
+      }
+      filled += size;
+    }
+
+    for (int i = 1; i < total; i++) {
+      weights[i] += weights[i - 1];
+    }
+    m_sortedValues = values;
+    m_cumWeights = weights;
+  }
+
+  /**
+   * Get an estimate of a quantile of the stream
+   *
+   * @param q the quantile (between 0 and 1)
+   * @return the estimated value at quantile q, or NaN if the sketch is empty
+   */
+  public double quantile(double q) {
+    if (m_n == 0) {
+      return Double.NaN;
+    }
+    buildSortedView();
+    long total = m_cumWeights[m_cumWeights.length - 1];
+    long target = (long) Math.ceil(q * total);
+    int index = Arrays.binarySearch(m_cumWeights, Math.max(1, target));
+    if (index < 0) {
+      index = -index - 1;
+    }
+
+    return m_sortedValues[Math.min(index, m_sortedValues.length - 1)];
+  }
+
+  /**
+   * Get an estimate of the fraction of the stream that is less than or equal
+   * to a value
+   *
+   * @param v the value
+   * @return the estimated normalized rank of v
+   */
+  public double rank(double v) {
+    if (m_n == 0) {
+      return Double.NaN;
+    }
+    buildSortedView();
+    int lo = 0;
+    int hi = m_sortedValues.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (m_sortedValues[mid] <= v) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    return lo == 0 ? 0 : (double) m_cumWeights[lo - 1]
+      / m_cumWeights[m_cumWeights.length - 1];
+  }
+
+  /**
+   * Estimate an equal width histogram of the stream. Bins follow the same
+   * layout as HistogramBinner.
+   *
+   * @param numBins the number of bins
+   * @param min the minimum of the range
+   * @param max the maximum of the range
+   * @return the estimated number of values in each bin
+   */
+  public double[] binCounts(int numBins, double min, double max) {
+    double[] counts = new double[numBins];
+    double scale = numBins / (max - min);
+    int last = numBins - 1;
+    for (int h = 0; h < numLevels(); h++) {
+      long w = 1L << h;
+      for (int i = 0; i < m_sizes[h]; i++) {
+        double v = m_levels[h][i];
+        if (v >= min && v <= max) {
+          int bin = (int) ((v - min) * scale);
+          counts[bin > last ? last : bin] += w;
+        }
+      }
+    }
+
+    return counts;
+  }
+}
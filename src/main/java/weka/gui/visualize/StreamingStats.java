@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Online summary statistics for a numeric field: exact count, missing count,
+ * min and max, mean and variance (Welford's method), and a quantile sketch.
+ * Updated one value at a time in constant time and bounded memory, so they can
+ * be maintained over an entire stream rather than just over a sample of it.
+ * Statistics for separate streams can be merged.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class StreamingStats {
+
+  protected long m_count;
+  protected long m_missing;
+  protected double m_mean;
+
+  /** Sum of squared differences from the mean */
+  protected double m_m2;
+
+  protected double m_min = Double.POSITIVE_INFINITY;
+  protected double m_max = Double.NEGATIVE_INFINITY;
+
+  protected QuantileSketch m_sketch;
+
+  /**
+   * Constructor using a quantile sketch of the default size
+   */
+  public StreamingStats() {
+    this(QuantileSketch.DEFAULT_K);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sketchK the capacity of the quantile sketch
+   */
+  public StreamingStats(int sketchK) {
+    this(new QuantileSketch(sketchK));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sketch the quantile sketch to use
+   */
+  private StreamingStats(QuantileSketch sketch) {
+    m_sketch = sketch;
+  }
+
+  /**
+   * Update with a value
+   *
+   * @param v the value (NaN for missing)
+   */
+  public void update(double v) {
+    if (Double.isNaN(v)) {
+      m_missing++;
+      return;
+    }
+    m_count++;
+    double delta = v - m_mean;
+    m_mean += delta / m_count;
+    m_m2 += delta * (v - m_mean);
+    if (v < m_min) {
+      m_min = v;
+    }
+    if (v > m_max) {
+      m_max = v;
+    }
+    m_sketch.update(v);
+  }
+
+  /**
+   * Merge the statistics of another stream into these
+   *
+   * @param other the statistics to merge
+   */
+  public void merge(StreamingStats other) {
+    m_missing += other.m_missing;
+    if (other.m_count == 0) {
+      return;
+    }
+    long n = m_count + other.m_count;
+    double delta = other.m_mean - m_mean;
+    m_mean += delta * other.m_count / n;
+    m_m2 += other.m_m2 + delta * delta * m_count * other.m_count / n;
+    m_count = n;
+    m_min = Math.min(m_min, other.m_min);
+    m_max = Math.max(m_max, other.m_max);
+    m_sketch.merge(other.m_sketch);
+  }
+
+  /**
+   * Get a copy of the statistics
+   *
+   * @return the copy
+   */
+  public StreamingStats copy() {
+    StreamingStats copy = new StreamingStats(m_sketch.copy());
+    copy.m_count = m_count;
+    copy.m_missing = m_missing;
+    copy.m_mean = m_mean;
+    copy.m_m2 = m_m2;
+    copy.m_min = m_min;
+    copy.m_max = m_max;
+
+    return copy;
+  }
+
+  /**
+   * Write the statistics out
+   *
+   * @param out the output to write to
+   * @throws IOException if a problem occurs
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(m_count);
+    out.writeLong(m_missing);
+    out.writeDouble(m_mean);
+    out.writeDouble(m_m2);
+    out.writeDouble(m_min);
+    out.writeDouble(m_max);
+    m_sketch.write(out);
+  }
+
+  /**
+   * Read statistics written by write()
+   *
+   * @param in the input to read from
+   * @return the statistics
+   * @throws IOException if a problem occurs
+   */
+  public static StreamingStats read(DataInput in) throws IOException {
+    long count = in.readLong();
+    long missing = in.readLong();
+    double mean = in.readDouble();
+    double m2 = in.readDouble();
+    double min = in.readDouble();
+    double max = in.readDouble();
+    StreamingStats stats = new StreamingStats(QuantileSketch.read(in));
+    stats.m_count = count;
+    stats.m_missing = missing;
+    stats.m_mean = mean;
+    stats.m_m2 = m2;
+    stats.m_min = min;
+    stats.m_max = max;
+
+    return stats;
+  }
+
+  /**
+   * @return the number of non-missing values
+   */
+  public long count() {
+    return m_count;
+  }
+
+  /**
+   * @return the number of missing values
+   */
+  public long missingCount() {
+    return m_missing;
+  }
+
+  /**
+   * @return the mean, or NaN if there are no values
+   */
+  public double mean() {
+    return m_count > 0 ? m_mean : Double.NaN;
+  }
+
+  /**
+   * @return the sample variance, or NaN if there are fewer than two values
+   */
+  public double variance() {
+    return m_count > 1 ? m_m2 / (m_count - 1) : Double.NaN;
+  }
+
+  /**
+   * @return the sample standard deviation
+   */
+  public double stdDev() {
+    return Math.sqrt(variance());
+  }
+
+  /**
+   * @return the minimum, or NaN if there are no values
+   */
+  public double min() {
+    return m_count > 0 ? m_min : Double.NaN;
+  }
+
+  /**
+   * @return the maximum, or NaN if there are no values
+   */
+  public double max() {
+    return m_count > 0 ? m_max : Double.NaN;
+  }
+
+  /**
+   * @return the quantile sketch
+   */
+  public QuantileSketch getSketch() {
+    return m_sketch;
+  }
+}
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.JPanel;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * A matrix of equally sized image cells that only builds the cells that are
+ * (about to be) visible. Meant to be used as the view of a JScrollPane. Cells
+ * are rendered on demand in the background when they scroll into view, the
+ * cells immediately surrounding the visible region are prefetched, and cells
+ * that have scrolled well out of view are evicted. Startup cost is therefore
+ * independent of the size of the matrix.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class VirtualChartMatrix extends JPanel implements Scrollable {
+
+  private static final long serialVersionUID = -2937488231749181264L;
+
+  /**
+   * Renders the cells of the matrix. Implementations must be thread safe, as
+   * cells are rendered concurrently on a background pool.
+   */
+  public static interface CellRenderer {
+
+    /**
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return true if there is a cell at this position
+     */
+    boolean hasCell(int row, int col);
+
+    /**
+     * Render a cell
+     *
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return the rendered cell
+     */
+    BufferedImage renderCell(int row, int col);
+  }
+
+  /** Number of cells around the visible region to prefetch */
+  protected static final int PREFETCH_MARGIN = 1;
+
+  /** Cells further than this from the visible region get evicted */
+  protected static final int RETAIN_MARGIN = 3;
+
+  protected final int m_rows;
+  protected final int m_cols;
+  protected final int m_cellSize;
+  protected final CellRenderer m_renderer;
+  protected final ExecutorService m_pool;
+
+  /** Rendered cells */
+  protected final Map<Long, BufferedImage> m_cache =
+    new ConcurrentHashMap<Long, BufferedImage>();
+
+  /** Cells currently being rendered */
+  protected final Map<Long, Future<?>> m_pending =
+    new ConcurrentHashMap<Long, Future<?>>();
+
+  /**
+   * Constructor
+   *
+   * @param rows number of rows in the matrix
+   * @param cols number of columns in the matrix
+   * @param cellSize width/height of a cell in pixels
+   * @param renderer renders the cells
+   * @param pool the pool to render cells on
+   */
+  public VirtualChartMatrix(int rows, int cols, int cellSize,
+    CellRenderer renderer, ExecutorService pool) {
+    m_rows = rows;
+    m_cols = cols;
+    m_cellSize = cellSize;
+    m_renderer = renderer;
+    m_pool = pool;
+    setBackground(Color.white);
+    setPreferredSize(new Dimension(cols * cellSize, rows * cellSize));
+  }
+
+  protected static long key(int row, int col) {
+    return ((long) row << 32) | (col & 0xffffffffL);
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = getVisibleRect();
+    }
+    int r0 = Math.max(0, clip.y / m_cellSize);
+    int r1 = Math.min(m_rows - 1, (clip.y + clip.height - 1) / m_cellSize);
+    int c0 = Math.max(0, clip.x / m_cellSize);
+    int c1 = Math.min(m_cols - 1, (clip.x + clip.width - 1) / m_cellSize);
+
+    for (int r = r0; r <= r1; r++) {
+      for (int c = c0; c <= c1; c++) {
+        if (!m_renderer.hasCell(r, c)) {
+          continue;
+        }
+        BufferedImage img = m_cache.get(key(r, c));
+        if (img != null) {
+          g.drawImage(img, c * m_cellSize, r * m_cellSize, null);
+        } else {
+          g.setColor(Color.lightGray);
+          g.drawRect(c * m_cellSize + 2, r * m_cellSize + 2, m_cellSize - 5,
+            m_cellSize - 5);
+          request(r, c);
+        }
+      }
+    }
+
+    updateWorkingSet();
+  }
+
+  /**
+   * Prefetch cells around the visible region and evict those that are well
+   * outside of it
+   */
+  protected void updateWorkingSet() {
+    Rectangle vis = getVisibleRect();
+    if (vis.isEmpty()) {
+      return;
+    }
+    int r0 = vis.y / m_cellSize;
+    int r1 = (vis.y + vis.height - 1) / m_cellSize;
+    int c0 = vis.x / m_cellSize;
+    int c1 = (vis.x + vis.width - 1) / m_cellSize;
+
+    for (int r = Math.max(0, r0 - PREFETCH_MARGIN); r <= Math.min(m_rows - 1,
+      r1 + PREFETCH_MARGIN); r++) {
+      for (int c = Math.max(0, c0 - PREFETCH_MARGIN); c <= Math.min(
+        m_cols - 1, c1 + PREFETCH_MARGIN); c++) {
+        if (m_renderer.hasCell(r, c)) {
+          request(r, c);
+        }
+      }
+    }
+
+    evictOutside(r0 - RETAIN_MARGIN, r1 + RETAIN_MARGIN, c0 - RETAIN_MARGIN,
+      c1 + RETAIN_MARGIN);
+  }
+
+  protected void evictOutside(int r0, int r1, int c0, int c1) {
+    for (Iterator<Long> i = m_cache.keySet().iterator(); i.hasNext();) {
+      long k = i.next();
+      if (outside(k, r0, r1, c0, c1)) {
+        i.remove();
+      }
+    }
+    for (Iterator<Map.Entry<Long, Future<?>>> i =
+      m_pending.entrySet().iterator(); i.hasNext();) {
+      Map.Entry<Long, Future<?>> e = i.next();
+      if (outside(e.getKey(), r0, r1, c0, c1)) {
+        e.getValue().cancel(false);
+        i.remove();
+      }
+    }
+  }
+
+  protected static boolean outside(long k, int r0, int r1, int c0, int c1) {
+    int r = (int) (k >> 32);
+    int c = (int) k;
+    return r < r0 || r > r1 || c < c0 || c > c1;
+  }
+
+  /**
+   * Schedule rendering of a cell, unless it is already cached or pending
+   */
+  protected void request(final int row, final int col) {
+    final long k = key(row, col);
+    if (m_cache.containsKey(k) || m_pending.containsKey(k)) {
+      return;
+    }
+    // register before executing, so that a fast render can't complete
+    // before it is known to be pending
+    FutureTask<BufferedImage> task =
+      new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+        @Override
+        public BufferedImage call() {
+          return m_renderer.renderCell(row, col);
+        }
+      }) {
+        @Override
+        protected void done() {
+          // only the task still registered for the cell gets to finish it - a
+          // cancelled or stale task must not remove a newer one's entry
+          if (!m_pending.remove(k, this) || isCancelled()) {
+            return;
+          }
+          try {
+            BufferedImage img = get();
+            if (img != null) {
+              m_cache.put(k, img);
+              SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                  repaint(col * m_cellSize, row * m_cellSize, m_cellSize,
+                    m_cellSize);
+                }
+              });
+            }
+          } catch (ExecutionException ex) {
+            ex.getCause().printStackTrace();
+          } catch (InterruptedException ex) {
+            // can't happen - the task is done
+          }
+        }
+      };
+    m_pending.put(k, task);
+    m_pool.execute(task);
+  }
+
+  @Override
+  public void removeNotify() {
+    super.removeNotify();
+    // no longer displayed - stop any outstanding work and free the images
+    for (Future<?> f : m_pending.values()) {
+      f.cancel(false);
+    }
+    m_pending.clear();
+    m_cache.clear();
+  }
+
+  @Override
+  public Dimension getPreferredScrollableViewportSize() {
+    return getPreferredSize();
+  }
+
+  @Override
+  public int getScrollableUnitIncrement(Rectangle visibleRect,
+    int orientation, int direction) {
+    return Math.max(1, m_cellSize / 10);
+  }
+
+  @Override
+  public int getScrollableBlockIncrement(Rectangle visibleRect,
+    int orientation, int direction) {
+    return orientation == SwingConstants.VERTICAL ? visibleRect.height
+      : visibleRect.width;
+  }
+
+  @Override
+  public boolean getScrollableTracksViewportWidth() {
+    return false;
+  }
+
+  @Override
+  public boolean getScrollableTracksViewportHeight() {
+    return false;
+  }
+}
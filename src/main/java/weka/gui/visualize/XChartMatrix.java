@@ -23,18 +23,21 @@
 package weka.gui.visualize;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
+import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
-import javax.swing.ImageIcon;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.WindowConstants;
@@ -42,7 +45,6 @@ import javax.swing.WindowConstants;
 import org.knowm.xchart.BitmapEncoder;
 import org.knowm.xchart.CategoryChart;
 import org.knowm.xchart.CategoryChartBuilder;
-import org.knowm.xchart.Histogram;
 import org.knowm.xchart.XChartPanel;
 import org.knowm.xchart.XYChart;
 import org.knowm.xchart.XYChartBuilder;
@@ -58,213 +60,149 @@ import weka.core.Instances;
  */
 public class XChartMatrix {
 
+  /**
+   * Bounded pool used to build and rasterize the cells of a matrix in parallel
+   */
+  protected static final ForkJoinPool CELL_POOL = new ForkJoinPool(Runtime
+    .getRuntime().availableProcessors());
+
+  /**
+   * Holds a constructed (and optionally rasterized) cell of the matrix
+   */
+  protected static class Cell {
+    protected final int m_x;
+    protected final int m_y;
+    protected Chart m_chart;
+
+    protected Cell(int x, int y) {
+      m_x = x;
+      m_y = y;
+    }
+  }
+
+  public static JPanel getMatrix(final Instances instances,
+    final int chartWidth, final int markerSize, final boolean image,
+    boolean lowerTriangle) {
+    return getMatrix(instances, chartWidth, markerSize, image, lowerTriangle,
+      false, null);
+  }
+
+  /**
+   * Get a scatter plot matrix
+   *
+   * @param instances the data
+   * @param chartWidth width/height of each cell
+   * @param markerSize size of the scatter plot markers
+   * @param image true to display the cells as (lazily rendered) images
+   * @param lowerTriangle true if only the lower triangle is to be shown
+   * @param density true to draw scatter cells as binned density plots rather
+   *          than one marker per point
+   * @param streamStats statistics of the numeric attributes over the full
+   *          stream that the instances were sampled from (indexed by
+   *          attribute). Used for axis ranges and, when not coloring by a
+   *          nominal class, for the histograms on the diagonal. May be null.
+   * @return the matrix
+   */
+  public static JPanel getMatrix(final Instances instances,
+    final int chartWidth, final int markerSize, final boolean image,
+    boolean lowerTriangle, final boolean density, StreamingStats[] streamStats) {
+    return getMatrix(new MatrixModel(instances, streamStats), chartWidth,
+      markerSize, image, lowerTriangle, density);
+  }
+
+  /**
+   * Get a scatter plot matrix for data whose columns, statistics and class
+   * partition may already have been computed by an earlier render
+   *
+   * @param model the data, along with anything computed for it so far
+   * @param chartWidth width/height of each cell
+   * @param markerSize size of the scatter plot markers
+   * @param image true to display the cells as (lazily rendered) images
+   * @param lowerTriangle true if only the lower triangle is to be shown
+   * @param density true to draw scatter cells as binned density plots rather
+   *          than one marker per point
+   * @return the matrix
+   */
   @SuppressWarnings("unchecked")
-  public static JPanel getMatrix(Instances instances, int chartWidth,
-    int markerSize, boolean image, boolean lowerTriangle) {
+  public static JPanel getMatrix(MatrixModel model, final int chartWidth,
+    final int markerSize, final boolean image, boolean lowerTriangle,
+    final boolean density) {
 
-    int numPlots = instances.numAttributes() * instances.numAttributes();
-    int classIndex = instances.classIndex();
+    final Instances instances = model.getData();
+    final int numAtts = instances.numAttributes();
 
-    XChartPanel<Chart>[][] chartMatrix =
-      new XChartPanel[instances.numAttributes()][instances.numAttributes()];
+    XChartPanel<Chart>[][] chartMatrix = new XChartPanel[numAtts][numAtts];
 
     int numToPlot = 0;
-    List<Instances> perC =
-      classIndex >= 0 && instances.classAttribute().isNominal() ? getPerClassData(instances)
-        : null;
-    int numBins =
-      Math.min((int) (Math.log(instances.numInstances()) / Math.log(2.0)), 10);
 
-    // data lookup for the full dataset
-    List<double[]> attributeDataLookup = new ArrayList<>();
+    // summary stats and data lookup for the full dataset, computed once for
+    // all cells (and kept by the model for later renders)
+    final MatrixStats stats = model.getStats();
+    if (Thread.interrupted()) {
+      throw new CancellationException("Interrupted while building matrix");
+    }
 
     // data lookup per nominal class
-    Map<Integer, List<double[]>> attributeDataPerClassLookup = new HashMap<>();
-    if (perC != null) {
-      for (int i = 0; i < perC.size(); i++) {
-        Instances fC = perC.get(i);
-        List<double[]> attVals = new ArrayList<>();
-        for (int j = 0; j < instances.numAttributes(); j++) {
-          attVals.add(fC.attributeToDoubleArray(j));
-        }
-        attributeDataPerClassLookup.put(i, attVals);
-      }
-    }
-    for (int i = 0; i < instances.numAttributes(); i++) {
-      attributeDataLookup.add(instances.attributeToDoubleArray(i));
+    final ClassPartition partition = model.getPartition();
+
+    if (image) {
+      // only build the cells that are actually scrolled into view
+      return getVirtualMatrix(instances, stats, partition, chartWidth,
+        markerSize, lowerTriangle, density);
     }
-    for (int y = 0; y < instances.numAttributes(); y++) {
+
+    // cells are independent of each other, so build them in parallel
+    List<Callable<Cell>> tasks = new ArrayList<>();
+    for (int y = 0; y < numAtts; y++) {
       if ((instances.attribute(y).isNumeric() || instances.attribute(y)
-        .isNominal())
-        && instances.attributeStats(y).missingCount < instances.numInstances()) {
+        .isNominal()) && !stats.allMissing(y)) {
         numToPlot++;
       }
-      int bound = lowerTriangle ? y : instances.numAttributes() - 1;
+      int bound = lowerTriangle ? y : numAtts - 1;
       for (int x = 0; x <= bound; x++) {
-        Attribute yy = instances.attribute(y);
-        Attribute xx = instances.attribute(x);
-        if (instances.attributeStats(y).missingCount < instances.numInstances()
-          && instances.attributeStats(x).missingCount < instances
-            .numInstances()) {
-
-          Chart chart = null;
-          double xmin =
-            xx.isNumeric() ? instances.attributeStats(x).numericStats.min : 0;
-          double xmax =
-            xx.isNumeric() ? instances.attributeStats(x).numericStats.max : xx
-              .numValues() - 1;
-          double ymin =
-            yy.isNumeric() ? instances.attributeStats(y).numericStats.min : 0;
-          double ymax =
-            yy.isNumeric() ? instances.attributeStats(y).numericStats.max : yy
-              .numValues() - 1;
-          if (x == y && xmax - xmin > 0) {
-            chart =
-              new CategoryChartBuilder().width(chartWidth).height(chartWidth)
-                .xAxisTitle(xx.name()).yAxisTitle(xx.name()).build();
-            if (xx.isNumeric()) {
-              // histograms (per class?)
-              ((CategoryChart) chart).getStyler().setAvailableSpaceFill(0.96);
-              ((CategoryChart) chart).getStyler().setAxisTitlesVisible(false);
-              ((CategoryChart) chart).getStyler().setChartTitleVisible(false);
-              ((CategoryChart) chart).getStyler().setLegendVisible(false);
-              if (chartWidth <= 100) {
-                ((CategoryChart) chart).getStyler().setAxisTicksVisible(false);
-              }
-
-              if (classIndex >= 0 && instances.classAttribute().isNominal()) {
-                for (int k = 0; k < perC.size(); k++) {
-                  Instances instForC = perC.get(k);
-                  if (instForC.numInstances() > 0) {
-                    // double[] xdata = instForC.attributeToDoubleArray(x);
-                    double[] xdata = attributeDataPerClassLookup.get(k).get(x);
-                    List<Double> xdataL = new ArrayList<Double>();
-                    for (int l = 0; l < xdata.length; l++) {
-                      xdataL.add(xdata[l]);
-                    }
-                    Histogram hist = new Histogram(xdataL, numBins, xmin, xmax);
-                    ((CategoryChart) chart).addSeries(instances
-                      .classAttribute().value(k), hist.getxAxisData(), hist
-                      .getyAxisData());
-                  }
-                }
-              } else {
-                double[] xdata = attributeDataLookup.get(x);
-                List<Double> xdataL = new ArrayList<Double>();
-                for (int l = 0; l < xdata.length; l++) {
-                  xdataL.add(xdata[l]);
-                }
-                Histogram hist = new Histogram(xdataL, numBins, xmin, xmax);
-                ((CategoryChart) chart).addSeries("a", hist.getxAxisData(),
-                  hist.getyAxisData());
-              }
-            } else {
-              // TODO stacked by class distribution
-              // nominal bar chart
-              List<String> categories = new ArrayList<String>();
-              List<Number> categoryCounts = new ArrayList<Number>();
-              for (int k = 0; k < xx.numValues(); k++) {
-                categories.add(xx.value(k));
-                categoryCounts
-                  .add(instances.attributeStats(x).nominalCounts[k]);
-              }
-              ((CategoryChart) chart).addSeries(xx.name(), categories,
-                categoryCounts);
-              ((CategoryChart) chart).getStyler().setLegendVisible(false);
-              ((CategoryChart) chart).getStyler().setAxisTitlesVisible(false);
-              if (chartWidth <= 100) {
-                ((CategoryChart) chart).getStyler().setAxisTicksVisible(false);
-              }
+        if (!stats.allMissing(y) && !stats.allMissing(x)) {
+          final Cell cell = new Cell(x, y);
+          tasks.add(new Callable<Cell>() {
+            @Override
+            public Cell call() {
+              cell.m_chart =
+                buildChart(instances, stats, partition,
+                  cell.m_x, cell.m_y, chartWidth, markerSize, density);
+              styleEdgeChart(cell.m_chart, cell.m_x, cell.m_y, numAtts,
+                chartWidth);
+              return cell;
             }
-          } else {
-            chart =
-              new XYChartBuilder().width(chartWidth).height(chartWidth).build();
-            ((XYChart) chart).getStyler().setDefaultSeriesRenderStyle(
-              XYSeries.XYSeriesRenderStyle.Scatter);
-            ((XYChart) chart).getStyler().setAxisTitlesVisible(false);
-            ((XYChart) chart).getStyler().setChartTitleVisible(false);
-            ((XYChart) chart).getStyler().setXAxisMin(xmin);
-            ((XYChart) chart).getStyler().setXAxisMax(xmax);
-            ((XYChart) chart).getStyler().setYAxisMin(ymin);
-            ((XYChart) chart).getStyler().setYAxisMax(ymax);
-            ((XYChart) chart).getStyler().setLegendVisible(false);
-            ((XYChart) chart).getStyler().setMarkerSize(markerSize);
-            ((XYChart) chart).getStyler().setXAxisTicksVisible(false);
-            ((XYChart) chart).getStyler().setYAxisTicksVisible(false);
-
-            chart.setYAxisTitle(yy.name());
-            chart.setXAxisTitle(xx.name());
-
-            if (classIndex >= 0 && instances.classAttribute().isNominal()) {
-              for (int k = 0; k < perC.size(); k++) {
-                Instances instForC = perC.get(k);
-                if (instForC.numInstances() > 0) {
-                  double[] xdata = attributeDataPerClassLookup.get(k).get(x);
-                  double[] ydata = attributeDataPerClassLookup.get(k).get(y);
-                  ((XYChart) chart).addSeries(
-                    instances.classAttribute().value(k), xdata, ydata);
-                }
-              }
-            } else {
-              double[] xdata = attributeDataLookup.get(x);
-              double[] ydata = attributeDataLookup.get(y);
-              ((XYChart) chart).addSeries("a", xdata, ydata);
-            }
-          }
-          XChartPanel p = new XChartPanel(chart);
-          chartMatrix[y][x] = p;
+          });
         }
       }
     }
-    for (int i = 0; i < instances.numAttributes(); i++) {
-      if (chartMatrix[i][0] != null) {
-        if (chartMatrix[i][0].getChart() instanceof XYChart) {
-          if (chartWidth >= 100) {
-            ((XYChart) chartMatrix[i][0].getChart()).getStyler()
-              .setYAxisTitleVisible(true);
-            if (chartWidth > 100) {
-              ((XYChart) chartMatrix[i][0].getChart()).getStyler()
-                .setYAxisTicksVisible(true);
-            }
-          }
-        } else {
-          if (chartWidth >= 100) {
-            ((CategoryChart) chartMatrix[i][0].getChart()).getStyler()
-              .setYAxisTitleVisible(true);
-            if (chartWidth > 100 && i == 0) {
-              ((CategoryChart) chartMatrix[i][0].getChart()).getStyler()
-                .setYAxisTicksVisible(true);
-            }
-          }
-        }
-      }
+
+    // submitted individually, so that cells not yet started can be dropped if
+    // the build is interrupted
+    List<Future<Cell>> futures = new ArrayList<>();
+    for (Callable<Cell> task : tasks) {
+      futures.add(CELL_POOL.submit(task));
     }
 
-    for (int i = 0; i < instances.numAttributes(); i++) {
-      int yl = instances.numAttributes() - 1;
-      if (chartMatrix[yl][i] != null) {
-        if (chartMatrix[yl][i].getChart() instanceof XYChart) {
-          if (chartWidth >= 100) {
-            ((XYChart) chartMatrix[yl][i].getChart()).getStyler()
-              .setXAxisTitleVisible(true);
-            if (chartWidth > 100) {
-              ((XYChart) chartMatrix[yl][i].getChart()).getStyler()
-                .setXAxisTicksVisible(true);
-            }
-          }
-        } else {
-          if (chartWidth >= 100) {
-            ((CategoryChart) chartMatrix[yl][i].getChart()).getStyler()
-              .setXAxisTitleVisible(true);
-            if (chartWidth > 100 && i == yl) {
-              ((CategoryChart) chartMatrix[yl][i].getChart()).getStyler()
-                .setXAxisTicksVisible(true);
-            }
-          }
+    Cell[][] cells = new Cell[numAtts][numAtts];
+    for (Future<Cell> f : futures) {
+      Cell cell;
+      try {
+        cell = f.get();
+      } catch (InterruptedException e) {
+        for (Future<Cell> toCancel : futures) {
+          toCancel.cancel(false);
         }
+        Thread.currentThread().interrupt();
+        throw new CancellationException("Interrupted while building matrix");
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
       }
+      cells[cell.m_y][cell.m_x] = cell;
+      chartMatrix[cell.m_y][cell.m_x] = new XChartPanel(cell.m_chart);
     }
 
+    // final (serial) assembly of the Swing components
     JPanel chartP = new JPanel(new GridLayout(numToPlot, numToPlot));
     JPanel[][] chartHolders = new JPanel[numToPlot][numToPlot];
     for (int y = 0; y < numToPlot; y++) {
@@ -276,17 +214,12 @@ public class XChartMatrix {
     }
 
     int yy = 0;
-    for (int y = 0; y < instances.numAttributes(); y++) {
+    for (int y = 0; y < numAtts; y++) {
       int xx = 0;
       boolean addSome = false;
-      for (int x = 0; x < instances.numAttributes(); x++) {
-        if (chartMatrix[y][x] != null) {
-          if (image) {
-            chartHolders[yy][xx].add(new JLabel(new ImageIcon(BitmapEncoder
-              .getBufferedImage(chartMatrix[y][x].getChart()))));
-          } else {
-            chartHolders[yy][xx].add(chartMatrix[y][x], BorderLayout.CENTER);
-          }
+      for (int x = 0; x < numAtts; x++) {
+        if (cells[y][x] != null) {
+          chartHolders[yy][xx].add(chartMatrix[y][x], BorderLayout.CENTER);
           xx++;
           addSome = true;
         }
@@ -300,42 +233,279 @@ public class XChartMatrix {
     return finalP;
   }
 
-  protected static List<Instances> getPerClassData(Instances data) {
-    List<Instances> perC = new ArrayList<Instances>();
-    for (int i = 0; i < data.classAttribute().numValues(); i++) {
-      Instances c = new Instances(data, 0);
-      perC.add(c);
+  /**
+   * Get a matrix of images that only builds and rasterizes the cells that are
+   * scrolled into view (plus a margin), rather than all of them up front.
+   *
+   * @param instances the data
+   * @param stats summary stats and columns for the data
+   * @param partition the data split per class value (null if there is no
+   *          nominal class)
+   * @param chartWidth width/height of each cell
+   * @param markerSize size of the scatter plot markers
+   * @param lowerTriangle true if only the lower triangle is to be shown
+   * @param density true to draw scatter cells as binned density plots
+   * @return a scrollable, virtualized matrix
+   */
+  protected static JPanel getVirtualMatrix(final Instances instances,
+    final MatrixStats stats, final ClassPartition partition,
+    final int chartWidth, final int markerSize, final boolean lowerTriangle,
+    final boolean density) {
+
+    final int numAtts = instances.numAttributes();
+    final List<Integer> plotted = new ArrayList<Integer>();
+    for (int i = 0; i < numAtts; i++) {
+      if (!stats.allMissing(i)) {
+        plotted.add(i);
+      }
+    }
+
+    VirtualChartMatrix.CellRenderer renderer =
+      new VirtualChartMatrix.CellRenderer() {
+        @Override
+        public boolean hasCell(int row, int col) {
+          return !lowerTriangle || col <= row;
+        }
+
+        @Override
+        public BufferedImage renderCell(int row, int col) {
+          int x = plotted.get(col);
+          int y = plotted.get(row);
+          Chart chart =
+            buildChart(instances, stats, partition, x,
+              y, chartWidth, markerSize, density);
+          styleEdgeChart(chart, x, y, numAtts, chartWidth);
+          return BitmapEncoder.getBufferedImage(chart);
+        }
+      };
+
+    return new VirtualChartMatrix(plotted.size(), plotted.size(), chartWidth,
+      renderer, CELL_POOL);
+  }
+
+  /**
+   * Build the chart for one cell of the matrix
+   *
+   * @param instances the data
+   * @param stats summary stats and columns for the data
+   * @param partition the data split per class value (null if there is no
+   *          nominal class)
+   * @param x the index of the attribute on the x axis
+   * @param y the index of the attribute on the y axis
+   * @param chartWidth width/height of the chart
+   * @param markerSize size of the scatter plot markers
+   * @param density true to draw a binned density plot rather than a scatter
+   *          plot
+   * @return the chart
+   */
+  protected static Chart buildChart(Instances instances, MatrixStats stats,
+    ClassPartition partition, int x, int y, int chartWidth, int markerSize,
+    boolean density) {
+
+    // the partition (rather than the instances) says what the class is, as the
+    // class can be changed while cells are still being built
+    int classIndex = partition != null ? partition.classIndex() : -1;
+    int numBins =
+      Math.max(1, Math.min(
+        (int) (Math.log(instances.numInstances()) / Math.log(2.0)), 10));
+    Attribute yy = instances.attribute(y);
+    Attribute xx = instances.attribute(x);
+
+    Chart chart = null;
+    double xmin = xx.isNumeric() ? stats.axisMin(x) : 0;
+    double xmax = xx.isNumeric() ? stats.axisMax(x) : xx.numValues() - 1;
+    double ymin = yy.isNumeric() ? stats.axisMin(y) : 0;
+    double ymax = yy.isNumeric() ? stats.axisMax(y) : yy.numValues() - 1;
+    if (x == y && xmax - xmin > 0) {
+      chart =
+        new CategoryChartBuilder().width(chartWidth).height(chartWidth)
+          .xAxisTitle(xx.name()).yAxisTitle(xx.name()).build();
+      if (xx.isNumeric()) {
+        // histograms (per class?)
+        ((CategoryChart) chart).getStyler().setAvailableSpaceFill(0.96);
+        ((CategoryChart) chart).getStyler().setAxisTitlesVisible(false);
+        ((CategoryChart) chart).getStyler().setChartTitleVisible(false);
+        ((CategoryChart) chart).getStyler().setLegendVisible(false);
+        if (chartWidth <= 100) {
+          ((CategoryChart) chart).getStyler().setAxisTicksVisible(false);
+        }
+
+        if (classIndex >= 0) {
+          // all per class counts in one pass over the column
+          double[] centers = HistogramBinner.binCenters(numBins, xmin, xmax);
+          double[][] counts =
+            HistogramBinner.binCounts(stats.column(x),
+              stats.column(classIndex), partition.numClasses(), numBins, xmin,
+              xmax);
+          for (int k = 0; k < partition.numClasses(); k++) {
+            if (partition.size(k) > 0) {
+              ((CategoryChart) chart).addSeries(instances
+                .attribute(classIndex).value(k), centers, counts[k]);
+            }
+          }
+        } else if (stats.streamingStats(x) != null) {
+          // estimate the histogram of the full stream from the sketch
+          StreamingStats s = stats.streamingStats(x);
+          numBins =
+            (int) Math.max(1,
+              Math.min(Math.log(s.count()) / Math.log(2.0), 10));
+          ((CategoryChart) chart).addSeries("a",
+            HistogramBinner.binCenters(numBins, xmin, xmax), s.getSketch()
+              .binCounts(numBins, xmin, xmax));
+        } else {
+          double[][] counts =
+            HistogramBinner.binCounts(stats.column(x), null, 1, numBins, xmin,
+              xmax);
+          ((CategoryChart) chart).addSeries("a",
+            HistogramBinner.binCenters(numBins, xmin, xmax), counts[0]);
+        }
+      } else {
+        // TODO stacked by class distribution
+        // nominal bar chart
+        List<String> categories = new ArrayList<String>();
+        List<Number> categoryCounts = new ArrayList<Number>();
+        for (int k = 0; k < xx.numValues(); k++) {
+          categories.add(xx.value(k));
+          categoryCounts.add(stats.nominalCounts(x)[k]);
+        }
+        ((CategoryChart) chart).addSeries(xx.name(), categories,
+          categoryCounts);
+        ((CategoryChart) chart).getStyler().setLegendVisible(false);
+        ((CategoryChart) chart).getStyler().setAxisTitlesVisible(false);
+        if (chartWidth <= 100) {
+          ((CategoryChart) chart).getStyler().setAxisTicksVisible(false);
+        }
+      }
+    } else {
+      chart =
+        density ? new DensityChart(chartWidth, chartWidth)
+          : new XYChartBuilder().width(chartWidth).height(chartWidth).build();
+      ((XYChart) chart).getStyler().setDefaultSeriesRenderStyle(
+        XYSeries.XYSeriesRenderStyle.Scatter);
+      ((XYChart) chart).getStyler().setAxisTitlesVisible(false);
+      ((XYChart) chart).getStyler().setChartTitleVisible(false);
+      ((XYChart) chart).getStyler().setXAxisMin(xmin);
+      ((XYChart) chart).getStyler().setXAxisMax(xmax);
+      ((XYChart) chart).getStyler().setYAxisMin(ymin);
+      ((XYChart) chart).getStyler().setYAxisMax(ymax);
+      ((XYChart) chart).getStyler().setLegendVisible(false);
+      ((XYChart) chart).getStyler().setMarkerSize(markerSize);
+      ((XYChart) chart).getStyler().setXAxisTicksVisible(false);
+      ((XYChart) chart).getStyler().setYAxisTicksVisible(false);
+
+      chart.setYAxisTitle(yy.name());
+      chart.setXAxisTitle(xx.name());
+
+      if (density) {
+        ((DensityChart) chart).setDensity(getDensityImage(instances, stats,
+          partition, x, y, xmin, xmax, ymin, ymax, ((XYChart) chart).getStyler()
+            .getSeriesColors()));
+      } else if (classIndex >= 0) {
+        for (int k = 0; k < partition.numClasses(); k++) {
+          if (partition.size(k) > 0) {
+            double[] xdata = partition.slice(stats.column(x), k);
+            double[] ydata = partition.slice(stats.column(y), k);
+            ((XYChart) chart).addSeries(instances.attribute(classIndex).value(k),
+              xdata, ydata);
+          }
+        }
+      } else {
+        double[] xdata = stats.column(x);
+        double[] ydata = stats.column(y);
+        ((XYChart) chart).addSeries("a", xdata, ydata);
+      }
     }
 
-    for (int i = 0; i < data.numInstances(); i++) {
-      if (!data.instance(i).classIsMissing()) {
-        perC.get((int) data.instance(i).classValue()).add(data.instance(i));
+    return chart;
+  }
+
+  /**
+   * Bin the points of a scatter cell into a shaded density grid
+   *
+   * @param instances the data
+   * @param stats summary stats and columns for the data
+   * @param partition the data split per class value (null if there is no
+   *          nominal class)
+   * @param x the index of the attribute on the x axis
+   * @param y the index of the attribute on the y axis
+   * @param xmin the minimum of the x axis
+   * @param xmax the maximum of the x axis
+   * @param ymin the minimum of the y axis
+   * @param ymax the maximum of the y axis
+   * @param seriesColors the colors that the chart assigns to its series
+   * @return the shaded grid, one pixel per bin
+   */
+  protected static BufferedImage getDensityImage(Instances instances,
+    MatrixStats stats, ClassPartition partition, int x, int y, double xmin,
+    double xmax, double ymin, double ymax, Color[] seriesColors) {
+    double[] classes = null;
+    Color[] classColors = seriesColors;
+    if (partition != null) {
+      classes = stats.column(partition.classIndex());
+      // scatter plots only get a series for non-empty classes, so hand out
+      // the colors the same way
+      classColors = new Color[partition.numClasses()];
+      int s = 0;
+      for (int k = 0; k < partition.numClasses(); k++) {
+        classColors[k] = seriesColors[s % seriesColors.length];
+        if (partition.size(k) > 0) {
+          s++;
+        }
       }
     }
 
-    return perC;
+    DensityGrid grid =
+      new DensityGrid(DensityGrid.DEFAULT_GRID_SIZE, xmin, xmax, ymin, ymax,
+        classColors.length);
+    grid.addAll(stats.column(x), stats.column(y), classes);
+
+    return grid.toImage(classColors);
   }
 
-  protected static double[][] getDataForClass(int x, int y, int classValIndex,
-    Instances instances) {
-    List<Double> xx = new ArrayList<Double>();
-    List<Double> yy = new ArrayList<Double>();
-    for (int i = 0; i < instances.numInstances(); i++) {
-      if (!instances.instance(i).isMissing(x)
-        && !instances.instance(i).isMissing(y)
-        && !instances.instance(i).classIsMissing()) {
-        if (instances.instance(i).classValue() == classValIndex) {
-          xx.add(instances.instance(i).value(x));
-          yy.add(instances.instance(i).value(y));
+  /**
+   * Turn on axis titles/ticks for charts in the first column (y axis) and the
+   * last row (x axis) of the matrix
+   *
+   * @param chart the chart to style
+   * @param x the index of the attribute on the x axis
+   * @param y the index of the attribute on the y axis
+   * @param numAtts the number of attributes in the data
+   * @param chartWidth width/height of the chart
+   */
+  protected static void styleEdgeChart(Chart chart, int x, int y,
+    int numAtts, int chartWidth) {
+    if (chartWidth < 100) {
+      return;
+    }
+
+    int yl = numAtts - 1;
+    if (x == 0) {
+      if (chart instanceof XYChart) {
+        ((XYChart) chart).getStyler().setYAxisTitleVisible(true);
+        if (chartWidth > 100) {
+          ((XYChart) chart).getStyler().setYAxisTicksVisible(true);
+        }
+      } else {
+        ((CategoryChart) chart).getStyler().setYAxisTitleVisible(true);
+        if (chartWidth > 100 && y == 0) {
+          ((CategoryChart) chart).getStyler().setYAxisTicksVisible(true);
         }
       }
     }
-    double[][] result = new double[2][xx.size()];
-    for (int i = 0; i < xx.size(); i++) {
-      result[0][i] = xx.get(i);
-      result[1][i] = yy.get(i);
+
+    if (y == yl) {
+      if (chart instanceof XYChart) {
+        ((XYChart) chart).getStyler().setXAxisTitleVisible(true);
+        if (chartWidth > 100) {
+          ((XYChart) chart).getStyler().setXAxisTicksVisible(true);
+        }
+      } else {
+        ((CategoryChart) chart).getStyler().setXAxisTitleVisible(true);
+        if (chartWidth > 100 && x == yl) {
+          ((CategoryChart) chart).getStyler().setXAxisTicksVisible(true);
+        }
+      }
     }
-    return result;
   }
 
   public static void main(String[] args) {
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.pentaho.dm.commons.ArffMeta;
+
+/**
+ * Tests for ColumnarSample
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class ColumnarSampleTest {
+
+  protected static ArffMeta[] fields() {
+    return new ArffMeta[] { new ArffMeta( "n", 1, ArffMeta.NUMERIC ), null, new ArffMeta( "s", 2, ArffMeta.NOMINAL ) };
+  }
+
+  protected static void fill( ColumnarSample sample, int rows ) {
+    for ( int i = 0; i < rows; i++ ) {
+      sample.ensureSlot( i );
+      sample.setNumeric( 0, i, i );
+      sample.setCode( 2, i, i % 7 );
+    }
+  }
+
+  @Test public void testLargeSampleSizeStartsSmall() {
+    ColumnarSample sample = new ColumnarSample( fields(), 1000000 );
+    assertEquals( ColumnarSample.DEFAULT_CAPACITY, sample.getNumericColumn( 0 ).length );
+    assertEquals( ColumnarSample.DEFAULT_CAPACITY, sample.getCodeColumn( 2 ).length );
+    assertNull( sample.getNumericColumn( 1 ) );
+    assertNull( sample.getCodeColumn( 1 ) );
+    assertEquals( 0, sample.size() );
+  }
+
+  @Test public void testGrowsUpToSampleSize() {
+    int k = 5000;
+    ColumnarSample sample = new ColumnarSample( fields(), k );
+    fill( sample, k );
+    assertEquals( k, sample.size() );
+    // doubled from 1024, but never past k
+    assertEquals( k, sample.getNumericColumn( 0 ).length );
+    assertEquals( k, sample.getCodeColumn( 2 ).length );
+    for ( int i = 0; i < k; i++ ) {
+      assertEquals( i, sample.getNumericColumn( 0 )[i], 0 );
+      assertEquals( i % 7, sample.getCodeColumn( 2 )[i] );
+    }
+  }
+
+  @Test public void testSmallSampleSize() {
+    ColumnarSample sample = new ColumnarSample( fields(), 10 );
+    assertEquals( 10, sample.getNumericColumn( 0 ).length );
+    fill( sample, 10 );
+    assertEquals( 10, sample.size() );
+  }
+
+  @Test public void testUnbounded() {
+    ColumnarSample sample = new ColumnarSample( fields(), 0 );
+    fill( sample, 10000 );
+    assertEquals( 10000, sample.size() );
+    assertTrue( sample.getNumericColumn( 0 ).length >= 10000 );
+  }
+
+  @Test public void testCopies() {
+    ColumnarSample sample = new ColumnarSample( fields(), 0 );
+    fill( sample, 100 );
+
+    ColumnarSample copy = sample.copy();
+    assertEquals( 100, copy.size() );
+    assertEquals( 99, copy.getNumericColumn( 0 )[99], 0 );
+
+    // evenly spaced rows
+    ColumnarSample thinned = sample.copy( 10 );
+    assertEquals( 10, thinned.size() );
+    for ( int i = 0; i < 10; i++ ) {
+      assertEquals( i * 10, thinned.getNumericColumn( 0 )[i], 0 );
+      assertEquals( ( i * 10 ) % 7, thinned.getCodeColumn( 2 )[i] );
+    }
+    assertEquals( 100, sample.copy( 1000 ).size() );
+  }
+}
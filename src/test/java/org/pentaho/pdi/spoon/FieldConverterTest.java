@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * Tests for FieldConverter
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class FieldConverterTest {
+
+  protected static double convert( FieldConverter.NumericConverter converter, Object value ) throws Exception {
+    double[] column = { -1, -1, -1 };
+    converter.convert( value, column, 1 );
+    assertEquals( -1, column[0], 0 );
+    assertEquals( -1, column[2], 0 );
+
+    return column[1];
+  }
+
+  @Test public void testConvertersMatchFieldTypes() {
+    assertTrue( FieldConverter.create( new ValueMetaNumber( "n" ) ) instanceof FieldConverter.NumericConverter );
+    assertTrue( FieldConverter.create( new ValueMetaDate( "d" ) ) instanceof FieldConverter.NumericConverter );
+    assertTrue( FieldConverter.create( new ValueMetaString( "s" ) ) instanceof FieldConverter.NominalConverter );
+    assertNull( FieldConverter.create( new ValueMetaBinary( "b" ) ) );
+
+    assertNull( FieldConverter.createNumeric( new ValueMetaString( "s" ) ) );
+    assertNull( FieldConverter.createNominal( new ValueMetaInteger( "i" ) ) );
+    assertNull( FieldConverter.createNominal( new ValueMetaBinary( "b" ) ) );
+  }
+
+  @Test public void testNumber() throws Exception {
+    FieldConverter.NumericConverter converter = FieldConverter.createNumeric( new ValueMetaNumber( "n" ) );
+    assertEquals( -2.5, convert( converter, -2.5 ), 0 );
+    assertTrue( Double.isNaN( convert( converter, null ) ) );
+  }
+
+  @Test public void testInteger() throws Exception {
+    FieldConverter.NumericConverter converter = FieldConverter.createNumeric( new ValueMetaInteger( "i" ) );
+    assertEquals( 42, convert( converter, 42L ), 0 );
+    assertEquals( Long.MIN_VALUE, convert( converter, Long.MIN_VALUE ), 0 );
+    assertTrue( Double.isNaN( convert( converter, null ) ) );
+  }
+
+  @Test public void testBigNumber() throws Exception {
+    FieldConverter.NumericConverter converter = FieldConverter.createNumeric( new ValueMetaBigNumber( "b" ) );
+    assertEquals( 1234.5678, convert( converter, new BigDecimal( "1234.5678" ) ), 0 );
+    assertEquals( 1e30, convert( converter, new BigDecimal( "1000000000000000000000000000000" ) ), 1e15 );
+    assertEquals( -0.1, convert( converter, new BigDecimal( "-0.1" ) ), 0 );
+    assertTrue( Double.isNaN( convert( converter, null ) ) );
+  }
+
+  @Test public void testBoolean() throws Exception {
+    FieldConverter.NumericConverter converter = FieldConverter.createNumeric( new ValueMetaBoolean( "b" ) );
+    assertEquals( 1, convert( converter, Boolean.TRUE ), 0 );
+    assertEquals( 0, convert( converter, Boolean.FALSE ), 0 );
+    assertTrue( Double.isNaN( convert( converter, null ) ) );
+  }
+
+  @Test public void testDate() throws Exception {
+    FieldConverter.NumericConverter converter = FieldConverter.createNumeric( new ValueMetaDate( "d" ) );
+    assertEquals( 1234567890123L, convert( converter, new Date( 1234567890123L ) ), 0 );
+    assertTrue( Double.isNaN( convert( converter, null ) ) );
+  }
+
+  @Test public void testBinaryStringStorage() throws Exception {
+    // values that aren't plain java objects go through the value meta
+    FieldConverter.NumericConverter numeric = FieldConverter.createNumeric( new ValueMetaInteger( "i" ) {
+      @Override public boolean isStorageNormal() {
+        return false;
+      }
+
+      @Override public Long getInteger( Object value ) {
+        return Long.valueOf( new String( (byte[]) value ) );
+      }
+    } );
+    assertEquals( 17, convert( numeric, "17".getBytes() ), 0 );
+    assertTrue( Double.isNaN( convert( numeric, null ) ) );
+
+    FieldConverter.NominalConverter nominal = FieldConverter.createNominal( new ValueMetaString( "s" ) {
+      @Override public boolean isStorageNormal() {
+        return false;
+      }
+
+      @Override public String getString( Object value ) {
+        return new String( (byte[]) value );
+      }
+    } );
+    assertEquals( "abc", nominal.toKey( "abc".getBytes() ) );
+    assertNull( nominal.toKey( new byte[0] ) );
+  }
+
+  @Test public void testString() throws Exception {
+    FieldConverter.NominalConverter converter = FieldConverter.createNominal( new ValueMetaString( "s" ) );
+    assertEquals( "abc", converter.toKey( "abc" ) );
+    assertEquals( " ", converter.toKey( " " ) );
+    // kettle treats empty strings as null
+    assertNull( converter.toKey( "" ) );
+    assertNull( converter.toKey( null ) );
+  }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for ReservoirSampler
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class ReservoirSamplerTest {
+
+  /**
+   * Run a stream of n rows through a sampler, recording the row number held in
+   * each slot of the reservoir
+   */
+  protected static int[] sample( int n, int k, long seed ) {
+    ReservoirSampler sampler = new ReservoirSampler( k, new Random( seed ) );
+    int[] reservoir = new int[Math.min( n, k )];
+    for ( int row = 0; row < n; row++ ) {
+      int slot = sampler.offer();
+      if ( slot >= 0 ) {
+        assertTrue( "slot out of range: " + slot, slot < k );
+        reservoir[slot] = row;
+      }
+    }
+    assertEquals( n, sampler.getRowsSeen() );
+
+    return reservoir;
+  }
+
+  @Test public void testFillsReservoirInOrder() {
+    ReservoirSampler sampler = new ReservoirSampler( 10, new Random( 1 ) );
+    for ( int i = 0; i < 10; i++ ) {
+      assertEquals( i, sampler.offer() );
+    }
+    assertEquals( 10, sampler.getK() );
+  }
+
+  @Test public void testShortStreamIsKeptWhole() {
+    int[] reservoir = sample( 7, 10, 1 );
+    for ( int i = 0; i < reservoir.length; i++ ) {
+      assertEquals( i, reservoir[i] );
+    }
+  }
+
+  @Test public void testSampleHasNoDuplicates() {
+    int[] reservoir = sample( 100000, 1000, 42 );
+    boolean[] seen = new boolean[100000];
+    for ( int row : reservoir ) {
+      assertTrue( "row sampled twice: " + row, !seen[row] );
+      seen[row] = true;
+    }
+  }
+
+  @Test public void testSameSeedSameSample() {
+    int[] a = sample( 50000, 100, 7 );
+    int[] b = sample( 50000, 100, 7 );
+    for ( int i = 0; i < a.length; i++ ) {
+      assertEquals( a[i], b[i] );
+    }
+  }
+
+  @Test public void testInclusionIsUniform() {
+    // every row of the stream should end up in the reservoir with
+    // probability k / n
+    int n = 200;
+    int k = 20;
+    int trials = 20000;
+    int[] counts = new int[n];
+    for ( int t = 0; t < trials; t++ ) {
+      for ( int row : sample( n, k, t ) ) {
+        counts[row]++;
+      }
+    }
+
+    double expected = (double) trials * k / n;
+    double sd = Math.sqrt( expected * ( 1.0 - (double) k / n ) );
+    double chiSquared = 0;
+    for ( int i = 0; i < n; i++ ) {
+      assertEquals( "row " + i, expected, counts[i], 5 * sd );
+      chiSquared += ( counts[i] - expected ) * ( counts[i] - expected ) / expected;
+    }
+    // n - 1 degrees of freedom - mean 199, sd about 20
+    assertTrue( "chi squared " + chiSquared, chiSquared < 300 );
+  }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.gui.visualize.StreamingStats;
+
+/**
+ * Tests for SampleCache
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SampleCacheTest {
+
+  protected static File tempDir() throws IOException {
+    return Files.createTempDirectory( "sample-cache-test" ).toFile();
+  }
+
+  protected static void delete( File dir ) {
+    File[] files = dir.listFiles();
+    if ( files != null ) {
+      for ( File f : files ) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  protected static String longValue() {
+    // longer than the 64K that writeUTF() can cope with
+    char[] chars = new char[70000];
+    Arrays.fill( chars, '\u00e9' );
+    return new String( chars );
+  }
+
+  protected static Instances sample( int rows ) {
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add( new Attribute( "n" ) );
+    atts.add( new Attribute( "s", Arrays.asList( "a", longValue() ) ) );
+    atts.add( new Attribute( "d", "yyyy-MM-dd" ) );
+    Instances data = new Instances( "test", atts, rows );
+    for ( int i = 0; i < rows; i++ ) {
+      double[] vals = new double[] { i * 0.5, i % 2, i * 86400000.0 };
+      if ( i % 5 == 0 ) {
+        vals[0] = Utils.missingValue();
+      }
+      data.add( new DenseInstance( 1.0, vals ) );
+    }
+    return data;
+  }
+
+  @Test public void testRoundTrip() throws IOException {
+    File dir = tempDir();
+    try {
+      SampleCache cache = new SampleCache( dir, Long.MAX_VALUE );
+      Instances data = sample( 100 );
+      StreamingStats[] stats = new StreamingStats[] { new StreamingStats(), null, null };
+      for ( int i = 0; i < 1000; i++ ) {
+        stats[0].update( i );
+      }
+      String key = SampleCache.key( "a", "b" );
+      assertFalse( cache.contains( key ) );
+      assertNull( cache.get( key ) );
+
+      cache.put( key, data, stats );
+      assertTrue( cache.contains( key ) );
+      SampleCache.Entry entry = cache.get( key );
+      assertNotNull( entry );
+
+      Instances read = entry.getData();
+      assertEquals( data.relationName(), read.relationName() );
+      assertEquals( data.numAttributes(), read.numAttributes() );
+      assertEquals( data.numInstances(), read.numInstances() );
+      assertTrue( read.attribute( 0 ).isNumeric() );
+      assertTrue( read.attribute( 1 ).isNominal() );
+      assertEquals( longValue(), read.attribute( 1 ).value( 1 ) );
+      assertTrue( read.attribute( 2 ).isDate() );
+      assertEquals( "yyyy-MM-dd", read.attribute( 2 ).getDateFormat() );
+      for ( int i = 0; i < data.numInstances(); i++ ) {
+        assertTrue( Arrays.equals( data.instance( i ).toDoubleArray(), read.instance( i ).toDoubleArray() ) );
+      }
+
+      StreamingStats[] readStats = entry.getStreamStats();
+      assertEquals( 1000, readStats[0].count() );
+      assertEquals( stats[0].mean(), readStats[0].mean(), 0 );
+      assertEquals( stats[0].max(), readStats[0].max(), 0 );
+      assertNull( readStats[1] );
+    } finally {
+      delete( dir );
+    }
+  }
+
+  @Test public void testEvictsLeastRecentlyUsed() throws IOException {
+    File dir = tempDir();
+    try {
+      // find out how big one entry is
+      new SampleCache( dir, Long.MAX_VALUE ).put( "size", sample( 50 ), null );
+      long size = new File( dir, "size" + SampleCache.EXTENSION ).length();
+      delete( dir );
+      dir.mkdirs();
+
+      // room for two entries, but not three
+      SampleCache cache = new SampleCache( dir, size * 5 / 2 );
+      cache.put( "a", sample( 50 ), null );
+      cache.put( "b", sample( 50 ), null );
+      long now = System.currentTimeMillis();
+      new File( dir, "a" + SampleCache.EXTENSION ).setLastModified( now - 20000 );
+      new File( dir, "b" + SampleCache.EXTENSION ).setLastModified( now - 10000 );
+
+      // reading a makes b the least recently used
+      assertNotNull( cache.get( "a" ) );
+      cache.put( "c", sample( 50 ), null );
+
+      assertTrue( cache.contains( "a" ) );
+      assertFalse( cache.contains( "b" ) );
+      assertTrue( cache.contains( "c" ) );
+    } finally {
+      delete( dir );
+    }
+  }
+}
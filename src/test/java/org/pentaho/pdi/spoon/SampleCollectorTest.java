@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import weka.core.Instances;
+
+/**
+ * Tests for SampleCollector - mainly the weighted merge of the reservoirs of
+ * several collectors
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SampleCollectorTest {
+
+  protected static RowMetaInterface idMeta() {
+    RowMetaInterface meta = new RowMeta();
+    meta.addValueMeta( new ValueMetaInteger( "id" ) );
+
+    return meta;
+  }
+
+  /**
+   * Create a collector and feed it the rows with ids from (inclusive) to to
+   * (exclusive)
+   */
+  protected static SampleCollector collect( int k, long seed, boolean firstK, long from, long to )
+    throws Exception {
+    SampleCollector collector = new SampleCollector( k, seed, firstK, 50 );
+    RowMetaInterface meta = idMeta();
+    for ( long id = from; id < to; id++ ) {
+      collector.rowWrittenEvent( meta, new Object[] { id } );
+    }
+
+    return collector;
+  }
+
+  protected static int[] ids( Instances data ) {
+    int[] ids = new int[data.numInstances()];
+    for ( int i = 0; i < ids.length; i++ ) {
+      ids[i] = (int) data.instance( i ).value( 0 );
+    }
+
+    return ids;
+  }
+
+  protected static void assertDistinct( int[] ids ) {
+    int[] sorted = ids.clone();
+    Arrays.sort( sorted );
+    for ( int i = 1; i < sorted.length; i++ ) {
+      assertTrue( "row merged twice: " + sorted[i], sorted[i] != sorted[i - 1] );
+    }
+  }
+
+  @Test public void testNothingSeen() throws Exception {
+    List<SampleCollector> collectors = new ArrayList<SampleCollector>();
+    collectors.add( new SampleCollector( 10, 1, false, 50 ) );
+    assertNull( SampleCollector.mergeToInstances( collectors, 10, false, 50, new Random( 1 ) ) );
+  }
+
+  @Test public void testMergeSize() throws Exception {
+    List<SampleCollector> collectors = new ArrayList<SampleCollector>();
+    collectors.add( collect( 100, 1, false, 0, 3000 ) );
+    collectors.add( collect( 100, 2, false, 3000, 4000 ) );
+
+    Instances data = SampleCollector.mergeToInstances( collectors, 100, false, 50, new Random( 1 ) );
+    assertEquals( 1, data.numAttributes() );
+    assertEquals( 100, data.numInstances() );
+    assertDistinct( ids( data ) );
+
+    // can't merge more rows than the reservoirs hold
+    data = SampleCollector.mergeToInstances( collectors, 500, false, 50, new Random( 1 ) );
+    assertEquals( 200, data.numInstances() );
+    assertDistinct( ids( data ) );
+  }
+
+  @Test public void testMergeIsUniform() throws Exception {
+    // one stream is three times the length of the other, so should supply
+    // three quarters of the merged sample - and every row of the union should
+    // be equally likely to be picked
+    int trials = 500;
+    int k = 100;
+    int[] buckets = new int[8];
+    for ( int t = 0; t < trials; t++ ) {
+      List<SampleCollector> collectors = new ArrayList<SampleCollector>();
+      collectors.add( collect( k, 2 * t, false, 0, 3000 ) );
+      collectors.add( collect( k, 2 * t + 1, false, 3000, 4000 ) );
+      Instances data = SampleCollector.mergeToInstances( collectors, k, false, 50, new Random( t ) );
+      assertEquals( k, data.numInstances() );
+      for ( int id : ids( data ) ) {
+        buckets[id / 500]++;
+      }
+    }
+
+    double expected = (double) trials * k / buckets.length;
+    for ( int i = 0; i < buckets.length; i++ ) {
+      assertEquals( "ids " + ( i * 500 ) + " to " + ( i * 500 + 499 ), expected, buckets[i], expected * 0.05 );
+    }
+  }
+
+  @Test public void testNoOtherValueWhenNothingCollapsed() throws Exception {
+    // a string field with exactly as many distinct values as the heavy hitters
+    // sketch has counters fills the sketch, but nothing gets collapsed
+    int distinct = 2 * SampleCollector.SKETCH_CAPACITY_FACTOR;
+    RowMetaInterface meta = new RowMeta();
+    meta.addValueMeta( new ValueMetaString( "s" ) );
+    SampleCollector collector = new SampleCollector( 1000, 1, false, 2 );
+    for ( int i = 0; i < 500; i++ ) {
+      collector.rowWrittenEvent( meta, new Object[] { "v" + ( i % distinct ) } );
+    }
+    assertEquals( distinct, collector.m_heavyHitters[0].size() );
+
+    List<SampleCollector> collectors = new ArrayList<SampleCollector>();
+    collectors.add( collector );
+    Instances data = SampleCollector.mergeToInstances( collectors, 1000, false, distinct, new Random( 1 ) );
+    assertEquals( distinct, data.attribute( 0 ).numValues() );
+    assertEquals( -1, data.attribute( 0 ).indexOfValue( SampleCollector.OTHER_LABEL ) );
+
+    // one more value and the least frequent ones get collapsed
+    collector.rowWrittenEvent( meta, new Object[] { "extra" } );
+    data = SampleCollector.mergeToInstances( collectors, 1000, false, distinct, new Random( 1 ) );
+    assertTrue( data.attribute( 0 ).indexOfValue( SampleCollector.OTHER_LABEL ) >= 0 );
+  }
+
+  @Test public void testFirstKRows() throws Exception {
+    List<SampleCollector> collectors = new ArrayList<SampleCollector>();
+    collectors.add( collect( 10, 1, true, 0, 100 ) );
+    assertEquals( 10, collectors.get( 0 ).getRowsSeen() );
+
+    Instances data = SampleCollector.mergeToInstances( collectors, 10, true, 50, new Random( 1 ) );
+    int[] ids = ids( data );
+    for ( int i = 0; i < ids.length; i++ ) {
+      assertEquals( i, ids[i] );
+    }
+  }
+
+  @Test public void testSnapshotIsCapped() throws Exception {
+    int n = SampleCollector.MAX_SNAPSHOT_ROWS * 2 + 1;
+    SampleCollector collector = collect( n, 1, false, 0, n );
+    SampleCollector snapshot = collector.snapshot();
+    assertEquals( SampleCollector.MAX_SNAPSHOT_ROWS, snapshot.m_sample.size() );
+
+    // still weighted by the full stream
+    assertEquals( n, snapshot.getRowsSeen() );
+    List<SampleCollector> snapshots = new ArrayList<SampleCollector>();
+    snapshots.add( snapshot );
+    Instances data = SampleCollector.mergeToInstances( snapshots, n, false, 50, new Random( 1 ) );
+    assertEquals( SampleCollector.MAX_SNAPSHOT_ROWS, data.numInstances() );
+    assertDistinct( ids( data ) );
+  }
+}
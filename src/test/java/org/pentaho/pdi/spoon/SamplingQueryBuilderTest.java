@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SQL emitted by SamplingQueryBuilder for each dialect. The
+ * dialect specific parts are tested directly, so no database connection (or
+ * Kettle environment) is needed.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SamplingQueryBuilderTest {
+
+  protected static final String SELECT = "SELECT a, b FROM t";
+
+  @Test public void testSourceTable() {
+    assertEquals( "t", SamplingQueryBuilder.source( "t", null ) );
+    assertEquals( "t", SamplingQueryBuilder.source( "t", "  " ) );
+  }
+
+  @Test public void testSourceQueryIsWrapped() {
+    assertEquals( "(SELECT * FROM t WHERE x > 1) pdi_vis_sample",
+        SamplingQueryBuilder.source( "ignored", " SELECT * FROM t WHERE x > 1 ;; " ) );
+  }
+
+  @Test public void testTrailingOrderBy() {
+    assertTrue( SamplingQueryBuilder.hasTrailingOrderBy( "SELECT * FROM t ORDER BY a DESC, b" ) );
+    assertTrue( SamplingQueryBuilder.hasTrailingOrderBy( "select * from t\norder  by coalesce(a, b);" ) );
+    assertTrue( SamplingQueryBuilder.hasTrailingOrderBy(
+        "SELECT a, ROW_NUMBER() OVER (ORDER BY b) r FROM t ORDER BY r" ) );
+    assertFalse( SamplingQueryBuilder.hasTrailingOrderBy( "SELECT * FROM t" ) );
+    assertFalse( SamplingQueryBuilder.hasTrailingOrderBy( "SELECT a, ROW_NUMBER() OVER (ORDER BY b) r FROM t" ) );
+    assertFalse( SamplingQueryBuilder.hasTrailingOrderBy( "SELECT * FROM (SELECT TOP 5 a FROM t ORDER BY a) x" ) );
+    assertFalse( SamplingQueryBuilder.hasTrailingOrderBy( "SELECT border_by FROM t" ) );
+  }
+
+  @Test public void testProjectAllFields() {
+    // the query is used as it is
+    String sql = "SELECT a, b, c FROM t ORDER BY a";
+    assertEquals( sql, SamplingQueryBuilder.projectQuery( "POSTGRESQL", "ignored", sql, null ) );
+    assertEquals( sql, SamplingQueryBuilder.projectQuery( "MSSQL", "ignored", sql, null ) );
+    assertEquals( "SELECT * from t", SamplingQueryBuilder.projectQuery( "MSSQL", "t", null, null ) );
+  }
+
+  @Test public void testProjectSomeFields() {
+    assertEquals( "SELECT a, b FROM t", SamplingQueryBuilder.projectQuery( "MSSQL", "t", "", "a, b" ) );
+    assertEquals( "SELECT a, b FROM (SELECT a, b, c FROM t ORDER BY a) pdi_vis_sample",
+        SamplingQueryBuilder.projectQuery( "POSTGRESQL", "t", "SELECT a, b, c FROM t ORDER BY a", "a, b" ) );
+    assertEquals( "SELECT a, b FROM (SELECT a, b, c FROM t) pdi_vis_sample",
+        SamplingQueryBuilder.projectQuery( "MSSQL", "t", "SELECT a, b, c FROM t", "a, b" ) );
+  }
+
+  @Test public void testOrderedQueryNotWrappedOnMSSQL() {
+    // SQL Server rejects ORDER BY in a derived table, so the query is left
+    // alone and the unwanted fields are dropped on the client
+    String sql = "SELECT a, b, c FROM t ORDER BY a";
+    assertEquals( sql, SamplingQueryBuilder.projectQuery( "MSSQL", "t", sql, "a, b" ) );
+    assertEquals( sql, SamplingQueryBuilder.projectQuery( "MSSQLNATIVE", "t", sql, "a, b" ) );
+    assertEquals( sql, SamplingQueryBuilder.projectQuery( "TERADATA", "t", sql, "a, b" ) );
+  }
+
+  @Test public void testRandomFunctions() {
+    assertEquals( "RANDOM()", SamplingQueryBuilder.randomFunction( "POSTGRESQL", 1 ) );
+    assertEquals( "RANDOM()", SamplingQueryBuilder.randomFunction( "SQLITE", 1 ) );
+    assertEquals( "RAND(42)", SamplingQueryBuilder.randomFunction( "MYSQL", 42 ) );
+    assertEquals( "RAND(42)", SamplingQueryBuilder.randomFunction( "MARIADB", 42 ) );
+    assertEquals( "RAND()", SamplingQueryBuilder.randomFunction( "H2", 42 ) );
+    assertEquals( "RAND()", SamplingQueryBuilder.randomFunction( "DB2", 42 ) );
+    assertEquals( "NEWID()", SamplingQueryBuilder.randomFunction( "MSSQL", 1 ) );
+    assertEquals( "NEWID()", SamplingQueryBuilder.randomFunction( "MSSQLNATIVE", 1 ) );
+    assertEquals( "DBMS_RANDOM.VALUE", SamplingQueryBuilder.randomFunction( "ORACLE", 1 ) );
+    assertNull( SamplingQueryBuilder.randomFunction( "SOMETHING_ELSE", 1 ) );
+    assertNull( SamplingQueryBuilder.randomFunction( "", 1 ) );
+  }
+
+  @Test public void testRandomSampleQueries() {
+    assertEquals( SELECT + " ORDER BY RANDOM() LIMIT 100",
+        SamplingQueryBuilder.limitQuery( "POSTGRESQL", SELECT, " ORDER BY RANDOM()", 100 ) );
+    assertEquals( SELECT + " ORDER BY RAND(7) LIMIT 100",
+        SamplingQueryBuilder.limitQuery( "MYSQL", SELECT, " ORDER BY RAND(7)", 100 ) );
+    assertEquals( "SELECT TOP 100 * FROM (" + SELECT + ") pdi_vis_sample_top ORDER BY NEWID()",
+        SamplingQueryBuilder.limitQuery( "MSSQL", SELECT, " ORDER BY NEWID()", 100 ) );
+    assertEquals( "SELECT * FROM (" + SELECT + " ORDER BY DBMS_RANDOM.VALUE) WHERE ROWNUM <= 100",
+        SamplingQueryBuilder.limitQuery( "ORACLE", SELECT, " ORDER BY DBMS_RANDOM.VALUE", 100 ) );
+    assertEquals( SELECT + " ORDER BY RAND() FETCH FIRST 100 ROWS ONLY",
+        SamplingQueryBuilder.limitQuery( "DB2", SELECT, " ORDER BY RAND()", 100 ) );
+  }
+
+  @Test public void testFirstRowsQueries() {
+    assertEquals( SELECT + " LIMIT 10", SamplingQueryBuilder.limitQuery( "H2", SELECT, "", 10 ) );
+    assertEquals( "SELECT TOP 10 * FROM (" + SELECT + ") pdi_vis_sample_top",
+        SamplingQueryBuilder.limitQuery( "TERADATA", SELECT, "", 10 ) );
+    assertEquals( "SELECT * FROM (" + SELECT + ") WHERE ROWNUM <= 10",
+        SamplingQueryBuilder.limitQuery( "ORACLE", SELECT, "", 10 ) );
+  }
+
+  @Test public void testBuildQueries() {
+    assertEquals( "SELECT a, b FROM t ORDER BY RAND(3) LIMIT 10",
+        SamplingQueryBuilder.buildQuery( "MYSQL", " LIMIT 10", "t", null, "a, b", 10, false, 3 ) );
+    assertEquals( "SELECT a, b FROM t LIMIT 10",
+        SamplingQueryBuilder.buildQuery( "MYSQL", " LIMIT 10", "t", null, "a, b", 10, true, 3 ) );
+    assertEquals( "SELECT * FROM (SELECT a FROM t) pdi_vis_sample SAMPLE 10",
+        SamplingQueryBuilder.buildQuery( "TERADATA", null, "t", "SELECT a FROM t", "*", 10, false, 3 ) );
+    assertEquals( "SELECT TOP 10 * FROM (SELECT a, b FROM t) pdi_vis_sample_top",
+        SamplingQueryBuilder.buildQuery( "MSSQL", "", "t", null, "a, b", 10, true, 3 ) );
+    assertNull( SamplingQueryBuilder.buildQuery( "SOMETHING_ELSE", "", "t", null, "*", 10, false, 3 ) );
+  }
+
+  @Test public void testOrderedQueryOnMSSQL() {
+    String sql = "SELECT a, b FROM t WHERE c > 1 ORDER BY a DESC";
+
+    // a random sample doesn't need the order, so it is dropped rather than
+    // put inside the derived table where SQL Server would reject it
+    assertEquals( "SELECT TOP 10 * FROM (SELECT * FROM (SELECT a, b FROM t WHERE c > 1) pdi_vis_sample) "
+        + "pdi_vis_sample_top ORDER BY NEWID()",
+        SamplingQueryBuilder.buildQuery( "MSSQL", "", "t", sql, "*", 10, false, 3 ) );
+    assertEquals( "SELECT * FROM (SELECT a, b FROM t WHERE c > 1) pdi_vis_sample SAMPLE 10",
+        SamplingQueryBuilder.buildQuery( "TERADATA", "", "t", sql, "*", 10, false, 3 ) );
+
+    // the first k rows depend on the order, so are left to the client
+    assertNull( SamplingQueryBuilder.buildQuery( "MSSQL", "", "t", sql, "*", 10, true, 3 ) );
+    assertNull( SamplingQueryBuilder.buildQuery( "MSSQLNATIVE", "", "t", sql, "*", 10, true, 3 ) );
+
+    // other dialects are happy with an ordered derived table
+    assertEquals( "SELECT * FROM (" + sql + ") pdi_vis_sample LIMIT 10",
+        SamplingQueryBuilder.buildQuery( "POSTGRESQL", " LIMIT 10", "t", sql, "*", 10, true, 3 ) );
+  }
+
+  @Test public void testStripTrailingOrderBy() {
+    assertEquals( "SELECT * FROM t", SamplingQueryBuilder.stripTrailingOrderBy( "SELECT * FROM t ORDER BY a;" ) );
+    assertEquals( "SELECT * FROM t", SamplingQueryBuilder.stripTrailingOrderBy( "SELECT * FROM t" ) );
+  }
+
+  @Test public void testUnknownDialect() {
+    // no LIMIT guessed for a dialect that may not support it
+    assertNull( SamplingQueryBuilder.limitQuery( "SOMETHING_ELSE", SELECT, "", 10 ) );
+  }
+}
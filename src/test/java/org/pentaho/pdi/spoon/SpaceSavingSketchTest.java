@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+
+package org.pentaho.pdi.spoon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for SpaceSavingSketch
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ */
+public class SpaceSavingSketchTest {
+
+  protected static Map<Object, Integer> tracked( SpaceSavingSketch sketch ) {
+    Map<Object, Integer> slots = new HashMap<Object, Integer>();
+    for ( int i = 0; i < sketch.size(); i++ ) {
+      slots.put( sketch.getKey( i ), i );
+    }
+
+    return slots;
+  }
+
+  @Test public void testExactBelowCapacity() {
+    SpaceSavingSketch sketch = new SpaceSavingSketch( 10 );
+    for ( int i = 0; i < 5; i++ ) {
+      for ( int j = 0; j <= i; j++ ) {
+        sketch.offer( "v" + i );
+      }
+    }
+    assertEquals( 5, sketch.size() );
+    assertEquals( 15, sketch.getTotal() );
+    assertFalse( sketch.hasEvicted() );
+
+    Map<Object, Integer> slots = tracked( sketch );
+    for ( int i = 0; i < 5; i++ ) {
+      int slot = slots.get( "v" + i );
+      assertEquals( i + 1, sketch.getCount( slot ) );
+      assertEquals( 0, sketch.getError( slot ) );
+    }
+  }
+
+  @Test public void testFullWithoutEviction() {
+    // exactly as many distinct values as counters - nothing is lost
+    SpaceSavingSketch sketch = new SpaceSavingSketch( 3 );
+    for ( int i = 0; i < 10; i++ ) {
+      sketch.offer( "v" + ( i % 3 ) );
+    }
+    assertEquals( 3, sketch.size() );
+    assertFalse( sketch.hasEvicted() );
+    assertFalse( sketch.copy().hasEvicted() );
+
+    // one more distinct value has to push one out
+    sketch.offer( "v3" );
+    assertEquals( 3, sketch.size() );
+    assertTrue( sketch.hasEvicted() );
+    assertTrue( sketch.copy().hasEvicted() );
+  }
+
+  @Test public void testErrorBounds() {
+    // skewed stream with many more distinct values than counters
+    int capacity = 50;
+    SpaceSavingSketch sketch = new SpaceSavingSketch( capacity );
+    Map<Object, Integer> truth = new HashMap<Object, Integer>();
+    Random r = new Random( 1 );
+    int n = 200000;
+    for ( int i = 0; i < n; i++ ) {
+      String v = "v" + (int) Math.floor( Math.pow( 1000, r.nextDouble() ) );
+      sketch.offer( v );
+      Integer c = truth.get( v );
+      truth.put( v, c == null ? 1 : c + 1 );
+    }
+    assertTrue( sketch.hasEvicted() );
+    assertEquals( capacity, sketch.size() );
+    assertEquals( n, sketch.getTotal() );
+
+    // counts over-estimate by at most the recorded error, and the counts
+    // always add up to the length of the stream
+    long sum = 0;
+    for ( int i = 0; i < sketch.size(); i++ ) {
+      long trueCount = truth.get( sketch.getKey( i ) );
+      assertTrue( sketch.getKey( i ) + " under-estimated", sketch.getCount( i ) >= trueCount );
+      assertTrue( sketch.getKey( i ) + " error too small", sketch.getCount( i ) - sketch.getError( i ) <= trueCount );
+      assertTrue( sketch.getKey( i ) + " error too large", sketch.getError( i ) <= n / capacity );
+      sum += sketch.getCount( i );
+    }
+    assertEquals( n, sum );
+
+    // anything more frequent than n / capacity must be tracked
+    Map<Object, Integer> slots = tracked( sketch );
+    for ( Map.Entry<Object, Integer> e : truth.entrySet() ) {
+      if ( e.getValue() > n / capacity ) {
+        assertTrue( e.getKey() + " not tracked", slots.containsKey( e.getKey() ) );
+      }
+    }
+  }
+
+  @Test public void testCopyIsIndependent() {
+    SpaceSavingSketch sketch = new SpaceSavingSketch( 2 );
+    sketch.offer( "a" );
+    sketch.offer( "a" );
+    sketch.offer( "b" );
+    SpaceSavingSketch copy = sketch.copy();
+
+    sketch.offer( "c" );
+    assertEquals( 3, copy.getTotal() );
+    Map<Object, Integer> slots = tracked( copy );
+    assertEquals( 2, slots.size() );
+    assertEquals( 2, copy.getCount( slots.get( "a" ) ) );
+    assertEquals( 1, copy.getCount( slots.get( "b" ) ) );
+
+    // the copy carries on independently
+    copy.offer( "b" );
+    copy.offer( "b" );
+    assertEquals( 3, copy.getCount( tracked( copy ).get( "b" ) ) );
+    assertFalse( tracked( sketch ).containsKey( "b" ) );
+  }
+}
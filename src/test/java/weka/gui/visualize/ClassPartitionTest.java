@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for ClassPartition
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class ClassPartitionTest {
+
+  @Test
+  public void testSmallPartition() {
+    double[] classes = { 2, 0, Double.NaN, 1, 0, 2, 0 };
+    ClassPartition partition = new ClassPartition(classes, 4, 3);
+
+    assertEquals(4, partition.classIndex());
+    assertEquals(3, partition.numClasses());
+    assertArrayEquals(new int[] { 1, 4, 6, 3, 0, 5 }, partition.order());
+    assertEquals(3, partition.size(0));
+    assertEquals(1, partition.size(1));
+    assertEquals(2, partition.size(2));
+    assertEquals(3, partition.start(1));
+    assertEquals(4, partition.end(1));
+
+    double[] column = { 10, 11, 12, 13, 14, 15, 16 };
+    assertTrue(Arrays.equals(new double[] { 11, 14, 16 },
+      partition.slice(column, 0)));
+    assertTrue(Arrays.equals(new double[] { 10, 15 },
+      partition.slice(column, 2)));
+  }
+
+  @Test
+  public void testEmptyClass() {
+    double[] classes = { 0, 2, 0 };
+    ClassPartition partition = new ClassPartition(classes, 0, 3);
+    assertEquals(0, partition.size(1));
+    assertEquals(0, partition.slice(classes, 1).length);
+    assertEquals(partition.start(1), partition.end(1));
+  }
+
+  @Test
+  public void testMatchesFilterByClass() {
+    // compare with the straightforward way of splitting rows by class
+    int numClasses = 7;
+    int n = 10000;
+    Random r = new Random(1);
+    double[] classes = new double[n];
+    double[] column = new double[n];
+    for (int i = 0; i < n; i++) {
+      classes[i] = r.nextInt(20) == 0 ? Double.NaN : r.nextInt(numClasses);
+      column[i] = r.nextGaussian();
+    }
+
+    ClassPartition partition = new ClassPartition(classes, 0, numClasses);
+    int total = 0;
+    for (int k = 0; k < numClasses; k++) {
+      List<Integer> rows = new ArrayList<Integer>();
+      for (int i = 0; i < n; i++) {
+        if (classes[i] == k) {
+          rows.add(i);
+        }
+      }
+      assertEquals(rows.size(), partition.size(k));
+      double[] slice = partition.slice(column, k);
+      for (int i = 0; i < rows.size(); i++) {
+        assertEquals(rows.get(i).intValue(),
+          partition.order()[partition.start(k) + i]);
+        assertEquals(column[rows.get(i)], slice[i], 0);
+      }
+      total += rows.size();
+    }
+    assertEquals(total, partition.order().length);
+  }
+}
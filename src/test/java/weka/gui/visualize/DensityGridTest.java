@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for DensityGrid
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class DensityGridTest {
+
+  @Test
+  public void testBinEdges() {
+    DensityGrid grid = new DensityGrid(10, 0, 10, -1, 1, 1);
+    assertEquals(0, grid.bin(0, 0, 10));
+    assertEquals(1, grid.bin(1, 0, 10));
+    assertEquals(4, grid.bin(4.99, 0, 10));
+    assertEquals(9, grid.bin(9.5, 0, 10));
+
+    // the max falls into the last bin, not one past it
+    assertEquals(9, grid.bin(10, 0, 10));
+    assertEquals(9, grid.bin(Math.nextDown(10.0), 0, 10));
+    assertEquals(9, grid.bin(1, -1, 1));
+    assertEquals(9, grid.bin(0.3, 0.1, 0.3));
+
+    // outside of the range
+    assertEquals(-1, grid.bin(-0.001, 0, 10));
+    assertEquals(10, grid.bin(Math.nextUp(10.0), 0, 10));
+
+    // an empty range puts everything in the first bin
+    assertEquals(0, grid.bin(5, 5, 5));
+  }
+
+  @Test
+  public void testAddAtMax() {
+    DensityGrid grid = new DensityGrid(4, 0, 1, 0, 2, 2);
+    grid.add(1, 2, 0);
+    grid.add(1, 2, 1);
+    grid.add(0, 0, 1);
+    grid.add(1.5, 1, 0);
+    grid.add(Double.NaN, 1, 0);
+
+    assertEquals(1, grid.getCount(0, 3, 3));
+    assertEquals(1, grid.getCount(1, 3, 3));
+    assertEquals(1, grid.getCount(1, 0, 0));
+
+    int total = 0;
+    for (int cls = 0; cls < 2; cls++) {
+      for (int gx = 0; gx < 4; gx++) {
+        for (int gy = 0; gy < 4; gy++) {
+          total += grid.getCount(cls, gx, gy);
+        }
+      }
+    }
+    assertEquals(3, total);
+  }
+}
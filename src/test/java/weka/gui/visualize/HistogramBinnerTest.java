@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.knowm.xchart.Histogram;
+
+/**
+ * Tests for HistogramBinner. Checks the bins against those of XChart's
+ * Histogram, which HistogramBinner replaces.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class HistogramBinnerTest {
+
+  protected static void assertMatchesXChart(double[] values, int numBins,
+    double min, double max) {
+    List<Double> nonMissing = new ArrayList<Double>();
+    for (double v : values) {
+      if (!Double.isNaN(v)) {
+        nonMissing.add(v);
+      }
+    }
+    Histogram expected = new Histogram(nonMissing, numBins, min, max);
+
+    double[] centers = HistogramBinner.binCenters(numBins, min, max);
+    double[] counts =
+      HistogramBinner.binCounts(values, null, 1, numBins, min, max)[0];
+    assertEquals(numBins, centers.length);
+    assertEquals(numBins, counts.length);
+    for (int i = 0; i < numBins; i++) {
+      assertEquals("center of bin " + i, expected.getxAxisData().get(i),
+        centers[i], 1e-12);
+      assertEquals("count of bin " + i, expected.getyAxisData().get(i),
+        counts[i], 0);
+    }
+  }
+
+  @Test
+  public void testRandomValues() {
+    Random r = new Random(1);
+    double[] values = new double[10000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = r.nextGaussian() * 10 + 3;
+    }
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (double v : values) {
+      min = Math.min(min, v);
+      max = Math.max(max, v);
+    }
+    for (int numBins : new int[] { 1, 7, 10, 64 }) {
+      assertMatchesXChart(values, numBins, min, max);
+    }
+  }
+
+  @Test
+  public void testValuesOnBinEdges() {
+    // every value is on a bin edge, including several at the max
+    double[] values = new double[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 10, 10 };
+    assertMatchesXChart(values, 10, 0, 10);
+    assertMatchesXChart(values, 5, 0, 10);
+    assertMatchesXChart(values, 3, 0, 10);
+
+    double[] counts = HistogramBinner.binCounts(values, null, 1, 10, 0, 10)[0];
+    assertEquals(4, counts[9], 0);
+  }
+
+  @Test
+  public void testMissingValuesSkipped() {
+    double[] values = new double[] { Double.NaN, 0, 0.5, Double.NaN, 1, 1 };
+    assertMatchesXChart(values, 4, 0, 1);
+
+    double[] counts = HistogramBinner.binCounts(values, null, 1, 4, 0, 1)[0];
+    assertEquals(1, counts[0], 0);
+    assertEquals(0, counts[1], 0);
+    assertEquals(1, counts[2], 0);
+    assertEquals(2, counts[3], 0);
+  }
+
+  @Test
+  public void testPerClassCounts() {
+    double[] values = new double[] { 0, 1, 2, 2, 1 };
+    double[] classes = new double[] { 0, 1, 1, Double.NaN, 0 };
+    double[][] counts = HistogramBinner.binCounts(values, classes, 2, 2, 0, 2);
+    assertEquals(1, counts[0][0], 0);
+    assertEquals(1, counts[0][1], 0);
+    assertEquals(0, counts[1][0], 0);
+    assertEquals(2, counts[1][1], 0);
+  }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for Octree. Box, nearest point and ray queries are checked against a
+ * brute force search over all of the points.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class OctreeTest {
+
+  protected static final int N = 20000;
+
+  protected float[] m_xs = new float[N];
+  protected float[] m_ys = new float[N];
+  protected float[] m_zs = new float[N];
+
+  /**
+   * Fill the coordinates with a mix of uniform, Gaussian and duplicated
+   * points, and some rows with a missing coordinate
+   */
+  protected void fill(boolean constantZ) {
+    Random r = new Random(1);
+    for (int i = 0; i < N; i++) {
+      m_xs[i] = r.nextFloat() * 400 - 200;
+      m_ys[i] = (float) r.nextGaussian() * 50;
+      m_zs[i] = constantZ ? 5 : r.nextFloat() * 400 - 200;
+      if (i % 500 == 7) {
+        // duplicates of the previous point
+        m_xs[i] = m_xs[i - 1];
+        m_ys[i] = m_ys[i - 1];
+        m_zs[i] = m_zs[i - 1];
+      }
+      if (i % 1000 == 0) {
+        m_zs[i] = Float.NaN;
+      }
+    }
+  }
+
+  protected boolean missing(int row) {
+    return Float.isNaN(m_xs[row]) || Float.isNaN(m_ys[row])
+      || Float.isNaN(m_zs[row]);
+  }
+
+  protected int[] bruteForceQuery(float minX, float minY, float minZ,
+    float maxX, float maxY, float maxZ) {
+    int[] result = new int[N];
+    int n = 0;
+    for (int i = 0; i < N; i++) {
+      if (!missing(i) && m_xs[i] >= minX && m_xs[i] <= maxX
+        && m_ys[i] >= minY && m_ys[i] <= maxY && m_zs[i] >= minZ
+        && m_zs[i] <= maxZ) {
+        result[n++] = i;
+      }
+    }
+
+    return Arrays.copyOf(result, n);
+  }
+
+  protected float distance2(int row, float x, float y, float z) {
+    float dx = m_xs[row] - x;
+    float dy = m_ys[row] - y;
+    float dz = m_zs[row] - z;
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Distance along a (unit) ray to the point in a row, or infinity if the
+   * point is behind the origin or further than maxDistance from the ray
+   */
+  protected float along(int row, float ox, float oy, float oz, float ux,
+    float uy, float uz, float maxDistance) {
+    float px = m_xs[row] - ox;
+    float py = m_ys[row] - oy;
+    float pz = m_zs[row] - oz;
+    float t = px * ux + py * uy + pz * uz;
+    if (t < 0 || px * px + py * py + pz * pz - t * t > maxDistance * maxDistance) {
+      return Float.POSITIVE_INFINITY;
+    }
+
+    return t;
+  }
+
+  protected void checkQueries(Octree tree) {
+    Random r = new Random(2);
+    for (int q = 0; q < 200; q++) {
+      // box
+      float x0 = r.nextFloat() * 300 - 200;
+      float y0 = r.nextFloat() * 100 - 60;
+      float z0 = r.nextFloat() * 300 - 200;
+      float w = r.nextFloat() * 80;
+      int[] expected = bruteForceQuery(x0, y0, z0, x0 + w, y0 + w / 2, z0 + w);
+      int[] actual = tree.query(x0, y0, z0, x0 + w, y0 + w / 2, z0 + w);
+      Arrays.sort(actual);
+      assertArrayEquals("box query " + q, expected, actual);
+
+      // nearest - compare distances, as points can be equally near
+      float x = r.nextFloat() * 400 - 200;
+      float y = r.nextFloat() * 100 - 50;
+      float z = r.nextFloat() * 400 - 200;
+      float maxDistance = 10;
+      float best = maxDistance * maxDistance;
+      boolean found = false;
+      for (int i = 0; i < N; i++) {
+        if (!missing(i) && distance2(i, x, y, z) <= best) {
+          best = distance2(i, x, y, z);
+          found = true;
+        }
+      }
+      int nearest = tree.nearest(x, y, z, maxDistance);
+      if (found) {
+        assertTrue("nearest " + q + " missed", nearest >= 0);
+        assertEquals("nearest " + q, best, distance2(nearest, x, y, z), 0);
+      } else {
+        assertEquals("nearest " + q, -1, nearest);
+      }
+
+      // ray, cast into the cloud from outside it
+      float dx = r.nextFloat() * 0.2f - 0.1f;
+      float dy = r.nextFloat() * 0.2f - 0.1f;
+      float dz = 1;
+      float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+      float ux = dx / length;
+      float uy = dy / length;
+      float uz = dz / length;
+      float bestT = Float.POSITIVE_INFINITY;
+      for (int i = 0; i < N; i++) {
+        if (!missing(i)) {
+          bestT = Math.min(bestT, along(i, x, y, -1000, ux, uy, uz, 2));
+        }
+      }
+      int hit = tree.nearestToRay(x, y, -1000, dx, dy, dz, 2);
+      if (bestT < Float.POSITIVE_INFINITY) {
+        assertTrue("ray " + q + " missed", hit >= 0);
+        assertEquals("ray " + q, bestT, along(hit, x, y, -1000, ux, uy, uz, 2),
+          0);
+      } else {
+        assertEquals("ray " + q, -1, hit);
+      }
+    }
+  }
+
+  @Test
+  public void testQueriesMatchBruteForce() {
+    fill(false);
+    Octree tree = new Octree(m_xs, m_ys, m_zs);
+    assertEquals(N - N / 1000, tree.size());
+    checkQueries(tree);
+  }
+
+  @Test
+  public void testSmallLeaves() {
+    fill(false);
+    checkQueries(new Octree(m_xs, m_ys, m_zs, 1));
+  }
+
+  @Test
+  public void testConstantAxis() {
+    // all points in one plane - boxes that miss the plane find nothing
+    fill(true);
+    Octree tree = new Octree(m_xs, m_ys, m_zs);
+    checkQueries(tree);
+    assertEquals(0, tree.query(-200, -200, 6, 200, 200, 10).length);
+    assertEquals(N - N / 1000, tree.query(-200, -1000, 5, 200, 1000, 5).length);
+  }
+
+  @Test
+  public void testEmpty() {
+    float[] none = new float[0];
+    Octree tree = new Octree(none, none, none);
+    assertEquals(0, tree.size());
+    assertEquals(0, tree.query(-1, -1, -1, 1, 1, 1).length);
+    assertEquals(-1, tree.nearest(0, 0, 0, 1));
+    assertEquals(-1, tree.nearestToRay(0, 0, -10, 0, 0, 1, 1));
+  }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Pentaho Data Science
+ * <p/>
+ * Copyright (c) 2002-2019 Hitachi Vantara. All rights reserved.
+ * <p/>
+ * ******************************************************************************
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ * <p/>
+ ******************************************************************************/
+
+package weka.gui.visualize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for QuantileSketch. Checks the rank error of the sketch against the
+ * exact ranks of a shuffled stream of the integers 0 .. n - 1, for which the
+ * true normalized rank of v is (v + 1) / n.
+ *
+ * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+ * @version $Revision: $
+ */
+public class QuantileSketchTest {
+
+  /** Allowed rank error for the default k (about 1.5% is expected) */
+  protected static final double EPSILON = 0.025;
+
+  protected static int[] shuffled(int n, long seed) {
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = i;
+    }
+    Random r = new Random(seed);
+    for (int i = n - 1; i > 0; i--) {
+      int j = r.nextInt(i + 1);
+      int t = values[i];
+      values[i] = values[j];
+      values[j] = t;
+    }
+
+    return values;
+  }
+
+  protected static double maxRankError(QuantileSketch sketch, int n) {
+    double maxError = 0;
+    for (int v = 0; v < n; v += Math.max(1, n / 1000)) {
+      maxError = Math.max(maxError,
+        Math.abs(sketch.rank(v) - (v + 1) / (double) n));
+    }
+    for (int i = 0; i <= 100; i++) {
+      double q = i / 100.0;
+      double v = sketch.quantile(q);
+      maxError = Math.max(maxError, Math.abs((v + 1) / n - q));
+    }
+
+    return maxError;
+  }
+
+  @Test
+  public void testEmpty() {
+    QuantileSketch sketch = new QuantileSketch();
+    assertEquals(0, sketch.getN());
+    assertTrue(Double.isNaN(sketch.quantile(0.5)));
+    assertTrue(Double.isNaN(sketch.rank(0)));
+  }
+
+  @Test
+  public void testExactWhileSmall() {
+    QuantileSketch sketch = new QuantileSketch();
+    int n = 100;
+    for (int v : shuffled(n, 1)) {
+      sketch.update(v);
+    }
+    assertEquals(n, sketch.getN());
+    assertEquals(0, sketch.quantile(0), 0);
+    assertEquals(49, sketch.quantile(0.5), 0);
+    assertEquals(99, sketch.quantile(1), 0);
+    assertEquals(0.25, sketch.rank(24), 0);
+  }
+
+  @Test
+  public void testRankErrorBound() {
+    int n = 1000000;
+    QuantileSketch sketch = new QuantileSketch();
+    for (int v : shuffled(n, 1)) {
+      sketch.update(v);
+    }
+    assertEquals(n, sketch.getN());
+    double error = maxRankError(sketch, n);
+    assertTrue("rank error " + error, error <= EPSILON);
+
+    // memory stays O(k) however long the stream
+    assertTrue("retained " + sketch.numRetained(),
+      sketch.numRetained() <= sketch.totalCapacity());
+    assertTrue("capacity " + sketch.totalCapacity(),
+      sketch.totalCapacity() < 4 * QuantileSketch.DEFAULT_K);
+  }
+
+  @Test
+  public void testSortedInputRankErrorBound() {
+    int n = 500000;
+    QuantileSketch sketch = new QuantileSketch();
+    for (int v = 0; v < n; v++) {
+      sketch.update(v);
+    }
+    double error = maxRankError(sketch, n);
+    assertTrue("rank error " + error, error <= EPSILON);
+  }
+
+  @Test
+  public void testMergeRankErrorBound() {
+    int n = 600000;
+    int[] values = shuffled(n, 2);
+    QuantileSketch[] parts = new QuantileSketch[3];
+    for (int p = 0; p < parts.length; p++) {
+      parts[p] = new QuantileSketch();
+    }
+    for (int i = 0; i < n; i++) {
+      // unequal parts
+      parts[i % 6 == 0 ? 0 : i % 6 < 3 ? 1 : 2].update(values[i]);
+    }
+
+    QuantileSketch merged = parts[0].copy();
+    merged.merge(parts[1]);
+    merged.merge(parts[2]);
+    assertEquals(n, merged.getN());
+    double error = maxRankError(merged, n);
+    assertTrue("rank error " + error, error <= EPSILON);
+  }
+
+  @Test
+  public void testWriteRead() throws Exception {
+    int n = 100000;
+    QuantileSketch sketch = new QuantileSketch();
+    for (int v : shuffled(n, 3)) {
+      sketch.update(v);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    sketch.write(new DataOutputStream(bytes));
+    QuantileSketch read = QuantileSketch.read(new DataInputStream(
+      new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(sketch.getN(), read.getN());
+    for (int i = 0; i <= 20; i++) {
+      assertEquals(sketch.quantile(i / 20.0), read.quantile(i / 20.0), 0);
+    }
+  }
+
+  @Test
+  public void testBinCountsSumToN() {
+    int n = 200000;
+    QuantileSketch sketch = new QuantileSketch();
+    for (int v : shuffled(n, 4)) {
+      sketch.update(v);
+    }
+    double[] counts = sketch.binCounts(10, 0, n - 1);
+    double sum = 0;
+    for (double c : counts) {
+      assertEquals(n / 10.0, c, n * EPSILON);
+      sum += c;
+    }
+    assertEquals(n, sum, 0);
+  }
+}